@@ -0,0 +1,209 @@
+/*
+ * Copyright 2019 Claire Fauch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.code.fauch.hedwig;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Benchmark of the number of concurrent sessions held by a TFTPExecutor with platform threads and with
+ * virtual threads (when supported by the runtime).
+ *
+ * A responder on the loopback interface answers each READ request by a single DATA block after a delay, so
+ * that every session stays open for the time of the delay.
+ *
+ * Usage: ConcurrencyBenchmark [sessions] [delay in ms]
+ *
+ * @author c.fauch
+ *
+ */
+public final class ConcurrencyBenchmark {
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args the number of sessions and the response delay in milliseconds
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        final int sessions = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        final int delay = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+        try (Responder responder = new Responder(delay)) {
+            run("platform", TFTPExecutor.platformThreads(sessions), sessions, responder);
+            if (TFTPExecutor.hasVirtualThreads()) {
+                run("virtual", TFTPExecutor.virtualThreads(sessions), sessions, responder);
+            } else {
+                System.out.println("virtual: not supported by this runtime (" + Runtime.version() + ")");
+            }
+        }
+    }
+
+    /**
+     * Runs all the sessions at the same time and prints the reached concurrency.
+     *
+     * @param name the name of the mode
+     * @param executor the executor to benchmark
+     * @param sessions the number of sessions
+     * @param responder the responder
+     */
+    private static void run(final String name, final TFTPExecutor executor, final int sessions,
+            final Responder responder) {
+        responder.reset();
+        final List<TransferJob> jobs = new ArrayList<>(sessions);
+        for (int i = 0; i < sessions; i++) {
+            jobs.add(TransferJob.get(InetAddress.getLoopbackAddress(), responder.getPort(),
+                    new ByteArrayOutputStream(), "file" + i, "octet"));
+        }
+        final long start = System.nanoTime();
+        try (executor) {
+            executor.runAll(jobs);
+        }
+        final long elapsed = System.nanoTime() - start;
+        System.out.println(String.format("%s: %d sessions in %d ms, %d concurrent sessions, %d threads", name,
+                sessions, TimeUnit.NANOSECONDS.toMillis(elapsed), responder.getPeak(), responder.getThreads()));
+    }
+
+    /**
+     * Answers each READ request by a single DATA block after a delay.
+     */
+    private static final class Responder implements AutoCloseable {
+
+        /**
+         * The channel receiving the requests.
+         */
+        private final DatagramChannel channel;
+
+        /**
+         * Sends the delayed answers.
+         */
+        private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+        /**
+         * The receiving thread.
+         */
+        private final Thread thread;
+
+        /**
+         * The number of pending requests.
+         */
+        private final AtomicInteger pending = new AtomicInteger();
+
+        /**
+         * The maximum number of pending requests.
+         */
+        private final AtomicInteger peak = new AtomicInteger();
+
+        /**
+         * The maximum number of platform threads when a request is received.
+         */
+        private final AtomicInteger threads = new AtomicInteger();
+
+        /**
+         * Constructor.
+         *
+         * @param delay the response delay in milliseconds
+         * @throws IOException
+         */
+        Responder(final int delay) throws IOException {
+            this.channel = DatagramChannel.open().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            this.channel.socket().setReceiveBufferSize(4 * 1024 * 1024);
+            this.thread = new Thread(() -> {
+                final ByteBuffer request = ByteBuffer.allocate(516);
+                try {
+                    while (true) {
+                        request.clear();
+                        final SocketAddress client = this.channel.receive(request);
+                        if (request.getShort(0) != EOperation.READ.getCode()) {
+                            continue;
+                        }
+                        this.peak.accumulateAndGet(this.pending.incrementAndGet(), Math::max);
+                        this.threads.accumulateAndGet(Thread.activeCount(), Math::max);
+                        this.scheduler.schedule(() -> answer(client), delay, TimeUnit.MILLISECONDS);
+                    }
+                } catch (IOException e) {
+                    // closed
+                }
+            });
+            this.thread.start();
+        }
+
+        /**
+         * @return the port of the responder
+         */
+        int getPort() {
+            return this.channel.socket().getLocalPort();
+        }
+
+        /**
+         * @return the maximum number of pending requests since the last reset
+         */
+        int getPeak() {
+            return this.peak.get();
+        }
+
+        /**
+         * @return the maximum number of platform threads since the last reset
+         */
+        int getThreads() {
+            return this.threads.get();
+        }
+
+        /**
+         * Resets the maximums.
+         */
+        void reset() {
+            this.peak.set(0);
+            this.threads.set(0);
+        }
+
+        /**
+         * Sends the single DATA block of a transfer.
+         *
+         * @param client the client (not null)
+         */
+        private void answer(final SocketAddress client) {
+            this.pending.decrementAndGet();
+            try {
+                this.channel.send(PacketView.data(ByteBuffer.allocate(20), 1).put(new byte[16]).flip(), client);
+            } catch (IOException e) {
+                // the client will time out
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.channel.close();
+            this.scheduler.shutdown();
+            try {
+                this.thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,333 @@
+/*
+ * Copyright 2019 Claire Fauch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.code.fauch.hedwig;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.DatagramChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * End-to-end benchmark of the transfers over the loopback interface.
+ *
+ * An in-process TFTPServer serves a temporary directory and the TFTP client puts and gets files over a matrix
+ * of file sizes, block sizes and window sizes. Each combination is run several times after a warm up run and
+ * reports the median of:
+ * <ul>
+ * <li>the throughput in MB/s,</li>
+ * <li>the number of DATA packets per second,</li>
+ * <li>the p50 and p99 of the time between two consecutive blocks seen by the client in microseconds,</li>
+ * <li>the bytes allocated by all the threads (client and server) per transferred MB.</li>
+ * </ul>
+ *
+ * Each transfer uses a new channel (a new transfer identifier), as a real client does.
+ *
+ * The results are printed as CSV lines so that two runs can be compared before an upgrade.
+ *
+ * Usage: LoopbackBenchmark [sizes=65536,1048576,16777216] [blksizes=512,1428,8192,65464] [windowsizes=1,4,16]
+ * [iterations=5]
+ *
+ * @author c.fauch
+ *
+ */
+public final class LoopbackBenchmark {
+
+    /**
+     * The allocation counters of the threads.
+     */
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    /**
+     * The loopback address.
+     */
+    private static final InetAddress HOST = InetAddress.getLoopbackAddress();
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args the matrix and the number of iterations as key=value arguments
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        long[] sizes = {65_536, 1_048_576, 16_777_216};
+        long[] blksizes = {512, 1428, 8192, 65464};
+        long[] windowsizes = {1, 4, 16};
+        int iterations = 5;
+        for (String arg : args) {
+            final String[] pair = arg.split("=", 2);
+            final long[] values = Arrays.stream(pair[1].split(",")).mapToLong(Long::parseLong).toArray();
+            switch (pair[0]) {
+            case "sizes":
+                sizes = values;
+                break;
+            case "blksizes":
+                blksizes = values;
+                break;
+            case "windowsizes":
+                windowsizes = values;
+                break;
+            case "iterations":
+                iterations = (int) values[0];
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown argument: " + arg);
+            }
+        }
+        final Path root = Files.createTempDirectory("hedwig");
+        try (TFTPServer server = new TFTPServer(root).writable(true).maxWindowsize(65535)
+                .start(new InetSocketAddress(HOST, 0))) {
+            final int port = server.getAddress().getPort();
+            System.out.println("operation,size,blksize,windowsize,MB/s,packets/s,p50 us,p99 us,bytes/MB");
+            for (long size : sizes) {
+                final byte[] content = new byte[(int) size];
+                new Random(1).nextBytes(content);
+                Files.write(root.resolve("file.bin"), content);
+                for (long blksize : blksizes) {
+                    for (long windowsize : windowsizes) {
+                        final Option[] options = {Option.blksize(blksize), Option.windowsize(windowsize)};
+                        final List<Run> puts = new ArrayList<>();
+                        final List<Run> gets = new ArrayList<>();
+                        for (int i = 0; i <= iterations; i++) {
+                            final Run put = new Run(size, (int) blksize);
+                            put.start();
+                            try (DatagramChannel channel = DatagramChannel.open()) {
+                                new TFTP(channel).put(HOST, port, put.input(content), "upload.bin", "octet",
+                                        options);
+                            }
+                            put.stop();
+                            Files.delete(root.resolve("upload.bin"));
+                            final Run get = new Run(size, (int) blksize);
+                            get.start();
+                            try (DatagramChannel channel = DatagramChannel.open()) {
+                                new TFTP(channel).get(HOST, port, get.output(), "file.bin", "octet", options);
+                            }
+                            get.stop();
+                            if (i > 0) { // the first run is the warm up
+                                puts.add(put);
+                                gets.add(get);
+                            }
+                        }
+                        report("put", size, blksize, windowsize, puts);
+                        report("get", size, blksize, windowsize, gets);
+                    }
+                }
+            }
+        } finally {
+            try (var files = Files.list(root)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(root);
+        }
+    }
+
+    /**
+     * Prints the median values of the runs of a combination.
+     *
+     * @param operation put or get
+     * @param size the size of the file
+     * @param blksize the block size
+     * @param windowsize the window size
+     * @param runs the runs (not empty)
+     */
+    private static void report(final String operation, final long size, final long blksize,
+            final long windowsize, final List<Run> runs) {
+        final long blocks = size / blksize + 1;
+        final double mb = size / 1_048_576.0;
+        final double[] seconds = runs.stream().mapToDouble(r -> r.nanos / 1e9).sorted().toArray();
+        final double median = seconds[seconds.length / 2];
+        final long[] intervals = runs.stream().flatMapToLong(r -> Arrays.stream(r.intervals, 0, r.count))
+                .sorted().toArray();
+        final long[] allocated = runs.stream().mapToLong(r -> r.allocated).sorted().toArray();
+        System.out.printf("%s,%d,%d,%d,%.1f,%.0f,%.1f,%.1f,%.0f%n", operation, size, blksize, windowsize,
+                mb / median, blocks / median, percentile(intervals, 50) / 1e3, percentile(intervals, 99) / 1e3,
+                allocated[allocated.length / 2] / Math.max(mb, 1.0 / 1024));
+    }
+
+    /**
+     * Returns a percentile of sorted values.
+     *
+     * @param values the sorted values
+     * @param percent the percentile
+     * @return the value or 0 if there is no value
+     */
+    private static long percentile(final long[] values, final int percent) {
+        if (values.length == 0) {
+            return 0;
+        }
+        return values[Math.min(values.length - 1, values.length * percent / 100)];
+    }
+
+    /**
+     * @return the number of bytes allocated so far by all the live threads
+     */
+    private static long allocated() {
+        long total = 0;
+        for (long bytes : THREADS.getThreadAllocatedBytes(THREADS.getAllThreadIds())) {
+            total += Math.max(bytes, 0);
+        }
+        return total;
+    }
+
+    /**
+     * Measures of a transfer.
+     */
+    private static final class Run {
+
+        /**
+         * The block size.
+         */
+        private final int blksize;
+
+        /**
+         * The time between two consecutive blocks in nanoseconds.
+         */
+        private final long[] intervals;
+
+        /**
+         * The number of measured intervals.
+         */
+        private int count;
+
+        /**
+         * The number of bytes read or written by the client.
+         */
+        private long bytes;
+
+        /**
+         * The time of the last block.
+         */
+        private long last;
+
+        /**
+         * The duration of the transfer in nanoseconds.
+         */
+        private long nanos;
+
+        /**
+         * The bytes allocated during the transfer.
+         */
+        private long allocated;
+
+        /**
+         * Constructor.
+         *
+         * @param size the size of the file
+         * @param blksize the block size
+         */
+        Run(final long size, final int blksize) {
+            this.blksize = blksize;
+            this.intervals = new long[(int) (size / blksize) + 1];
+        }
+
+        /**
+         * Starts the measures.
+         */
+        void start() {
+            this.allocated = allocated();
+            this.nanos = System.nanoTime();
+            this.last = this.nanos;
+        }
+
+        /**
+         * Stops the measures.
+         */
+        void stop() {
+            this.nanos = System.nanoTime() - this.nanos;
+            this.allocated = allocated() - this.allocated;
+        }
+
+        /**
+         * Records the time of the blocks crossed by the given number of bytes.
+         *
+         * @param length the number of bytes read or written
+         */
+        void progress(final int length) {
+            final long before = this.bytes / this.blksize;
+            this.bytes += length;
+            if (this.bytes / this.blksize > before && this.count < this.intervals.length) {
+                final long now = System.nanoTime();
+                this.intervals[this.count++] = now - this.last;
+                this.last = now;
+            }
+        }
+
+        /**
+         * Returns the stream read by a put: the blocks are timed when the client reads them.
+         *
+         * @param content the content of the file
+         * @return the input stream
+         */
+        InputStream input(final byte[] content) {
+            return new InputStream() {
+
+                private int position;
+
+                @Override
+                public int read() {
+                    final byte[] one = new byte[1];
+                    return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+                }
+
+                @Override
+                public int read(final byte[] b, final int off, final int len) {
+                    if (this.position >= content.length) {
+                        return -1;
+                    }
+                    final int count = Math.min(len, content.length - this.position);
+                    System.arraycopy(content, this.position, b, off, count);
+                    this.position += count;
+                    progress(count);
+                    return count;
+                }
+
+            };
+        }
+
+        /**
+         * Returns the stream written by a get: the blocks are timed when the client writes them.
+         *
+         * @return the output stream
+         */
+        OutputStream output() {
+            return new OutputStream() {
+
+                @Override
+                public void write(final int b) {
+                    progress(1);
+                }
+
+                @Override
+                public void write(final byte[] b, final int off, final int len) {
+                    progress(len);
+                }
+
+            };
+        }
+
+    }
+
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2019 Claire Fauch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.code.fauch.hedwig;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of the option codec.
+ *
+ * @author c.fauch
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class OptionBenchmark {
+
+    @Param({"8", "512", "1428", "8192", "65464"})
+    private int blksize;
+
+    private Option option;
+
+    private ByteBuffer encoded;
+
+    private ByteBuffer buffer;
+
+    @Setup
+    public void setUp() throws UnsupportedEncodingException {
+        this.option = Option.blksize(this.blksize);
+        this.encoded = ByteBuffer.wrap(this.option.encode());
+        this.buffer = ByteBuffer.allocate(this.option.length());
+    }
+
+    @Benchmark
+    public byte[] encode() throws UnsupportedEncodingException {
+        return this.option.encode();
+    }
+
+    @Benchmark
+    public ByteBuffer encodeInPlace() {
+        return this.option.encode(this.buffer.clear());
+    }
+
+    @Benchmark
+    public Option decode() throws UnsupportedEncodingException {
+        return Option.decode(this.encoded.rewind());
+    }
+
+}
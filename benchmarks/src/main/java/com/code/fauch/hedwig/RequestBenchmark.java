@@ -0,0 +1,73 @@
+/*
+ * Copyright 2019 Claire Fauch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.code.fauch.hedwig;
+
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of the request codec.
+ *
+ * @author c.fauch
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RequestBenchmark {
+
+    @Param({"8", "512", "1428", "8192", "65464"})
+    private int blksize;
+
+    private Request read;
+
+    private Request write;
+
+    @Setup
+    public void setUp() {
+        final InetAddress host = InetAddress.getLoopbackAddress();
+        this.read = Request.read("pxelinux.0", "octet", host, 69, Option.blksize(this.blksize),
+                Option.tsize(0), Option.windowsize(16));
+        this.write = Request.write("config.bin", "octet", host, 69, Option.blksize(this.blksize),
+                Option.tsize(1_048_576));
+    }
+
+    @Benchmark
+    public byte[] encodeRead() throws UnsupportedEncodingException {
+        return this.read.encode();
+    }
+
+    @Benchmark
+    public byte[] encodeWrite() throws UnsupportedEncodingException {
+        return this.write.encode();
+    }
+
+}
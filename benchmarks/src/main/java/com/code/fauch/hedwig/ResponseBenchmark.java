@@ -0,0 +1,145 @@
+/*
+ * Copyright 2019 Claire Fauch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.code.fauch.hedwig;
+
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of the response codec: the Response objects and the PacketView used by the sessions.
+ *
+ * @author c.fauch
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ResponseBenchmark {
+
+    @Param({"8", "512", "1428", "8192", "65464"})
+    private int blksize;
+
+    private InetAddress host;
+
+    private Response data;
+
+    private Response ack;
+
+    private Response oack;
+
+    private ByteBuffer dataPacket;
+
+    private ByteBuffer ackPacket;
+
+    private ByteBuffer oackPacket;
+
+    private ByteBuffer buffer;
+
+    private byte[] block;
+
+    private final PacketView view = new PacketView();
+
+    @Setup
+    public void setUp() throws UnsupportedEncodingException {
+        this.host = InetAddress.getLoopbackAddress();
+        this.block = new byte[this.blksize];
+        new Random(1).nextBytes(this.block);
+        this.data = Response.data(42, this.block, this.host, 69);
+        this.ack = Response.ack(42, this.host, 69);
+        this.oack = Response.oack(0, this.host, 69, Option.blksize(this.blksize), Option.tsize(1_048_576),
+                Option.windowsize(16));
+        this.dataPacket = ByteBuffer.wrap(this.data.encode());
+        this.ackPacket = ByteBuffer.wrap(this.ack.encode());
+        this.oackPacket = ByteBuffer.wrap(this.oack.encode());
+        this.buffer = ByteBuffer.allocateDirect(this.blksize + 4);
+    }
+
+    @Benchmark
+    public byte[] encodeData() throws UnsupportedEncodingException {
+        return this.data.encode();
+    }
+
+    @Benchmark
+    public byte[] encodeAck() throws UnsupportedEncodingException {
+        return this.ack.encode();
+    }
+
+    @Benchmark
+    public byte[] encodeOack() throws UnsupportedEncodingException {
+        return this.oack.encode();
+    }
+
+    @Benchmark
+    public Response fromData() throws UnsupportedEncodingException, TFTPException {
+        return Response.from(this.dataPacket.rewind(), this.host, 69);
+    }
+
+    @Benchmark
+    public Response fromAck() throws UnsupportedEncodingException, TFTPException {
+        return Response.from(this.ackPacket.rewind(), this.host, 69);
+    }
+
+    @Benchmark
+    public Response fromOack() throws UnsupportedEncodingException, TFTPException {
+        return Response.from(this.oackPacket.rewind(), this.host, 69);
+    }
+
+    @Benchmark
+    public ByteBuffer viewEncodeData() {
+        return PacketView.data(this.buffer, 42).put(this.block);
+    }
+
+    @Benchmark
+    public ByteBuffer viewEncodeAck() {
+        return PacketView.ack(this.buffer, 42);
+    }
+
+    @Benchmark
+    public int viewData() {
+        this.view.wrap(this.dataPacket.rewind());
+        return this.view.getBlock() + this.view.getLength();
+    }
+
+    @Benchmark
+    public int viewAck() {
+        this.view.wrap(this.ackPacket.rewind());
+        return this.view.getBlock();
+    }
+
+    @Benchmark
+    public long viewOack() {
+        this.view.wrap(this.oackPacket.rewind());
+        return this.view.getOption(EOption.BLKSIZE);
+    }
+
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2019 Claire Fauch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.code.fauch.hedwig;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Channel reading the content of a byte buffer between its position and its limit.
+ *
+ * The buffer may be the mapping of a file replaced in place: the size of the file is checked before each read,
+ * so that a file truncated while mapped fails the read with an IOException instead of a fault in the missing
+ * pages.
+ *
+ * @author c.fauch
+ *
+ */
+final class BufferInput implements ReadableByteChannel {
+
+    /**
+     * The buffer to read.
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * The mapped file (null if the buffer is not a mapping).
+     */
+    private final Path file;
+
+    /**
+     * True once closed.
+     */
+    private boolean closed;
+
+    /**
+     * Constructor.
+     *
+     * @param buffer the buffer to read, not shared with other readers (not null)
+     */
+    BufferInput(final ByteBuffer buffer) {
+        this(buffer, null);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param buffer the mapping of the whole file to read, not shared with other readers (not null)
+     * @param file the mapped file (null if the buffer is not a mapping)
+     */
+    BufferInput(final ByteBuffer buffer, final Path file) {
+        this.buffer = buffer;
+        this.file = file;
+    }
+
+    @Override
+    public int read(final ByteBuffer dst) throws IOException {
+        if (!this.buffer.hasRemaining()) {
+            return -1;
+        }
+        if (this.file != null && Files.size(this.file) < this.buffer.position() + Math.min(dst.remaining(),
+                this.buffer.remaining())) {
+            throw new IOException("File truncated while read");
+        }
+        try {
+            return copy(this.buffer, dst);
+        } catch (InternalError e) { // a fault in the mapped pages
+            throw new IOException("File truncated while read", e);
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !this.closed;
+    }
+
+    @Override
+    public void close() {
+        this.closed = true;
+    }
+
+    /**
+     * Copies as many bytes as possible from a buffer to another one, without allocating anything.
+     *
+     * @param src the buffer to read (not null)
+     * @param dst the buffer to fill (not null)
+     * @return the number of copied bytes
+     */
+    static int copy(final ByteBuffer src, final ByteBuffer dst) {
+        final int count = Math.min(dst.remaining(), src.remaining());
+        final int limit = src.limit();
+        src.limit(src.position() + count);
+        dst.put(src);
+        src.limit(limit);
+        return count;
+    }
+
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2019 Claire Fauch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.code.fauch.hedwig;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Transport over a datagram channel.
+ *
+ * Buffers are direct buffers read and written in place by the channel. The channel is switched to
+ * non-blocking mode and registered on a dedicated selector to wait for packets with a timeout; its
+ * blocking mode is restored when the transport is closed.
+ *
+ * @author c.fauch
+ *
+ */
+final class ChannelTransport implements Transport {
+
+    /**
+     * Action performed on selected keys: nothing to do, the channel is read or written just after.
+     */
+    private static final Consumer<SelectionKey> NO_ACTION = k -> {};
+
+    /**
+     * The channel.
+     */
+    private final DatagramChannel channel;
+
+    /**
+     * The blocking mode of the channel when the transport was open.
+     */
+    private final boolean blocking;
+
+    /**
+     * The selector used to wait for the channel.
+     */
+    private final Selector selector;
+
+    /**
+     * The registration key of the channel.
+     */
+    private final SelectionKey key;
+
+    /**
+     * Source of the last received packet.
+     */
+    private InetSocketAddress source;
+
+    /**
+     * Constructor.
+     *
+     * @param channel the channel to use (not null)
+     * @throws IOException
+     */
+    ChannelTransport(final DatagramChannel channel) throws IOException {
+        this.channel = channel;
+        this.blocking = channel.isBlocking();
+        this.selector = Selector.open();
+        channel.configureBlocking(false);
+        this.key = channel.register(this.selector, SelectionKey.OP_READ);
+    }
+
+    @Override
+    public ByteBuffer allocate(final int capacity) {
+        return ByteBuffer.allocateDirect(capacity);
+    }
+
+    @Override
+    public int getTimeout() {
+        return 0;
+    }
+
+    @Override
+    public void send(final ByteBuffer packet, final InetSocketAddress remote) throws IOException {
+        while (this.channel.send(packet, remote) == 0) {
+            await(SelectionKey.OP_WRITE, 0);
+        }
+    }
+
+    @Override
+    public void reply(final ByteBuffer packet) throws IOException {
+        send(packet, this.source);
+    }
+
+    @Override
+    public boolean receive(final ByteBuffer packet, final int timeout) throws IOException {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        packet.clear();
+        while (true) {
+            final InetSocketAddress src = (InetSocketAddress) this.channel.receive(packet);
+            if (src != null) {
+                this.source = src;
+                packet.flip();
+                return true;
+            }
+            final long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            await(SelectionKey.OP_READ, Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining)));
+        }
+    }
+
+    @Override
+    public InetAddress getAddress() {
+        return this.source.getAddress();
+    }
+
+    @Override
+    public int getPort() {
+        return this.source.getPort();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.selector.close();
+        if (this.channel.isOpen()) {
+            this.channel.configureBlocking(this.blocking);
+        }
+    }
+
+    /**
+     * Waits until the channel is ready for the given operation.
+     *
+     * @param ops the interest operation
+     * @param timeout the time to wait in milliseconds, 0 to wait indefinitely
+     * @throws IOException
+     */
+    private void await(final int ops, final long timeout) throws IOException {
+        if (this.key.interestOps() != ops) {
+            this.key.interestOps(ops);
+        }
+        this.selector.select(NO_ACTION, timeout);
+    }
+
+}
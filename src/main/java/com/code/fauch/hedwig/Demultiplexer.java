@@ -0,0 +1,282 @@
+/*
+ * Copyright 2019 Claire Fauch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.code.fauch.hedwig;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Datagram channel shared by many sessions of an event loop.
+ *
+ * Each session is attached with the transfer identifier of its remote host and gets its own transport over the
+ * shared channel. A received packet is routed to the session of its source: it is copied into the buffer of the
+ * session, which then reads it as if received on its own channel. A packet coming from an unknown transfer
+ * identifier is answered with an UNKNOWN TRANSFER ID error (https://tools.ietf.org/html/rfc1350#section-4).
+ * The retransmission timers of the attached sessions are checked through the single registration of the
+ * channel.
+ *
+ * The sessions are attached, detached and called by the loop thread only. The channel is closed when the loop
+ * is closed, once the attached sessions are aborted.
+ *
+ * @author c.fauch
+ *
+ */
+final class Demultiplexer implements EventLoop.Handler {
+
+    /**
+     * The shared non-blocking channel.
+     */
+    private final DatagramChannel channel;
+
+    /**
+     * The attached transports by remote transfer identifier.
+     */
+    private final Map<InetSocketAddress, Attached> attached = new HashMap<>();
+
+    /**
+     * The buffer receiving the packets: large enough for any block size.
+     */
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(TFTPServer.MAX_BLKSIZE + 4);
+
+    /**
+     * The view on the received packets.
+     */
+    private final PacketView view = new PacketView();
+
+    /**
+     * Constructor.
+     *
+     * @param channel the non-blocking channel to share (not null)
+     */
+    Demultiplexer(final DatagramChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Registers the channel on an event loop: must be called by the loop thread.
+     *
+     * @param loop the event loop (not null)
+     * @throws IOException if the loop is closed
+     */
+    void register(final EventLoop loop) throws IOException {
+        loop.register(this.channel, this);
+    }
+
+    /**
+     * Attaches a session: must be called by the loop thread.
+     *
+     * @param remote the transfer identifier of the remote host (not null)
+     * @param handler the handler reading the packets of the session (not null)
+     * @return the transport of the session over the shared channel
+     * @throws IOException if the transfer identifier is already attached
+     */
+    Transport attach(final InetSocketAddress remote, final EventLoop.Handler handler) throws IOException {
+        if (this.attached.containsKey(remote)) {
+            throw new IOException("Transfer identifier already attached: " + remote);
+        }
+        final Attached transport = new Attached(remote, handler);
+        this.attached.put(remote, transport);
+        return transport;
+    }
+
+    @Override
+    public void readable() {
+        try {
+            while (true) {
+                this.buffer.clear();
+                final InetSocketAddress source = (InetSocketAddress) this.channel.receive(this.buffer);
+                if (source == null) {
+                    return;
+                }
+                this.buffer.flip();
+                final Attached transport = this.attached.get(source);
+                if (transport != null) {
+                    transport.deliver(this.buffer);
+                } else {
+                    reject(source);
+                }
+            }
+        } catch (IOException e) {
+            abort();
+        }
+    }
+
+    @Override
+    public void expired() {
+        final long now = System.nanoTime();
+        for (Attached transport : new ArrayList<>(this.attached.values())) {
+            if (now - transport.handler.deadline() >= 0) {
+                transport.handler.expired();
+            }
+        }
+    }
+
+    @Override
+    public long deadline() {
+        long deadline = System.nanoTime() + TimeUnit.HOURS.toNanos(1);
+        for (Attached transport : this.attached.values()) {
+            if (transport.handler.deadline() - deadline < 0) {
+                deadline = transport.handler.deadline();
+            }
+        }
+        return deadline;
+    }
+
+    /**
+     * Aborts the attached sessions then closes the channel.
+     */
+    @Override
+    public void abort() {
+        for (Attached transport : new ArrayList<>(this.attached.values())) {
+            transport.handler.abort();
+        }
+        try {
+            this.channel.close();
+        } catch (IOException e) {
+            // nothing more to release
+        }
+    }
+
+    /**
+     * Answers a packet coming from an unknown transfer identifier, unless it is an ERROR packet.
+     *
+     * @param source the source of the packet (not null)
+     * @throws IOException
+     */
+    private void reject(final InetSocketAddress source) throws IOException {
+        if (!this.view.wrap(this.buffer) || this.view.getOperation() == EOperation.ERROR) {
+            return;
+        }
+        ErrorEvent.emit(null, source.getAddress(), source.getPort(), EError.UNKNOWN_TRANSFER_ID, Session.UNKNOWN_TID);
+        this.channel.send(PacketView.error(this.buffer.clear(), EError.UNKNOWN_TRANSFER_ID, Session.UNKNOWN_TID),
+                source);
+    }
+
+    /**
+     * Transport of an attached session over the shared channel.
+     */
+    private final class Attached implements Transport {
+
+        /**
+         * The transfer identifier of the remote host.
+         */
+        private final InetSocketAddress remote;
+
+        /**
+         * The handler reading the packets of the session.
+         */
+        private final EventLoop.Handler handler;
+
+        /**
+         * The packet routed to the session and not read yet (null if none).
+         */
+        private ByteBuffer pending;
+
+        /**
+         * Constructor.
+         *
+         * @param remote the transfer identifier of the remote host (not null)
+         * @param handler the handler reading the packets of the session (not null)
+         */
+        Attached(final InetSocketAddress remote, final EventLoop.Handler handler) {
+            this.remote = remote;
+            this.handler = handler;
+        }
+
+        /**
+         * Routes a packet to the session.
+         *
+         * @param packet the received packet between its position and its limit (not null)
+         */
+        void deliver(final ByteBuffer packet) {
+            this.pending = packet;
+            try {
+                this.handler.readable();
+            } finally {
+                this.pending = null;
+            }
+        }
+
+        @Override
+        public ByteBuffer allocate(final int capacity) {
+            return ByteBuffer.allocateDirect(capacity);
+        }
+
+        @Override
+        public int getTimeout() {
+            return 0;
+        }
+
+        @Override
+        public void send(final ByteBuffer packet, final InetSocketAddress destination) throws IOException {
+            Demultiplexer.this.channel.send(packet, destination);
+        }
+
+        @Override
+        public void reply(final ByteBuffer packet) throws IOException {
+            Demultiplexer.this.channel.send(packet, this.remote);
+        }
+
+        /**
+         * Reads the packet routed to the session, never waits. As on a datagram channel, the end of a packet
+         * larger than the buffer is lost.
+         *
+         * @param packet the buffer allocated by this transport (not null)
+         * @param timeout ignored
+         * @return true if a packet was routed to the session and not read yet
+         */
+        @Override
+        public boolean receive(final ByteBuffer packet, final int timeout) {
+            if (this.pending == null) {
+                return false;
+            }
+            packet.clear();
+            final ByteBuffer src = this.pending;
+            final int limit = src.limit();
+            packet.put(src.limit(src.position() + Math.min(src.remaining(), packet.remaining())));
+            src.limit(limit);
+            this.pending = null;
+            packet.flip();
+            return true;
+        }
+
+        @Override
+        public InetAddress getAddress() {
+            return this.remote.getAddress();
+        }
+
+        @Override
+        public int getPort() {
+            return this.remote.getPort();
+        }
+
+        /**
+         * Detaches the session: the shared channel stays open.
+         */
+        @Override
+        public void close() {
+            Demultiplexer.this.attached.remove(this.remote, this);
+        }
+
+    }
+
+}
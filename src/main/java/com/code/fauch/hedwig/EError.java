@@ -32,6 +32,11 @@ public enum EError {
     NO_SUCH_USER((short) 7),
     OPTION_NEGOTIATION_FAILED((short) 8);
 
+    /**
+     * Errors indexed by code.
+     */
+    private static final EError[] ERRORS = table();
+
     /**
      * error code
      */
@@ -60,12 +65,24 @@ public enum EError {
      * @return the corresponding error.
      */
     public static EError from(final short code) {
-        for (EError op : EError.values()) {
-            if (op.getCode() == code) {
-                return op;
-            }
+        if (code < 0 || code >= ERRORS.length) {
+            throw new IllegalArgumentException("Unknown EError code: " + code);
+        }
+        return ERRORS[code];
+    }
+    
+    /**
+     * Builds the table of errors indexed by code.
+     * 
+     * @return the table
+     */
+    private static EError[] table() {
+        final EError[] errors = values();
+        final EError[] table = new EError[errors[errors.length - 1].code + 1];
+        for (EError err : errors) {
+            table[err.code] = err;
         }
-        throw new IllegalArgumentException("Unknown EError code: " + code);
+        return table;
     }
     
 }
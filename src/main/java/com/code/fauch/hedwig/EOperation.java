@@ -28,6 +28,11 @@ enum EOperation {
     ERROR((short) 5),
     OACK((short) 6);
 
+    /**
+     * Operations indexed by code.
+     */
+    private static final EOperation[] OPERATIONS = table();
+
     /**
      * Operation code.
      */
@@ -58,12 +63,35 @@ enum EOperation {
      * @return the corresponding operation
      */
     static EOperation from(final short code) {
-        for (EOperation op : EOperation.values()) {
-            if (op.getCode() == code) {
-                return op;
-            }
+        final EOperation op = lookup(code);
+        if (op == null) {
+            throw new IllegalArgumentException("Unknown EOperation code: " + code);
+        }
+        return op;
+    }
+    
+    /**
+     * Returns the operation corresponding to given code without failing.
+     * 
+     * @param code the operation code
+     * @return the corresponding operation or null if the code is unknown
+     */
+    static EOperation lookup(final short code) {
+        return code >= 0 && code < OPERATIONS.length ? OPERATIONS[code] : null;
+    }
+    
+    /**
+     * Builds the table of operations indexed by code.
+     * 
+     * @return the table
+     */
+    private static EOperation[] table() {
+        final EOperation[] ops = values();
+        final EOperation[] table = new EOperation[ops[ops.length - 1].code + 1];
+        for (EOperation op : ops) {
+            table[op.code] = op;
         }
-        throw new IllegalArgumentException("Unknown EOperation code: " + code);
+        return table;
     }
     
 }
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2019 Claire Fauch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.code.fauch.hedwig;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * All options known by the packet decoder.
+ *
+ * @author c.fauch
+ *
+ */
+enum EOption {
+    BLKSIZE(Option.BLKSIZE),
+    TIMEOUT(Option.TIMEOUT),
+    TSIZE(Option.TSIZE),
+    WINDOWSIZE(Option.WINDOWSIZE),
+    ROLLOVER(Option.ROLLOVER),
+    MULTICAST(Option.MULTICAST, false);
+
+    /**
+     * All options (values() returns a new array at each call).
+     */
+    private static final EOption[] OPTIONS = values();
+
+    /**
+     * Label of the option.
+     */
+    private final String label;
+
+    /**
+     * Label of the option encoded in US-ASCII (lower case).
+     */
+    private final byte[] bytes;
+
+    /**
+     * True if the value of the option is a number.
+     */
+    private final boolean numeric;
+
+    /**
+     * No constructor.
+     *
+     * @param label the label of the option
+     */
+    private EOption(final String label) {
+        this(label, true);
+    }
+
+    /**
+     * No constructor.
+     *
+     * @param label the label of the option
+     * @param numeric true if the value of the option is a number
+     */
+    private EOption(final String label, final boolean numeric) {
+        this.label = label;
+        this.bytes = label.getBytes(StandardCharsets.US_ASCII);
+        this.numeric = numeric;
+    }
+
+    /**
+     * Returns the label of the option.
+     *
+     * @return label
+     */
+    String getLabel() {
+        return this.label;
+    }
+
+    /**
+     * @return true if the value of the option is a number
+     */
+    boolean isNumeric() {
+        return this.numeric;
+    }
+
+    /**
+     * Returns the option whose label is encoded in the given buffer region.
+     * Labels are compared without case as required by https://tools.ietf.org/html/rfc2347
+     *
+     * @param buffer the buffer (not null)
+     * @param offset the index of the first byte of the label
+     * @param length the length of the label
+     * @return the corresponding option or null if the label is unknown
+     */
+    static EOption lookup(final ByteBuffer buffer, final int offset, final int length) {
+        for (EOption opt : OPTIONS) {
+            if (opt.matches(buffer, offset, length)) {
+                return opt;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the option whose label is given.
+     *
+     * @param label the label (not null)
+     * @return the corresponding option or null if the label is unknown
+     */
+    static EOption lookup(final String label) {
+        for (EOption opt : OPTIONS) {
+            if (opt.label.equalsIgnoreCase(label)) {
+                return opt;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Compares the label of this option with the given buffer region.
+     *
+     * @param buffer the buffer (not null)
+     * @param offset the index of the first byte to compare
+     * @param length the number of bytes to compare
+     * @return true if the region contains the label of this option
+     */
+    private boolean matches(final ByteBuffer buffer, final int offset, final int length) {
+        if (length != this.bytes.length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            final byte b = buffer.get(offset + i);
+            if (b != this.bytes[i] && (b | 0x20) != this.bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2019 Claire Fauch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.code.fauch.hedwig;
+
+/**
+ * Block number following the block 65535 when a transfer needs more than 65535 blocks.
+ *
+ * Servers disagree: some of them go on with 0, others with 1. The policy is used by a sender unless the rollover
+ * option is acknowledged. A receiver accepts both 0 and 1 unless rollover is forbidden.
+ *
+ * @author c.fauch
+ *
+ */
+public enum ERollover {
+    /**
+     * No rollover: a transfer fails beyond 65535 blocks.
+     */
+    NONE(-1),
+    /**
+     * The block 65535 is followed by the block 0.
+     */
+    ZERO(0),
+    /**
+     * The block 65535 is followed by the block 1.
+     */
+    ONE(1);
+
+    /**
+     * The block number following the block 65535 (-1 if none).
+     */
+    private final int first;
+
+    /**
+     * No constructor.
+     *
+     * @param first the block number following the block 65535
+     */
+    private ERollover(final int first) {
+        this.first = first;
+    }
+
+    /**
+     * @return the block number following the block 65535 or -1 if there is no rollover
+     */
+    int getFirst() {
+        return this.first;
+    }
+
+    /**
+     * Returns the maximum size of a file transferred with the given block size.
+     *
+     * @param blksize the block size
+     * @return the maximum size in bytes (Long.MAX_VALUE if unlimited)
+     */
+    long getMaxSize(final int blksize) {
+        // the last block is shorter than the block size
+        return this == NONE ? 65535L * blksize - 1 : Long.MAX_VALUE;
+    }
+
+    /**
+     * Returns the policy corresponding to the value of a rollover option.
+     *
+     * @param value the value of the option
+     * @return the policy or null if the value is invalid
+     */
+    static ERollover of(final long value) {
+        if (value == 0) {
+            return ZERO;
+        }
+        return value == 1 ? ONE : null;
+    }
+
+}
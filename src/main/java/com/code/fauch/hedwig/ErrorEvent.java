@@ -0,0 +1,117 @@
+/*
+ * Copyright 2019 Claire Fauch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.code.fauch.hedwig;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event of a TFTP error received from or sent to a remote host.
+ *
+ * @author c.fauch
+ *
+ */
+@Name("com.code.fauch.hedwig.Error")
+@Label("TFTP Error")
+@Category("Hedwig")
+@Description("A TFTP error received from or sent to a remote host")
+final class ErrorEvent extends jdk.jfr.Event {
+
+    /**
+     * The type of this event: tells if it is enabled before an event is allocated.
+     */
+    private static final EventType TYPE = EventType.getEventType(ErrorEvent.class);
+
+    @Label("File Name")
+    String fileName;
+
+    @Label("Remote Host")
+    String remoteHost;
+
+    @Label("Remote Port")
+    int remotePort;
+
+    @Label("Error")
+    String error;
+
+    @Label("Message")
+    String message;
+
+    @Label("Received")
+    @Description("True if the error is received from the remote host, false if sent to it")
+    boolean received;
+
+    @Label("Negotiation Failure")
+    @Description("True if the error is a failure of the option negotiation")
+    boolean negotiation;
+
+    /**
+     * Records an error if the event is enabled in a running recording.
+     *
+     * @param fileName the name of the transferred file
+     * @param remote the remote host (may be null)
+     * @param error the error (not null)
+     * @param received true if the error is received, false if sent
+     */
+    static void emit(final String fileName, final InetSocketAddress remote, final TFTPException error,
+            final boolean received) {
+        if (!TYPE.isEnabled()) {
+            return;
+        }
+        final ErrorEvent event = new ErrorEvent();
+        event.fileName = fileName;
+        if (remote != null) {
+            event.remoteHost = remote.getHostString();
+            event.remotePort = remote.getPort();
+        }
+        event.error = error.getError().name();
+        event.message = error.getMessage();
+        event.received = received;
+        event.negotiation = error.getError() == EError.OPTION_NEGOTIATION_FAILED;
+        event.commit();
+    }
+
+    /**
+     * Records an error sent if the event is enabled in a running recording, without allocating anything when
+     * it is not.
+     *
+     * @param fileName the name of the transferred file
+     * @param host the remote host (not null)
+     * @param port the remote port
+     * @param error the error (not null)
+     * @param message the error message
+     */
+    static void emit(final String fileName, final InetAddress host, final int port, final EError error,
+            final String message) {
+        if (!TYPE.isEnabled()) {
+            return;
+        }
+        final ErrorEvent event = new ErrorEvent();
+        event.fileName = fileName;
+        event.remoteHost = host.getHostAddress();
+        event.remotePort = port;
+        event.error = error.name();
+        event.message = message;
+        event.negotiation = error == EError.OPTION_NEGOTIATION_FAILED;
+        event.commit();
+    }
+
+}
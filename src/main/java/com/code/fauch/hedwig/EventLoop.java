@@ -0,0 +1,255 @@
+/*
+ * Copyright 2019 Claire Fauch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.code.fauch.hedwig;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Selector thread multiplexing the channels of many transfers.
+ *
+ * Each registered channel is attached to a handler called by the loop thread when a packet is ready to be
+ * read or when its retransmission timer expires. Handlers are only registered and called by the loop thread:
+ * other threads submit tasks to the loop.
+ *
+ * Deadlines are checked at the earliest known deadline and each time tasks are run. A handler arming its timer
+ * again while reading notifies the loop of its new deadline, so that a shorter deadline is not missed.
+ *
+ * @author c.fauch
+ *
+ */
+final class EventLoop implements Closeable {
+
+    /**
+     * Handler of a registered channel.
+     */
+    interface Handler {
+
+        /**
+         * Called when the channel is ready to be read.
+         */
+        void readable();
+
+        /**
+         * Called once the deadline has been reached.
+         */
+        void expired();
+
+        /**
+         * @return the time at which the handler expires in nanoseconds (see System.nanoTime())
+         */
+        long deadline();
+
+        /**
+         * Called when the loop is closed.
+         */
+        void abort();
+
+    }
+
+    /**
+     * The selector.
+     */
+    private final Selector selector;
+
+    /**
+     * The loop thread.
+     */
+    private final Thread thread;
+
+    /**
+     * Tasks submitted to the loop.
+     */
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+    /**
+     * False once the loop is closed.
+     */
+    private volatile boolean running = true;
+
+    /**
+     * The earliest known deadline of the registered handlers.
+     */
+    private long nextDeadline;
+
+    /**
+     * Constructor: the loop thread is started.
+     *
+     * @param name the name of the loop thread
+     * @throws IOException
+     */
+    EventLoop(final String name) throws IOException {
+        this.selector = Selector.open();
+        this.thread = new Thread(this::run, name);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Submits a task to the loop. Once the loop is closed, the task is run by the calling thread.
+     *
+     * @param task the task (not null)
+     */
+    void execute(final Runnable task) {
+        this.tasks.add(task);
+        if (this.running) {
+            this.selector.wakeup();
+        } else {
+            runTasks();
+        }
+    }
+
+    /**
+     * Registers a channel for reading: must be called by the loop thread.
+     *
+     * @param channel the non-blocking channel (not null)
+     * @param handler the handler of the channel (not null)
+     * @return the registration key
+     * @throws IOException if the loop is closed
+     */
+    SelectionKey register(final SelectableChannel channel, final Handler handler) throws IOException {
+        if (!this.selector.isOpen()) {
+            throw new IOException("Event loop closed");
+        }
+        return channel.register(this.selector, SelectionKey.OP_READ, handler);
+    }
+
+    /**
+     * Notifies the loop of the new deadline of a handler: must be called by the loop thread.
+     *
+     * @param deadline the time at which the handler expires in nanoseconds (see System.nanoTime())
+     */
+    void armed(final long deadline) {
+        if (deadline - this.nextDeadline < 0) {
+            this.nextDeadline = deadline;
+        }
+    }
+
+    /**
+     * Closes the loop: the registered handlers are aborted.
+     */
+    @Override
+    public void close() throws IOException {
+        this.running = false;
+        this.selector.wakeup();
+        if (Thread.currentThread() != this.thread) {
+            try {
+                this.thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Selects the ready channels until the loop is closed.
+     */
+    private void run() {
+        try {
+            while (this.running) {
+                try {
+                    select();
+                } catch (InternalError e) {
+                    // a fault in the pages of a file truncated while mapped, raised late by compiled code: the
+                    // reading transfer has checked the size of its file and failed, the loop goes on
+                }
+            }
+        } catch (IOException e) {
+            this.running = false;
+        } finally {
+            for (SelectionKey key : this.selector.keys()) {
+                ((Handler) key.attachment()).abort();
+            }
+            try {
+                this.selector.close();
+            } catch (IOException e) {
+                // nothing more to release
+            }
+            runTasks();
+        }
+    }
+
+    /**
+     * Calls the expired handlers, then the handlers of the ready channels and the submitted tasks.
+     *
+     * @throws IOException
+     */
+    private void select() throws IOException {
+        final long now = System.nanoTime();
+        if (now - this.nextDeadline >= 0) {
+            expire(now);
+        }
+        final long timeout = TimeUnit.NANOSECONDS.toMillis(this.nextDeadline - now);
+        this.selector.select(EventLoop::ready, Math.max(1, timeout));
+        if (runTasks()) {
+            this.nextDeadline = System.nanoTime();
+        }
+    }
+
+    /**
+     * Calls the handlers whose deadline has been reached and computes the next deadline.
+     *
+     * @param now the current time in nanoseconds
+     */
+    private void expire(final long now) {
+        long next = now + TimeUnit.SECONDS.toNanos(1);
+        for (SelectionKey key : this.selector.keys()) {
+            if (!key.isValid()) {
+                continue;
+            }
+            final Handler handler = (Handler) key.attachment();
+            if (now - handler.deadline() >= 0) {
+                handler.expired();
+            }
+            if (key.isValid() && handler.deadline() - next < 0) {
+                next = handler.deadline();
+            }
+        }
+        this.nextDeadline = next;
+    }
+
+    /**
+     * Runs the submitted tasks.
+     *
+     * @return true if at least one task was run
+     */
+    private boolean runTasks() {
+        boolean run = false;
+        Runnable task;
+        while ((task = this.tasks.poll()) != null) {
+            task.run();
+            run = true;
+        }
+        return run;
+    }
+
+    /**
+     * Notifies the handler of a selected key.
+     *
+     * @param key the selected key (not null)
+     */
+    private static void ready(final SelectionKey key) {
+        if (key.isValid() && key.isReadable()) {
+            ((Handler) key.attachment()).readable();
+        }
+    }
+
+}
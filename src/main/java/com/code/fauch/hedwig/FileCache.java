@@ -0,0 +1,191 @@
+/*
+ * Copyright 2019 Claire Fauch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.code.fauch.hedwig;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache of read-only mappings of the served files.
+ *
+ * A file is mapped once and the mapping is shared by all the sessions reading it, each one through its own
+ * duplicate of the mapping: N clients downloading the same file at the same time read it once from the disk.
+ * The mappings are evicted in least recently used order once the total size of the cached files exceeds the
+ * budget, and a mapping is dropped as soon as the size or the modification time of its file changes.
+ *
+ * @author c.fauch
+ *
+ */
+final class FileCache {
+
+    /**
+     * The maximum total size of the cached files in bytes.
+     */
+    private final long budget;
+
+    /**
+     * The cached files in access order.
+     */
+    private final Map<Path, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * The total size of the cached files in bytes.
+     */
+    private long used;
+
+    /**
+     * The number of reads served by a cached mapping.
+     */
+    private long hits;
+
+    /**
+     * The number of reads that had to map the file.
+     */
+    private long misses;
+
+    /**
+     * Constructor.
+     *
+     * @param budget the maximum total size of the cached files in bytes (strictly positive)
+     */
+    FileCache(final long budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * Returns the content of a file, mapping it if needed.
+     *
+     * @param file the file to read (not null)
+     * @param attributes the current attributes of the file (not null)
+     * @return a read-only buffer on the whole file, owned by the caller, or null if the file is too large to
+     * be cached
+     * @throws IOException
+     */
+    synchronized ByteBuffer get(final Path file, final BasicFileAttributes attributes) throws IOException {
+        final long size = attributes.size();
+        final FileTime modified = attributes.lastModifiedTime();
+        Entry entry = this.entries.get(file);
+        if (entry != null && (entry.size != size || !entry.modified.equals(modified))) {
+            this.entries.remove(file);
+            this.used -= entry.size;
+            entry = null;
+        }
+        if (entry == null) {
+            if (size > this.budget || size > Integer.MAX_VALUE) {
+                return null;
+            }
+            this.misses++;
+            entry = new Entry(map(file, size), size, modified);
+            evict(size);
+            this.entries.put(file, entry);
+            this.used += size;
+        } else {
+            this.hits++;
+        }
+        return entry.content.duplicate();
+    }
+
+    /**
+     * @return the total size of the cached files in bytes
+     */
+    synchronized long getUsed() {
+        return this.used;
+    }
+
+    /**
+     * @return the number of reads served by a cached mapping
+     */
+    synchronized long getHits() {
+        return this.hits;
+    }
+
+    /**
+     * @return the number of reads that had to map the file
+     */
+    synchronized long getMisses() {
+        return this.misses;
+    }
+
+    /**
+     * Evicts the least recently used files until the given size fits in the budget.
+     *
+     * @param size the size to store
+     */
+    private void evict(final long size) {
+        final Iterator<Entry> it = this.entries.values().iterator();
+        while (this.used + size > this.budget && it.hasNext()) {
+            this.used -= it.next().size;
+            it.remove();
+        }
+    }
+
+    /**
+     * Maps a whole file: the mapping stays valid once the file channel is closed.
+     *
+     * @param file the file to map (not null)
+     * @param size the size of the file
+     * @return the read-only mapping
+     * @throws IOException
+     */
+    private static ByteBuffer map(final Path file, final long size) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+    }
+
+    /**
+     * A cached file.
+     */
+    private static final class Entry {
+
+        /**
+         * The mapping of the whole file.
+         */
+        private final ByteBuffer content;
+
+        /**
+         * The size of the file when mapped.
+         */
+        private final long size;
+
+        /**
+         * The modification time of the file when mapped.
+         */
+        private final FileTime modified;
+
+        /**
+         * Constructor.
+         *
+         * @param content the mapping of the whole file (not null)
+         * @param size the size of the file when mapped
+         * @param modified the modification time of the file when mapped (not null)
+         */
+        Entry(final ByteBuffer content, final long size, final FileTime modified) {
+            this.content = content;
+            this.size = size;
+            this.modified = modified;
+        }
+
+    }
+
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2019 Claire Fauch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.code.fauch.hedwig;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Channel reading a file through memory mapped regions.
+ *
+ * The file is mapped region by region and the blocks are copied straight from the mapping into the packet
+ * buffers, without any intermediate buffer. The size of the file is checked before each read, so that a file
+ * truncated while mapped fails the read with an IOException instead of a fault in the missing pages. The file
+ * channel is not closed with this channel.
+ *
+ * @author c.fauch
+ *
+ */
+final class MappedInput implements ReadableByteChannel {
+
+    /**
+     * Default size of a mapped region.
+     */
+    static final long REGION_SIZE = 64L * 1024 * 1024;
+
+    /**
+     * The file to read.
+     */
+    private final FileChannel file;
+
+    /**
+     * The size of a mapped region.
+     */
+    private final long regionSize;
+
+    /**
+     * The size of the file.
+     */
+    private final long size;
+
+    /**
+     * Position in the file of the next mapped region.
+     */
+    private long position;
+
+    /**
+     * The current mapped region (null until the first read).
+     */
+    private MappedByteBuffer region;
+
+    /**
+     * True once closed.
+     */
+    private boolean closed;
+
+    /**
+     * Constructor.
+     *
+     * @param file the file to read (not null)
+     * @param regionSize the size of a mapped region (strictly positive)
+     * @throws IOException
+     */
+    MappedInput(final FileChannel file, final long regionSize) throws IOException {
+        this.file = file;
+        this.regionSize = regionSize;
+        this.position = file.position();
+        this.size = file.size();
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param file the file to read (not null)
+     * @throws IOException
+     */
+    MappedInput(final FileChannel file) throws IOException {
+        this(file, REGION_SIZE);
+    }
+
+    @Override
+    public int read(final ByteBuffer dst) throws IOException {
+        if (this.region == null || !this.region.hasRemaining()) {
+            if (this.position >= this.size) {
+                return -1;
+            }
+            final long length = Math.min(this.regionSize, this.size - this.position);
+            this.region = this.file.map(FileChannel.MapMode.READ_ONLY, this.position, length);
+            this.position += length;
+        }
+        final long end = this.position - this.region.remaining() + Math.min(dst.remaining(), this.region.remaining());
+        if (this.file.size() < end) {
+            throw new IOException("File truncated while read");
+        }
+        try {
+            return BufferInput.copy(this.region, dst);
+        } catch (InternalError e) { // a fault in the mapped pages
+            throw new IOException("File truncated while read", e);
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !this.closed;
+    }
+
+    @Override
+    public void close() {
+        this.closed = true;
+        this.region = null;
+    }
+
+}
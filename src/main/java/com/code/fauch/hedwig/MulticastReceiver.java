@@ -0,0 +1,290 @@
+/*
+ * Copyright 2019 Claire Fauch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.code.fauch.hedwig;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Session receiving the DATA blocks of a multicast READ request (https://tools.ietf.org/html/rfc2090).
+ *
+ * The OACK of the server gives the multicast group the DATA blocks are sent to and tells if the client is the
+ * master client. The blocks are received in any order, from the group and from the server, and written at
+ * their position in the file; the received blocks are kept in a bitmap. Only the master client acknowledges the
+ * blocks: its ACK gives the block preceding the first missing one, so that the server sends the missing blocks
+ * again. A client which is not master just listens until the server makes it master with a new OACK.
+ *
+ * The client sends the ACK of the last block once the whole file is received. Without multicast option in the
+ * OACK, the client is master and the transfer is an ordinary unicast transfer. The blocks are not rolled over.
+ *
+ * @author c.fauch
+ *
+ */
+final class MulticastReceiver extends Session {
+
+    /**
+     * The file to write at absolute positions.
+     */
+    private final FileChannel file;
+
+    /**
+     * The transport joining the multicast group.
+     */
+    private final MulticastTransport multicast;
+
+    /**
+     * The buffer used to send ACK packets.
+     */
+    private final ByteBuffer ackbuff;
+
+    /**
+     * The received blocks.
+     */
+    private final BitSet received = new BitSet();
+
+    /**
+     * The number of blocks of the file (0 until known).
+     */
+    private int total;
+
+    /**
+     * True while the client is the master client.
+     */
+    private boolean master;
+
+    /**
+     * The number of blocks received since the last ACK.
+     */
+    private int count;
+
+    /**
+     * True if a missing block has already been requested.
+     */
+    private boolean lost;
+
+    /**
+     * The multicast group (null if not negotiated).
+     */
+    private InetSocketAddress group;
+
+    /**
+     * Constructor.
+     *
+     * @param transport the transport used to send packets and to join the group (not null)
+     * @param fileName the name of the remote file
+     * @param timeout the upper bound of the retransmission timeout in milliseconds
+     * @param retries the maximum number of retransmissions of a same packet
+     * @param file the file to write (not null)
+     */
+    MulticastReceiver(final MulticastTransport transport, final String fileName, final long timeout,
+            final int retries, final FileChannel file) {
+        super(transport, fileName, timeout, retries);
+        this.multicast = transport;
+        this.file = file;
+        this.ackbuff = transport.allocate(4);
+        this.rollover = ERollover.NONE;
+        this.anySource = true;
+    }
+
+    /**
+     * Adds the multicast option to the options of a READ request if missing.
+     *
+     * @param options the options of the request (not null)
+     * @return the options with the multicast option
+     */
+    static Option[] requested(final Option[] options) {
+        for (Option option : options) {
+            if (EOption.lookup(option.getLabel()) == EOption.MULTICAST) {
+                return options;
+            }
+        }
+        final Option[] requested = Arrays.copyOf(options, options.length + 1);
+        requested[options.length] = Option.multicast();
+        return requested;
+    }
+
+    @Override
+    protected void packet(final PacketView packet) throws IOException, TFTPException {
+        if (!fromRemote()) { // another transfer sent to the same group
+            return;
+        }
+        if (packet.getOperation() == EOperation.OACK) {
+            oack(packet);
+        } else if (packet.getOperation() == EOperation.DATA) {
+            if (!isEstablished()) {
+                this.master = true; // the first DATA block is received without option acknowledgment
+                start();
+            }
+            data(packet);
+        }
+    }
+
+    @Override
+    protected void retransmit() throws IOException {
+        ack();
+        this.lost = true;
+    }
+
+    /**
+     * Handles an OACK: the first one gives the negotiated options, the next ones make the client master.
+     *
+     * @param packet the view on the OACK packet (not null)
+     * @throws IOException
+     * @throws TFTPException if the file is too large
+     */
+    private void oack(final PacketView packet) throws IOException, TFTPException {
+        final String value = packet.getText(EOption.MULTICAST);
+        if (!isEstablished()) {
+            configure(packet);
+            this.blksize = option(packet, EOption.BLKSIZE, this.blksize);
+            this.windowsize = option(packet, EOption.WINDOWSIZE, this.windowsize);
+            checkSize();
+            if (this.tsize >= 0) {
+                this.total = (int) (this.tsize / this.blksize) + 1;
+            }
+            start();
+        }
+        if (value == null) { // unicast transfer
+            this.master = true;
+        } else {
+            parse(value);
+        }
+        if (this.master) {
+            ack();
+        }
+    }
+
+    /**
+     * Applies the value of the multicast option: "address,port,mc" where the address and the port may be empty
+     * if not changed.
+     *
+     * @param value the value of the option (not null)
+     * @throws IOException
+     */
+    private void parse(final String value) throws IOException {
+        final String[] fields = value.split(",", -1);
+        if (fields.length != 3) {
+            throw new IOException("Invalid multicast option: " + value);
+        }
+        try {
+            final InetAddress address = fields[0].isEmpty() && this.group != null ? this.group.getAddress()
+                    : InetAddress.getByName(fields[0]);
+            final int port = fields[1].isEmpty() && this.group != null ? this.group.getPort()
+                    : Integer.parseInt(fields[1]);
+            this.group = new InetSocketAddress(address, port);
+            this.master = "1".equals(fields[2]);
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid multicast option: " + value, e);
+        }
+        this.multicast.join(this.group);
+    }
+
+    /**
+     * Writes a DATA block if not received yet. The master client acknowledges the window, counting the blocks
+     * already received, or asks once for the first missing block.
+     *
+     * @param packet the view on the DATA packet (not null)
+     * @throws IOException
+     */
+    private void data(final PacketView packet) throws IOException {
+        final int block = packet.getBlock();
+        if (block == 0 || (this.total > 0 && block > this.total)) {
+            return;
+        }
+        progress();
+        if (!this.received.get(block)) {
+            if (packet.getLength() < this.blksize) {
+                this.total = block;
+            }
+            write(this.rcvbuff.position(packet.getOffset()), (block - 1L) * this.blksize);
+            this.received.set(block);
+            this.bytes += packet.getLength();
+            this.blocks++;
+            this.listener.received(this.fileName, block, this.bytes);
+            progressed();
+            if (this.total > 0 && this.received.nextClearBit(1) > this.total) {
+                acknowledge(this.total); // each client sends the ACK of the last block
+                finish();
+                return;
+            }
+        }
+        if (!this.master) {
+            return;
+        }
+        this.count++;
+        if (this.count >= this.windowsize) { // Ack the whole window
+            ack();
+        } else if (block > this.received.nextClearBit(1) && !this.lost) { // Ask for the missing block
+            ack();
+            this.lost = true;
+        }
+    }
+
+    /**
+     * Starts the transfer once the options are negotiated.
+     */
+    private void start() {
+        if (this.rcvbuff.capacity() < this.blksize + 4) {
+            this.rcvbuff = this.transport.allocate(this.blksize + 4);
+        }
+        established();
+    }
+
+    /**
+     * Acknowledges the block preceding the first missing block if the client is the master client.
+     *
+     * @throws IOException
+     */
+    private void ack() throws IOException {
+        if (this.master) {
+            acknowledge(this.received.nextClearBit(1) - 1);
+        } else {
+            this.timer.sent();
+        }
+    }
+
+    /**
+     * Sends an ACK to the server.
+     *
+     * @param block the acknowledged block
+     * @throws IOException
+     */
+    private void acknowledge(final int block) throws IOException {
+        this.transport.send(PacketView.ack(this.ackbuff, block), this.remote);
+        this.timer.sent();
+        this.count = 0;
+        this.lost = false;
+    }
+
+    /**
+     * Write the whole content of given buffer at a position of the file.
+     *
+     * @param buffer the buffer to write
+     * @param position the position in the file
+     * @throws IOException
+     */
+    private void write(final ByteBuffer buffer, final long position) throws IOException {
+        long index = position;
+        while (buffer.hasRemaining()) {
+            index += this.file.write(buffer, index);
+        }
+    }
+
+}
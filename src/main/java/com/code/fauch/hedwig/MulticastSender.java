@@ -0,0 +1,256 @@
+/*
+ * Copyright 2019 Claire Fauch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.code.fauch.hedwig;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Session sending the DATA blocks of a file to a multicast group (https://tools.ietf.org/html/rfc2090).
+ *
+ * The clients reading the same file join the session: each one receives an OACK giving the group and telling
+ * if it is the master client. The blocks are sent to the group, and only the ACKs of the master client drive
+ * the transfer: the window following the acknowledged block is sent, so that the master client gets the blocks
+ * it misses. Once the master client acknowledges the last block, the next client becomes master with a new
+ * OACK, and asks in turn for the blocks it misses. The ACK of the last block by another client just removes
+ * it. The session is complete once all the clients have the whole file.
+ *
+ * The blocks are read at their position in the file and are not rolled over.
+ *
+ * @author c.fauch
+ *
+ */
+final class MulticastSender extends Session {
+
+    /**
+     * The file to read.
+     */
+    private final FileChannel input;
+
+    /**
+     * The multicast group the DATA blocks are sent to.
+     */
+    private final InetSocketAddress group;
+
+    /**
+     * The clients which do not have the whole file yet, the master client first.
+     */
+    private final List<InetSocketAddress> clients = new ArrayList<>();
+
+    /**
+     * The options acknowledged to each client, followed by the multicast option.
+     */
+    private Option[] options;
+
+    /**
+     * DATA packets of the current window.
+     */
+    private ByteBuffer[] window;
+
+    /**
+     * The number of blocks of the file.
+     */
+    private int total;
+
+    /**
+     * The last block acknowledged by the master client.
+     */
+    private int acked;
+
+    /**
+     * The highest block sent.
+     */
+    private int highest;
+
+    /**
+     * Constructor.
+     *
+     * @param transport the transport used to send packets (not null)
+     * @param fileName the name of the file
+     * @param timeout the upper bound of the retransmission timeout in milliseconds
+     * @param retries the maximum number of retransmissions of a same packet
+     * @param input the file to read (not null)
+     * @param group the multicast group the DATA blocks are sent to (not null)
+     */
+    MulticastSender(final Transport transport, final String fileName, final long timeout, final int retries,
+            final FileChannel input, final InetSocketAddress group) {
+        super(transport, fileName, timeout, retries);
+        this.input = input;
+        this.group = group;
+        this.rollover = ERollover.NONE;
+        this.anySource = true;
+    }
+
+    /**
+     * Answers the READ request of the first client: it is the master client.
+     *
+     * @param client the transfer identifier of the client (not null)
+     * @param blksize the negotiated block size
+     * @param windowsize the negotiated window size
+     * @param acked the options acknowledged to each client, without the multicast option (not null)
+     * @throws IOException
+     */
+    void serve(final InetSocketAddress client, final int blksize, final int windowsize, final Option[] acked)
+            throws IOException {
+        serving(EOperation.READ);
+        this.blksize = blksize;
+        this.windowsize = windowsize;
+        this.options = Arrays.copyOf(acked, acked.length + 1);
+        this.total = (int) (this.input.size() / blksize) + 1;
+        this.window = new ByteBuffer[windowsize];
+        for (int i = 0; i < windowsize; i++) {
+            this.window[i] = this.transport.allocate(blksize + 4);
+        }
+        this.clients.add(client);
+        elect();
+    }
+
+    /**
+     * Adds a client reading the same file: the blocks it misses will be sent again once it is master.
+     * The OACK is sent again to a client already known.
+     *
+     * @param client the transfer identifier of the client (not null)
+     * @throws IOException
+     */
+    void join(final InetSocketAddress client) throws IOException {
+        if (isDone()) {
+            return;
+        }
+        if (!this.clients.contains(client)) {
+            this.clients.add(client);
+        }
+        if (!client.equals(this.remote)) {
+            this.transport.send(oack(false), client);
+        }
+    }
+
+    /**
+     * @return true if the session sends no more block to new clients
+     */
+    boolean isClosing() {
+        return isDone() || this.clients.isEmpty();
+    }
+
+    @Override
+    protected void packet(final PacketView packet) throws IOException, TFTPException {
+        if (packet.getOperation() != EOperation.ACK) {
+            return;
+        }
+        final int block = packet.getBlock();
+        if (!fromRemote()) {
+            if (block == this.total) { // another client has the whole file
+                this.clients.remove(new InetSocketAddress(this.transport.getAddress(), this.transport.getPort()));
+            }
+            return;
+        }
+        if (block > this.total) {
+            return;
+        }
+        if (!isEstablished()) {
+            established();
+        } else {
+            progress();
+        }
+        this.listener.acknowledged(this.fileName, block);
+        if (block == this.total) {
+            this.clients.remove(this.remote);
+            if (this.clients.isEmpty()) {
+                finish();
+            } else {
+                elect();
+            }
+            return;
+        }
+        this.acked = block;
+        send();
+    }
+
+    @Override
+    protected void retransmit() throws IOException {
+        send();
+    }
+
+    /**
+     * Makes the first client the master client: it will ask for the blocks it misses.
+     *
+     * @throws IOException
+     */
+    private void elect() throws IOException {
+        this.remote = this.clients.get(0);
+        control(oack(true), this.remote);
+    }
+
+    /**
+     * Encodes the OACK sent to a client.
+     *
+     * @param master true if the client is the master client
+     * @return the OACK packet
+     */
+    private ByteBuffer oack(final boolean master) {
+        this.options[this.options.length - 1] = Option.multicast(this.group, master);
+        int length = 2;
+        for (Option opt : this.options) {
+            length += opt.length();
+        }
+        return PacketView.oack(this.transport.allocate(length), this.options);
+    }
+
+    /**
+     * Sends the window following the block acknowledged by the master client to the group.
+     *
+     * @throws IOException
+     */
+    private void send() throws IOException {
+        final int count = Math.min(this.window.length, this.total - this.acked);
+        for (int i = 0; i < count; i++) {
+            final int block = this.acked + i + 1;
+            final ByteBuffer data = PacketView.data(this.window[i], block);
+            read(data, (block - 1L) * this.blksize);
+            data.flip();
+            if (block > this.highest) {
+                this.highest = block;
+                this.bytes += data.limit() - 4;
+                this.blocks++;
+                this.listener.sent(this.fileName, block, this.bytes);
+            }
+            this.transport.send(data, this.group);
+        }
+        this.timer.sent();
+    }
+
+    /**
+     * Fills given buffer with data read at a position of the file.
+     *
+     * @param buffer the buffer to fill
+     * @param position the position in the file
+     * @throws IOException
+     */
+    private void read(final ByteBuffer buffer, final long position) throws IOException {
+        long index = position;
+        while (buffer.hasRemaining()) {
+            final int read = this.input.read(buffer, index);
+            if (read == -1) {
+                break;
+            }
+            index += read;
+        }
+    }
+
+}
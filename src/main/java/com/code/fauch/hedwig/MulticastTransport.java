@@ -0,0 +1,203 @@
+/*
+ * Copyright 2019 Claire Fauch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.code.fauch.hedwig;
+
+import java.io.IOException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Transport over a datagram channel and a multicast group.
+ *
+ * The packets are sent through the unicast channel and received from both the unicast channel and, once
+ * joined, from the channel bound to the port of the multicast group. The group channel binds a port shared
+ * with the other clients of the host. Both channels are switched to non-blocking mode and registered on a
+ * dedicated selector; the blocking mode of the unicast channel is restored and the group is left when the
+ * transport is closed.
+ *
+ * @author c.fauch
+ *
+ */
+final class MulticastTransport implements Transport {
+
+    /**
+     * Action performed on selected keys: nothing to do, the channels are read just after.
+     */
+    private static final Consumer<SelectionKey> NO_ACTION = k -> {};
+
+    /**
+     * The unicast channel.
+     */
+    private final DatagramChannel channel;
+
+    /**
+     * The network interface on which the group is joined.
+     */
+    private final NetworkInterface nif;
+
+    /**
+     * The blocking mode of the unicast channel when the transport was open.
+     */
+    private final boolean blocking;
+
+    /**
+     * The selector used to wait for the channels.
+     */
+    private final Selector selector;
+
+    /**
+     * The channel receiving the packets sent to the group (null until joined).
+     */
+    private DatagramChannel group;
+
+    /**
+     * The address and port of the joined group (null until joined).
+     */
+    private InetSocketAddress joined;
+
+    /**
+     * Source of the last received packet.
+     */
+    private InetSocketAddress source;
+
+    /**
+     * Constructor.
+     *
+     * @param channel the unicast channel to use (not null)
+     * @param nif the network interface on which the group is joined (not null)
+     * @throws IOException
+     */
+    MulticastTransport(final DatagramChannel channel, final NetworkInterface nif) throws IOException {
+        this.channel = channel;
+        this.nif = nif;
+        this.blocking = channel.isBlocking();
+        this.selector = Selector.open();
+        channel.configureBlocking(false);
+        channel.register(this.selector, SelectionKey.OP_READ);
+    }
+
+    /**
+     * Joins a multicast group: nothing is done if the group is already joined.
+     *
+     * @param address the address and port of the group (not null)
+     * @throws IOException
+     */
+    void join(final InetSocketAddress address) throws IOException {
+        if (address.equals(this.joined)) {
+            return;
+        }
+        leave();
+        final InetAddress host = address.getAddress();
+        final DatagramChannel mc = DatagramChannel.open(host instanceof Inet6Address ? StandardProtocolFamily.INET6
+                : StandardProtocolFamily.INET);
+        try {
+            mc.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            mc.bind(new InetSocketAddress(address.getPort()));
+            mc.join(host, this.nif);
+            mc.configureBlocking(false);
+            mc.register(this.selector, SelectionKey.OP_READ);
+        } catch (IOException e) {
+            mc.close();
+            throw e;
+        }
+        this.group = mc;
+        this.joined = address;
+    }
+
+    @Override
+    public ByteBuffer allocate(final int capacity) {
+        return ByteBuffer.allocateDirect(capacity);
+    }
+
+    @Override
+    public int getTimeout() {
+        return 0;
+    }
+
+    @Override
+    public void send(final ByteBuffer packet, final InetSocketAddress remote) throws IOException {
+        this.channel.send(packet, remote);
+    }
+
+    @Override
+    public void reply(final ByteBuffer packet) throws IOException {
+        this.channel.send(packet, this.source);
+    }
+
+    @Override
+    public boolean receive(final ByteBuffer packet, final int timeout) throws IOException {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        packet.clear();
+        while (true) {
+            InetSocketAddress src = (InetSocketAddress) this.channel.receive(packet);
+            if (src == null && this.group != null) {
+                src = (InetSocketAddress) this.group.receive(packet);
+            }
+            if (src != null) {
+                this.source = src;
+                packet.flip();
+                return true;
+            }
+            final long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            this.selector.select(NO_ACTION, Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining)));
+        }
+    }
+
+    @Override
+    public InetAddress getAddress() {
+        return this.source.getAddress();
+    }
+
+    @Override
+    public int getPort() {
+        return this.source.getPort();
+    }
+
+    @Override
+    public void close() throws IOException {
+        leave();
+        this.selector.close();
+        if (this.channel.isOpen()) {
+            this.channel.configureBlocking(this.blocking);
+        }
+    }
+
+    /**
+     * Leaves the joined group if any.
+     *
+     * @throws IOException
+     */
+    private void leave() throws IOException {
+        if (this.group != null) {
+            this.group.close();
+            this.group = null;
+            this.joined = null;
+        }
+    }
+
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2019 Claire Fauch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.code.fauch.hedwig;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Channel encoding the content of another channel in netascii (https://tools.ietf.org/html/rfc764).
+ *
+ * The local end of line LF is sent as CR LF and a bare CR is sent as CR NUL. The content is read through a
+ * buffer allocated once and encoded in a single pass: the runs of bytes without CR or LF are copied at once,
+ * and the second byte of a pair that does not fit in the destination is put at the beginning of the next one,
+ * so that a pair may be split across two DATA blocks. The wrapped channel is closed with this channel.
+ *
+ * @author c.fauch
+ *
+ */
+final class NetasciiInput implements ReadableByteChannel {
+
+    /**
+     * The netascii mode.
+     */
+    static final String MODE = "netascii";
+
+    /**
+     * Carriage return.
+     */
+    static final byte CR = '\r';
+
+    /**
+     * Line feed.
+     */
+    static final byte LF = '\n';
+
+    /**
+     * NUL.
+     */
+    static final byte NUL = 0;
+
+    /**
+     * Size of the read buffer.
+     */
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * The channel to encode.
+     */
+    private final ReadableByteChannel source;
+
+    /**
+     * The bytes read from the source and not encoded yet.
+     */
+    private final ByteBuffer raw = ByteBuffer.allocate(BUFFER_SIZE).flip();
+
+    /**
+     * The second byte of a pair to put first in the next destination or -1.
+     */
+    private int pending = -1;
+
+    /**
+     * True once the whole source is read.
+     */
+    private boolean eof;
+
+    /**
+     * Constructor.
+     *
+     * @param source the channel to encode (not null)
+     */
+    NetasciiInput(final ReadableByteChannel source) {
+        this.source = source;
+    }
+
+    /**
+     * Tells if a transfer mode is the netascii mode.
+     *
+     * @param mode the transfer mode (may be null)
+     * @return true for the netascii mode, whatever the case
+     */
+    static boolean isNetascii(final String mode) {
+        return MODE.equalsIgnoreCase(mode);
+    }
+
+    @Override
+    public int read(final ByteBuffer dst) throws IOException {
+        final int start = dst.position();
+        if (this.pending >= 0 && dst.hasRemaining()) {
+            dst.put((byte) this.pending);
+            this.pending = -1;
+        }
+        while (dst.hasRemaining() && fill()) {
+            final int from = this.raw.position();
+            final int max = Math.min(this.raw.limit(), from + dst.remaining());
+            int end = from;
+            while (end < max) {
+                final byte b = this.raw.get(end);
+                if (b == CR || b == LF) {
+                    break;
+                }
+                end++;
+            }
+            if (end > from) {
+                final int limit = this.raw.limit();
+                dst.put(this.raw.limit(end));
+                this.raw.limit(limit);
+            }
+            if (end < max) { // end of line or bare CR
+                final byte b = this.raw.get();
+                dst.put(CR);
+                final byte second = b == LF ? LF : NUL;
+                if (dst.hasRemaining()) {
+                    dst.put(second);
+                } else {
+                    this.pending = second;
+                }
+            }
+        }
+        final int count = dst.position() - start;
+        return count == 0 && this.eof && this.pending < 0 ? -1 : count;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return this.source.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.source.close();
+    }
+
+    /**
+     * Reads the source if all the read bytes are encoded.
+     *
+     * @return false if there is nothing more to encode for now
+     * @throws IOException
+     */
+    private boolean fill() throws IOException {
+        if (this.raw.hasRemaining()) {
+            return true;
+        }
+        if (this.eof) {
+            return false;
+        }
+        this.raw.clear();
+        final int read = this.source.read(this.raw);
+        this.raw.flip();
+        if (read == -1) {
+            this.eof = true;
+        }
+        return read > 0;
+    }
+
+}
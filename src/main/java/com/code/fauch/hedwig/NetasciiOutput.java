@@ -0,0 +1,169 @@
+/*
+ * Copyright 2019 Claire Fauch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.code.fauch.hedwig;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Channel decoding netascii content into another channel (https://tools.ietf.org/html/rfc764).
+ *
+ * CR LF is written as the local end of line LF and CR NUL as a bare CR. The content is decoded in a single pass
+ * through a buffer allocated once: the runs of bytes without CR are copied at once, and a CR ending a write is
+ * kept until the next byte is known, so that a pair may be split across two DATA blocks. A CR ending the whole
+ * content is written when the channel is flushed, then the wrapped channel is flushed if it can be. The wrapped
+ * channel is closed with this channel.
+ *
+ * @author c.fauch
+ *
+ */
+final class NetasciiOutput implements WritableByteChannel, Flushable {
+
+    /**
+     * Size of the write buffer.
+     */
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * The channel to write.
+     */
+    private final WritableByteChannel target;
+
+    /**
+     * The decoded bytes not written yet.
+     */
+    private final ByteBuffer decoded = ByteBuffer.allocate(BUFFER_SIZE);
+
+    /**
+     * True if the last byte was a CR.
+     */
+    private boolean cr;
+
+    /**
+     * Constructor.
+     *
+     * @param target the channel to write (not null)
+     */
+    NetasciiOutput(final WritableByteChannel target) {
+        this.target = target;
+    }
+
+    /**
+     * Decodes the whole content of the source then writes it.
+     *
+     * @param src the netascii content (not null)
+     * @return the number of decoded bytes of the source
+     * @throws IOException
+     */
+    @Override
+    public int write(final ByteBuffer src) throws IOException {
+        final int count = src.remaining();
+        while (src.hasRemaining()) {
+            if (this.cr) {
+                this.cr = false;
+                final byte b = src.get();
+                if (b == NetasciiInput.LF) {
+                    put(NetasciiInput.LF);
+                    continue;
+                }
+                put(NetasciiInput.CR);
+                if (b == NetasciiInput.NUL) {
+                    continue;
+                }
+                src.position(src.position() - 1); // not a pair: the byte is decoded as is
+            }
+            final int from = src.position();
+            int end = from;
+            while (end < src.limit() && src.get(end) != NetasciiInput.CR) {
+                end++;
+            }
+            final int limit = src.limit();
+            src.limit(end);
+            while (src.hasRemaining()) {
+                if (!this.decoded.hasRemaining()) {
+                    drain();
+                }
+                BufferInput.copy(src, this.decoded);
+            }
+            src.limit(limit);
+            if (end < limit) {
+                src.get();
+                this.cr = true;
+            }
+        }
+        drain();
+        return count;
+    }
+
+    /**
+     * Writes the CR ending the content if any.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void flush() throws IOException {
+        if (this.cr) {
+            this.cr = false;
+            put(NetasciiInput.CR);
+            drain();
+        }
+        if (this.target instanceof Flushable) {
+            ((Flushable) this.target).flush();
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return this.target.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            this.target.close();
+        }
+    }
+
+    /**
+     * Puts a decoded byte.
+     *
+     * @param b the byte
+     * @throws IOException
+     */
+    private void put(final byte b) throws IOException {
+        if (!this.decoded.hasRemaining()) {
+            drain();
+        }
+        this.decoded.put(b);
+    }
+
+    /**
+     * Writes the decoded bytes.
+     *
+     * @throws IOException
+     */
+    private void drain() throws IOException {
+        this.decoded.flip();
+        while (this.decoded.hasRemaining()) {
+            this.target.write(this.decoded);
+        }
+        this.decoded.clear();
+    }
+
+}
@@ -15,6 +15,7 @@
 package com.code.fauch.hedwig;
 
 import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.util.Objects;
 
@@ -30,9 +31,12 @@ public final class Option {
     static final String BLKSIZE = "blksize";
     static final String TIMEOUT = "timeout";
     static final String TSIZE = "tsize";
+    static final String WINDOWSIZE = "windowsize";
+    static final String ROLLOVER = "rollover";
+    static final String MULTICAST = "multicast";
     
     /**
-     * Label of the option: "blksize",  "timeout", "tsize"
+     * Label of the option: "blksize",  "timeout", "tsize", "windowsize", "rollover", "multicast"
      */
     private final String label;
     
@@ -40,6 +44,11 @@ public final class Option {
      * The value of the option.
      */
     private final long value;
+    
+    /**
+     * The value of an option whose value is not a number (null otherwise).
+     */
+    private final String text;
 
     /**
      * Constructor.
@@ -50,6 +59,19 @@ public final class Option {
     private Option(final String lbl, final long value) {
         this.label = lbl;
         this.value = value;
+        this.text = null;
+    }
+
+    /**
+     * Constructor of an option whose value is not a number.
+     * 
+     * @param lbl the label of the option
+     * @param text the value of the option
+     */
+    private Option(final String lbl, final String text) {
+        this.label = lbl;
+        this.value = PacketView.UNDEFINED;
+        this.text = text;
     }
 
     /**
@@ -87,6 +109,74 @@ public final class Option {
         return new Option(BLKSIZE, value);
     }
 
+    /**
+     * Builds and returns 'windowsize' option.
+     * https://tools.ietf.org/html/rfc7440
+     * 
+     * @param value number of consecutive data blocks to send before waiting for an acknowledgment.
+     * Valid values range between "1" and "65535" blocks, inclusive.
+     * @return the corresponding option. 
+     */
+    public static Option windowsize(final long value) {
+        return new Option(WINDOWSIZE, value);
+    }
+
+    /**
+     * Builds and returns 'rollover' option.
+     * This option is not standard but widely supported by servers.
+     * 
+     * @param value the block number following the block 65535: "0" or "1".
+     * @return the corresponding option. 
+     */
+    public static Option rollover(final long value) {
+        return new Option(ROLLOVER, value);
+    }
+
+    /**
+     * Builds and returns 'multicast' option of a READ request.
+     * https://tools.ietf.org/html/rfc2090
+     * 
+     * @return the corresponding option (empty value).
+     */
+    public static Option multicast() {
+        return new Option(MULTICAST, "");
+    }
+
+    /**
+     * Builds and returns 'multicast' option acknowledged by a server.
+     * https://tools.ietf.org/html/rfc2090
+     * 
+     * @param group the multicast group address and port the DATA packets are sent to (not null)
+     * @param master true if the client is the master client
+     * @return the corresponding option.
+     */
+    static Option multicast(final InetSocketAddress group, final boolean master) {
+        return new Option(MULTICAST, group.getAddress().getHostAddress() + "," + group.getPort() + "," 
+                + (master ? 1 : 0));
+    }
+
+    /**
+     * Builds and returns a known option.
+     * 
+     * @param option the known option (not null)
+     * @param value the value of the option
+     * @return the corresponding option.
+     */
+    static Option of(final EOption option, final long value) {
+        return new Option(option.getLabel(), value);
+    }
+
+    /**
+     * Builds and returns a known option whose value is not a number.
+     * 
+     * @param option the known option (not null)
+     * @param text the value of the option
+     * @return the corresponding option.
+     */
+    static Option of(final EOption option, final String text) {
+        return new Option(option.getLabel(), text);
+    }
+
     /**
      * @return the label
      */
@@ -101,6 +191,13 @@ public final class Option {
         return value;
     }
 
+    /**
+     * @return the value of an option whose value is not a number, null otherwise
+     */
+    public String getText() {
+        return text;
+    }
+
     /**
      * Encode the option.
      * 
@@ -108,12 +205,38 @@ public final class Option {
      * @throws UnsupportedEncodingException 
      */
     byte[] encode() throws UnsupportedEncodingException {
-        final byte[] optEnc = (this.label + "\0").getBytes("US-ASCII");
-        final byte[] valEnc = (this.value + "\0").getBytes("US-ASCII");
-        final ByteBuffer buffer = ByteBuffer.allocate(optEnc.length + valEnc.length);
-        buffer.put(optEnc);
-        buffer.put(valEnc);
-        return buffer.array();
+        return encode(ByteBuffer.allocate(length())).array();
+    }
+    
+    /**
+     * Encode the option in place.
+     * 
+     * @param buffer the buffer to fill (not null)
+     * @return the buffer
+     */
+    ByteBuffer encode(final ByteBuffer buffer) {
+        PacketView.putAscii(buffer, this.label).put((byte) 0);
+        if (this.text != null) {
+            PacketView.putAscii(buffer, this.text);
+        } else if (this.value < 0) {
+            PacketView.putAscii(buffer, Long.toString(this.value));
+        } else {
+            PacketView.putDecimal(buffer, this.value);
+        }
+        return buffer.put((byte) 0);
+    }
+    
+    /**
+     * Returns the length of the encoded option.
+     * 
+     * @return the number of bytes
+     */
+    int length() {
+        if (this.text != null) {
+            return this.label.length() + this.text.length() + 2;
+        }
+        final int digits = this.value < 0 ? Long.toString(this.value).length() : PacketView.digits(this.value);
+        return this.label.length() + digits + 2;
     }
     
     /**
@@ -147,7 +270,7 @@ public final class Option {
 
     @Override
     public String toString() {
-        return "Option [label=" + label + ", value=" + value + "]";
+        return "Option [label=" + label + ", value=" + (text != null ? text : value) + "]";
     }
     
 }
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2019 Claire Fauch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.code.fauch.hedwig;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Transport pacing the packets of a blocking transfer with token buckets.
+ *
+ * A packet is sent once the buckets allow its size: the DATA blocks of a window are spaced at the rate of the
+ * buckets. A received packet is handed over once the buckets allow its size: the ACK of a received DATA block is
+ * delayed so that the sender is held back at the same rate. The calling thread waits, so that this transport
+ * must only be used by the thread driving the transfer.
+ *
+ * @author c.fauch
+ *
+ */
+final class PacedTransport implements Transport {
+
+    /**
+     * The paced transport.
+     */
+    private final Transport transport;
+
+    /**
+     * The bucket of the transfer (null if unlimited).
+     */
+    private final TokenBucket own;
+
+    /**
+     * The bucket shared with other transfers (not null).
+     */
+    private final TokenBucket shared;
+
+    /**
+     * Constructor.
+     *
+     * @param transport the transport to pace (not null)
+     * @param own the bucket of the transfer (null if unlimited)
+     * @param shared the bucket shared with other transfers (not null)
+     */
+    PacedTransport(final Transport transport, final TokenBucket own, final TokenBucket shared) {
+        this.transport = transport;
+        this.own = own;
+        this.shared = shared;
+    }
+
+    @Override
+    public ByteBuffer allocate(final int capacity) {
+        return this.transport.allocate(capacity);
+    }
+
+    @Override
+    public int getTimeout() {
+        return this.transport.getTimeout();
+    }
+
+    @Override
+    public void send(final ByteBuffer packet, final InetSocketAddress remote) throws IOException {
+        pace(packet.remaining());
+        this.transport.send(packet, remote);
+    }
+
+    @Override
+    public void reply(final ByteBuffer packet) throws IOException {
+        pace(packet.remaining());
+        this.transport.reply(packet);
+    }
+
+    @Override
+    public boolean receive(final ByteBuffer packet, final int timeout) throws IOException {
+        if (!this.transport.receive(packet, timeout)) {
+            return false;
+        }
+        pace(packet.remaining());
+        return true;
+    }
+
+    @Override
+    public InetAddress getAddress() {
+        return this.transport.getAddress();
+    }
+
+    @Override
+    public int getPort() {
+        return this.transport.getPort();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.transport.close();
+    }
+
+    /**
+     * Waits until the buckets allow a packet.
+     *
+     * @param bytes the size of the packet
+     * @throws InterruptedIOException if the calling thread is interrupted
+     */
+    private void pace(final int bytes) throws InterruptedIOException {
+        final long wait = Math.max(this.own == null ? 0 : this.own.take(bytes), this.shared.take(bytes));
+        if (wait == 0) {
+            return;
+        }
+        try {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while pacing the transfer");
+        }
+    }
+
+}
@@ -0,0 +1,449 @@
+/*
+ * Copyright 2019 Claire Fauch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.code.fauch.hedwig;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reusable view on a TFTP packet held in a byte buffer.
+ *
+ * The view decodes the packet in place: the operation, the block number (or error code), the position
+ * of the payload and the value of the known options are read from the buffer without copying it and
+ * without allocating anything. The same view is meant to be wrapped around each received packet.
+ *
+ * The static methods encode packets in place in a byte buffer.
+ *
+ * @author c.fauch
+ *
+ */
+final class PacketView {
+
+    /**
+     * Value of an option not defined in the packet.
+     */
+    static final long UNDEFINED = -1;
+
+    /**
+     * The wrapped buffer.
+     */
+    private ByteBuffer buffer;
+
+    /**
+     * The operation of the packet (null if the packet is invalid).
+     */
+    private EOperation operation;
+
+    /**
+     * Block number of DATA/ACK packets, error code of ERROR packets.
+     */
+    private int block;
+
+    /**
+     * Index of the payload: data of DATA packets, message of ERROR packets, file name of READ/WRITE requests,
+     * options of OACK packets.
+     */
+    private int offset;
+
+    /**
+     * Length of the payload.
+     */
+    private int length;
+
+    /**
+     * Index of the mode of READ/WRITE requests.
+     */
+    private int modeOffset;
+
+    /**
+     * Length of the mode of READ/WRITE requests.
+     */
+    private int modeLength;
+
+    /**
+     * Values of the known options indexed by option ordinal.
+     */
+    private final long[] options = new long[EOption.values().length];
+
+    /**
+     * Index of the values of the known options whose value is not a number, indexed by option ordinal.
+     */
+    private final int[] texts = new int[EOption.values().length];
+
+    /**
+     * True if at least one option is defined.
+     */
+    private boolean hasOptions;
+
+    /**
+     * Decodes the packet held in the given buffer between its position and its limit.
+     * The buffer is not modified.
+     *
+     * @param buffer the buffer (not null)
+     * @return true if the packet is a valid TFTP packet
+     */
+    boolean wrap(final ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.operation = null;
+        this.block = 0;
+        if (this.hasOptions) {
+            Arrays.fill(this.options, UNDEFINED);
+            this.hasOptions = false;
+        }
+        final int start = buffer.position();
+        final int limit = buffer.limit();
+        if (limit - start < 2) {
+            return false;
+        }
+        final EOperation op = EOperation.lookup(buffer.getShort(start));
+        if (op == null) {
+            return false;
+        }
+        switch (op) {
+        case DATA:
+        case ACK:
+        case ERROR:
+            if (limit - start < 4) {
+                return false;
+            }
+            this.block = Short.toUnsignedInt(buffer.getShort(start + 2));
+            this.offset = start + 4;
+            this.length = limit - this.offset;
+            break;
+        case OACK:
+            this.offset = start + 2;
+            this.length = limit - this.offset;
+            if (!options(this.offset, limit)) {
+                return false;
+            }
+            break;
+        default: // READ, WRITE
+            this.offset = start + 2;
+            final int fileEnd = indexOfNul(buffer, this.offset, limit);
+            if (fileEnd < 0) {
+                return false;
+            }
+            this.length = fileEnd - this.offset;
+            this.modeOffset = fileEnd + 1;
+            final int modeEnd = indexOfNul(buffer, this.modeOffset, limit);
+            if (modeEnd < 0) {
+                return false;
+            }
+            this.modeLength = modeEnd - this.modeOffset;
+            if (!options(modeEnd + 1, limit)) {
+                return false;
+            }
+        }
+        this.operation = op;
+        return true;
+    }
+
+    /**
+     * @return the operation of the packet or null if the packet is invalid
+     */
+    EOperation getOperation() {
+        return this.operation;
+    }
+
+    /**
+     * @return the block number of DATA/ACK packets
+     */
+    int getBlock() {
+        return this.block;
+    }
+
+    /**
+     * @return the error of ERROR packets
+     */
+    EError getError() {
+        return EError.from((short) this.block);
+    }
+
+    /**
+     * @return the index of the payload in the buffer
+     */
+    int getOffset() {
+        return this.offset;
+    }
+
+    /**
+     * @return the length of the payload
+     */
+    int getLength() {
+        return this.length;
+    }
+
+    /**
+     * Returns the value of a known option.
+     *
+     * @param option the option (not null)
+     * @return the value of the option, 0 if the value of the option is not a number, or UNDEFINED if not
+     * defined in the packet.
+     */
+    long getOption(final EOption option) {
+        return this.hasOptions ? this.options[option.ordinal()] : UNDEFINED;
+    }
+
+    /**
+     * Returns the value of a known option whose value is not a number.
+     *
+     * @param option the option (not null)
+     * @return the decoded value of the option or null if not defined in the packet.
+     */
+    String getText(final EOption option) {
+        if (getOption(option) == UNDEFINED || option.isNumeric()) {
+            return null;
+        }
+        final int from = this.texts[option.ordinal()];
+        return ascii(from, indexOfNul(this.buffer, from, this.buffer.limit()) - from);
+    }
+
+    /**
+     * Returns all the known options defined in the packet.
+     *
+     * @return the options (may be empty)
+     */
+    Option[] getOptions() {
+        final List<Option> opts = new ArrayList<>();
+        for (EOption opt : EOption.values()) {
+            final long value = getOption(opt);
+            if (value != UNDEFINED) {
+                opts.add(opt.isNumeric() ? Option.of(opt, value) : Option.of(opt, getText(opt)));
+            }
+        }
+        return opts.toArray(new Option[0]);
+    }
+
+    /**
+     * Returns the file name of READ/WRITE requests.
+     *
+     * @return the decoded file name
+     */
+    String getFileName() {
+        return ascii(this.offset, this.length);
+    }
+
+    /**
+     * Returns the mode of READ/WRITE requests.
+     *
+     * @return the decoded mode
+     */
+    String getMode() {
+        return ascii(this.modeOffset, this.modeLength);
+    }
+
+    /**
+     * Returns the message of ERROR packets.
+     *
+     * @return the decoded message, without the terminating NUL
+     */
+    String getMessage() {
+        final int end = indexOfNul(this.buffer, this.offset, this.offset + this.length);
+        return ascii(this.offset, (end < 0 ? this.offset + this.length : end) - this.offset);
+    }
+
+    /**
+     * Encodes the header of a DATA packet: the data should then be put after it.
+     *
+     * @param buffer the buffer to fill (not null)
+     * @param block the block number
+     * @return the buffer
+     */
+    static ByteBuffer data(final ByteBuffer buffer, final int block) {
+        return buffer.clear().putShort(EOperation.DATA.getCode()).putShort((short) block);
+    }
+
+    /**
+     * Encodes an ACK packet.
+     *
+     * @param buffer the buffer to fill (not null)
+     * @param block the block number
+     * @return the buffer ready to be sent
+     */
+    static ByteBuffer ack(final ByteBuffer buffer, final int block) {
+        return buffer.clear().putShort(EOperation.ACK.getCode()).putShort((short) block).flip();
+    }
+
+    /**
+     * Encodes an ERROR packet.
+     *
+     * @param buffer the buffer to fill (not null)
+     * @param error the error (not null)
+     * @param msg the error message (may be null)
+     * @return the buffer ready to be sent
+     */
+    static ByteBuffer error(final ByteBuffer buffer, final EError error, final String msg) {
+        buffer.clear().putShort(EOperation.ERROR.getCode()).putShort(error.getCode());
+        if (msg != null) {
+            putAscii(buffer, msg).put((byte) 0);
+        }
+        return buffer.flip();
+    }
+
+    /**
+     * Encodes an OACK packet.
+     *
+     * @param buffer the buffer to fill (not null)
+     * @param options the acknowledged options
+     * @return the buffer ready to be sent
+     */
+    static ByteBuffer oack(final ByteBuffer buffer, final Option... options) {
+        buffer.clear().putShort(EOperation.OACK.getCode());
+        for (Option opt : options) {
+            opt.encode(buffer);
+        }
+        return buffer.flip();
+    }
+
+    /**
+     * Puts the US-ASCII encoding of a string.
+     *
+     * @param buffer the buffer to fill (not null)
+     * @param value the string (not null)
+     * @return the buffer
+     */
+    static ByteBuffer putAscii(final ByteBuffer buffer, final String value) {
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            buffer.put(c < 0x80 ? (byte) c : (byte) '?');
+        }
+        return buffer;
+    }
+
+    /**
+     * Puts the US-ASCII decimal representation of a positive number.
+     *
+     * @param buffer the buffer to fill (not null)
+     * @param value the number (positive)
+     * @return the buffer
+     */
+    static ByteBuffer putDecimal(final ByteBuffer buffer, final long value) {
+        final int digits = digits(value);
+        final int start = buffer.position();
+        long remaining = value;
+        for (int i = digits - 1; i >= 0; i--) {
+            buffer.put(start + i, (byte) ('0' + remaining % 10));
+            remaining /= 10;
+        }
+        return buffer.position(start + digits);
+    }
+
+    /**
+     * Returns the number of digits of the decimal representation of a positive number.
+     *
+     * @param value the number (positive)
+     * @return the number of digits
+     */
+    static int digits(final long value) {
+        int digits = 1;
+        for (long remaining = value / 10; remaining > 0; remaining /= 10) {
+            digits++;
+        }
+        return digits;
+    }
+
+    /**
+     * Decodes the options of an OACK packet or of a READ/WRITE request.
+     *
+     * @param from the index of the first option
+     * @param limit the end of the packet
+     * @return true if all options are well formed.
+     */
+    private boolean options(final int from, final int limit) {
+        int index = from;
+        while (index < limit) {
+            final int labelEnd = indexOfNul(this.buffer, index, limit);
+            if (labelEnd < 0) {
+                return false;
+            }
+            final int valueEnd = indexOfNul(this.buffer, labelEnd + 1, limit);
+            if (valueEnd < 0) {
+                return false;
+            }
+            final EOption opt = EOption.lookup(this.buffer, index, labelEnd - index);
+            if (opt != null) {
+                final long value = opt.isNumeric() ? parseDecimal(this.buffer, labelEnd + 1, valueEnd) : 0;
+                if (value == UNDEFINED) {
+                    return false;
+                }
+                if (!this.hasOptions) {
+                    Arrays.fill(this.options, UNDEFINED);
+                    this.hasOptions = true;
+                }
+                this.options[opt.ordinal()] = value;
+                this.texts[opt.ordinal()] = labelEnd + 1;
+            }
+            index = valueEnd + 1;
+        }
+        return true;
+    }
+
+    /**
+     * Decodes a US-ASCII string.
+     *
+     * @param from the index of the first byte
+     * @param len the number of bytes
+     * @return the string
+     */
+    private String ascii(final int from, final int len) {
+        final byte[] bytes = new byte[len];
+        this.buffer.get(from, bytes);
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Returns the index of the next NUL byte.
+     *
+     * @param buffer the buffer (not null)
+     * @param from the index of the first byte to look at
+     * @param limit the index of the end of the region
+     * @return the index or -1 if not found before the limit
+     */
+    private static int indexOfNul(final ByteBuffer buffer, final int from, final int limit) {
+        for (int i = from; i < limit; i++) {
+            if (buffer.get(i) == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Parses a positive decimal number.
+     *
+     * @param buffer the buffer (not null)
+     * @param from the index of the first digit
+     * @param limit the index following the last digit
+     * @return the number or UNDEFINED if the region is not a valid positive number
+     */
+    private static long parseDecimal(final ByteBuffer buffer, final int from, final int limit) {
+        if (from == limit || limit - from > 18) {
+            return UNDEFINED;
+        }
+        long value = 0;
+        for (int i = from; i < limit; i++) {
+            final int digit = buffer.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return UNDEFINED;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2019 Claire Fauch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.code.fauch.hedwig;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Transport over a datagram channel kept open from one transfer to the next one, reusing the buffers of the
+ * previous transfers.
+ *
+ * The buffers are handed out in the order they were allocated by the previous transfer: as a session allocates
+ * them in the same order from one transfer to the next one, each buffer is reused as is or replaced once by a
+ * larger one, until the buffers fit the largest negotiated block size. Closing the transport ends a transfer:
+ * the packets already received are dropped, so that the next transfer does not read them, and the channel
+ * stays registered on its selector until the transport is disposed.
+ *
+ * @author c.fauch
+ *
+ */
+final class PooledTransport implements Transport {
+
+    /**
+     * The channel.
+     */
+    private final DatagramChannel channel;
+
+    /**
+     * The transport over the channel.
+     */
+    private final Transport transport;
+
+    /**
+     * The buffer receiving the dropped packets.
+     */
+    private final ByteBuffer dropped = ByteBuffer.allocateDirect(Session.DATA_SIZE + 4);
+
+    /**
+     * The buffers allocated by the previous transfers, in allocation order.
+     */
+    private final List<ByteBuffer> buffers = new ArrayList<>();
+
+    /**
+     * The number of buffers handed out to the current transfer.
+     */
+    private int used;
+
+    /**
+     * Constructor: the channel is switched to non-blocking mode.
+     *
+     * @param channel the channel to use (not null)
+     * @throws IOException
+     */
+    PooledTransport(final DatagramChannel channel) throws IOException {
+        this.channel = channel;
+        this.transport = new ChannelTransport(channel);
+    }
+
+    /**
+     * Hands out the next buffer of the previous transfers, replaced by a new one if too small.
+     *
+     * @param capacity the capacity of the buffer in bytes
+     * @return a buffer of the given capacity, cleared but holding the bytes of a previous transfer
+     */
+    @Override
+    public ByteBuffer allocate(final int capacity) {
+        if (this.used == this.buffers.size()) {
+            this.buffers.add(this.transport.allocate(capacity));
+        } else if (this.buffers.get(this.used).capacity() < capacity) {
+            this.buffers.set(this.used, this.transport.allocate(capacity));
+        }
+        final ByteBuffer buffer = this.buffers.get(this.used++);
+        return buffer.duplicate().clear().limit(capacity).slice();
+    }
+
+    @Override
+    public int getTimeout() {
+        return this.transport.getTimeout();
+    }
+
+    @Override
+    public void send(final ByteBuffer packet, final InetSocketAddress remote) throws IOException {
+        this.transport.send(packet, remote);
+    }
+
+    @Override
+    public void reply(final ByteBuffer packet) throws IOException {
+        this.transport.reply(packet);
+    }
+
+    @Override
+    public boolean receive(final ByteBuffer packet, final int timeout) throws IOException {
+        return this.transport.receive(packet, timeout);
+    }
+
+    @Override
+    public InetAddress getAddress() {
+        return this.transport.getAddress();
+    }
+
+    @Override
+    public int getPort() {
+        return this.transport.getPort();
+    }
+
+    /**
+     * Ends the transfer: its buffers may be handed out to the next one.
+     */
+    @Override
+    public void close() throws IOException {
+        this.used = 0;
+        while (this.channel.isOpen() && this.channel.receive(this.dropped.clear()) != null) {
+            // late packet of the transfer
+        }
+    }
+
+    /**
+     * Closes the transport over the channel.
+     *
+     * @throws IOException
+     */
+    void dispose() throws IOException {
+        this.transport.close();
+    }
+
+}
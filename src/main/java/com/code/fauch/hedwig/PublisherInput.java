@@ -0,0 +1,200 @@
+/*
+ * Copyright 2019 Claire Fauch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.code.fauch.hedwig;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Flow;
+
+/**
+ * Channel reading the buffers emitted by a publisher, as its subscriber.
+ *
+ * The publisher is subscribed by the first read. A given number of buffers is requested at once, then one
+ * more each time a buffer is wholly read, so that at most this number of buffers is kept whatever the pace of
+ * the publisher. A read waits for the next buffer if nothing is read yet. The failure of the publisher is
+ * thrown by the read following its last buffer. Closing the channel before the end cancels the subscription.
+ *
+ * @author c.fauch
+ *
+ */
+final class PublisherInput implements ReadableByteChannel, Flow.Subscriber<ByteBuffer> {
+
+    /**
+     * Default number of buffers requested in advance.
+     */
+    static final int PREFETCH = 16;
+
+    /**
+     * Marker following the last emitted buffer.
+     */
+    private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+    /**
+     * The publisher to read.
+     */
+    private final Flow.Publisher<? extends ByteBuffer> source;
+
+    /**
+     * The number of buffers requested in advance.
+     */
+    private final int prefetch;
+
+    /**
+     * The emitted buffers in order, followed by the end marker.
+     */
+    private final BlockingQueue<ByteBuffer> items;
+
+    /**
+     * The subscription (null until subscribed).
+     */
+    private volatile Flow.Subscription subscription;
+
+    /**
+     * The failure of the publisher (null if none).
+     */
+    private volatile Throwable error;
+
+    /**
+     * The buffer being read (null if none).
+     */
+    private ByteBuffer current;
+
+    /**
+     * True once the publisher is subscribed.
+     */
+    private boolean subscribed;
+
+    /**
+     * True once closed.
+     */
+    private boolean closed;
+
+    /**
+     * Constructor.
+     *
+     * @param source the publisher to read (not null)
+     * @param prefetch the number of buffers requested in advance (strictly positive)
+     */
+    PublisherInput(final Flow.Publisher<? extends ByteBuffer> source, final int prefetch) {
+        this.source = source;
+        this.prefetch = prefetch;
+        this.items = new ArrayBlockingQueue<>(prefetch + 1);
+    }
+
+    @Override
+    public void onSubscribe(final Flow.Subscription subscription) {
+        if (this.subscription != null) {
+            subscription.cancel();
+            return;
+        }
+        this.subscription = subscription;
+        subscription.request(this.prefetch);
+    }
+
+    @Override
+    public void onNext(final ByteBuffer item) {
+        this.items.add(item);
+    }
+
+    @Override
+    public void onError(final Throwable throwable) {
+        this.error = throwable;
+        this.items.add(END);
+    }
+
+    @Override
+    public void onComplete() {
+        this.items.add(END);
+    }
+
+    @Override
+    public int read(final ByteBuffer dst) throws IOException {
+        if (this.closed) {
+            throw new ClosedChannelException();
+        }
+        if (!this.subscribed) {
+            this.subscribed = true;
+            this.source.subscribe(this);
+        }
+        final int start = dst.position();
+        while (dst.hasRemaining()) {
+            if (this.current == null) {
+                // blocks only if nothing is read yet
+                this.current = dst.position() == start ? take() : this.items.poll();
+                if (this.current == null) {
+                    break;
+                }
+            }
+            if (this.current == END) {
+                if (this.error != null && dst.position() == start) {
+                    throw new IOException("Publisher failed", this.error);
+                }
+                break;
+            }
+            final ByteBuffer src = this.current;
+            if (src.remaining() > dst.remaining()) {
+                final int limit = src.limit();
+                dst.put(src.limit(src.position() + dst.remaining()));
+                src.limit(limit);
+            } else {
+                dst.put(src);
+                this.current = null;
+                this.subscription.request(1);
+            }
+        }
+        final int count = dst.position() - start;
+        return count == 0 && this.current == END ? -1 : count;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !this.closed;
+    }
+
+    /**
+     * Cancels the subscription if the publisher is not wholly read.
+     */
+    @Override
+    public void close() {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        if (this.subscription != null && this.current != END) {
+            this.subscription.cancel();
+        }
+    }
+
+    /**
+     * Takes the next emitted buffer.
+     *
+     * @return the buffer or the end marker
+     * @throws InterruptedIOException if the calling thread is interrupted
+     */
+    private ByteBuffer take() throws InterruptedIOException {
+        try {
+            return this.items.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the publisher");
+        }
+    }
+
+}
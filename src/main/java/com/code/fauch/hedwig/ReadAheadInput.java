@@ -0,0 +1,211 @@
+/*
+ * Copyright 2019 Claire Fauch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.code.fauch.hedwig;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Channel reading another channel ahead on a dedicated thread.
+ *
+ * The reading thread fills a fixed set of buffers allocated once and hands them over in order; the buffers
+ * are given back once copied, so that the reading thread stays at most a given number of buffers ahead of the
+ * session. A slow source is thus read while the previous blocks are in flight. A failure of the source is
+ * thrown by the read following the last buffer read before it. The wrapped channel is not closed with this
+ * channel: the reading thread is never interrupted, so that an interruptible channel over the stream of the
+ * caller stays open, and stops once its current read returns.
+ *
+ * @author c.fauch
+ *
+ */
+final class ReadAheadInput implements ReadableByteChannel {
+
+    /**
+     * Marker following the last filled buffer.
+     */
+    private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+    /**
+     * Marker stopping the reading thread waiting for a buffer to fill.
+     */
+    private static final ByteBuffer STOP = ByteBuffer.allocate(0);
+
+    /**
+     * The channel to read.
+     */
+    private final ReadableByteChannel source;
+
+    /**
+     * The buffers to fill.
+     */
+    private final BlockingQueue<ByteBuffer> free;
+
+    /**
+     * The filled buffers in read order, followed by the end marker.
+     */
+    private final BlockingQueue<ByteBuffer> filled;
+
+    /**
+     * The reading thread.
+     */
+    private final Thread thread;
+
+    /**
+     * The failure of the source (null if none).
+     */
+    private volatile IOException error;
+
+    /**
+     * The buffer being copied (null if none).
+     */
+    private ByteBuffer current;
+
+    /**
+     * True once closed.
+     */
+    private volatile boolean closed;
+
+    /**
+     * Constructor: the reading thread is started.
+     *
+     * @param source the channel to read (not null)
+     * @param count the number of buffers read ahead (strictly positive)
+     * @param size the size of a buffer (strictly positive)
+     */
+    ReadAheadInput(final ReadableByteChannel source, final int count, final int size) {
+        this.source = source;
+        this.free = new ArrayBlockingQueue<>(count);
+        this.filled = new ArrayBlockingQueue<>(count + 1);
+        for (int i = 0; i < count; i++) {
+            this.free.add(ByteBuffer.allocate(size));
+        }
+        this.thread = new Thread(this::run, "hedwig-read-ahead");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    @Override
+    public int read(final ByteBuffer dst) throws IOException {
+        if (this.closed) {
+            throw new ClosedChannelException();
+        }
+        final int start = dst.position();
+        while (dst.hasRemaining()) {
+            if (this.current == null) {
+                // blocks only if nothing is copied yet
+                this.current = dst.position() == start ? take() : this.filled.poll();
+                if (this.current == null) {
+                    break;
+                }
+            }
+            if (this.current == END) {
+                if (this.error != null && dst.position() == start) {
+                    throw this.error;
+                }
+                break;
+            }
+            final ByteBuffer src = this.current;
+            if (src.remaining() > dst.remaining()) {
+                final int limit = src.limit();
+                dst.put(src.limit(src.position() + dst.remaining()));
+                src.limit(limit);
+            } else {
+                dst.put(src);
+                this.current = null;
+                this.free.add(src.clear());
+            }
+        }
+        final int count = dst.position() - start;
+        return count == 0 && this.current == END ? -1 : count;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !this.closed;
+    }
+
+    /**
+     * Stops the reading thread, without interrupting it.
+     */
+    @Override
+    public void close() {
+        this.closed = true;
+        // if no buffer is free, the reading thread does not wait and sees it is closed
+        this.free.offer(STOP);
+    }
+
+    /**
+     * Takes the next filled buffer.
+     *
+     * @return the buffer or the end marker
+     * @throws InterruptedIOException if the calling thread is interrupted
+     */
+    private ByteBuffer take() throws InterruptedIOException {
+        try {
+            return this.filled.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading ahead");
+        }
+    }
+
+    /**
+     * Fills the free buffers until the end of the source.
+     */
+    private void run() {
+        try {
+            while (!this.closed) {
+                final ByteBuffer buffer = this.free.take();
+                if (buffer == STOP) {
+                    return;
+                }
+                final boolean eof = fill(buffer);
+                if (buffer.position() > 0) {
+                    this.filled.put(buffer.flip());
+                }
+                if (eof) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            this.error = e;
+        } catch (InterruptedException e) {
+            return;
+        }
+        this.filled.add(END);
+    }
+
+    /**
+     * Fills given buffer with data read from the source.
+     *
+     * @param buffer the buffer to fill
+     * @return true if the end of the source is reached
+     * @throws IOException
+     */
+    private boolean fill(final ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (this.source.read(buffer) == -1) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
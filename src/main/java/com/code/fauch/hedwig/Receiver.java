@@ -0,0 +1,310 @@
+/*
+ * Copyright 2019 Claire Fauch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.code.fauch.hedwig;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.FileStore;
+import java.util.Arrays;
+
+/**
+ * Session receiving DATA blocks written into a channel.
+ *
+ * A window is acknowledged once all its blocks are received in sequence. A block ahead of sequence is
+ * answered once by the ACK of the last block received in sequence, so that the sender rolls back its window.
+ * A block already received is dropped, except the last acknowledged one which is acknowledged again: its ACK
+ * may have been lost.
+ *
+ * A file channel is written with positional writes from the beginning of the file. When the remote host announces
+ * the size of the file (tsize option), the file is extended to its final size at once, and the transfer is
+ * refused at once if the file store of the file cannot hold it.
+ *
+ * A client sends a READ request and starts with the OACK or the first DATA block. A server answering a
+ * WRITE request sends an OACK or the ACK of block 0 until the first DATA block is received.
+ *
+ * @author c.fauch
+ *
+ */
+final class Receiver extends Session {
+
+    /**
+     * The channel to write.
+     */
+    private final WritableByteChannel output;
+
+    /**
+     * The file to write at absolute positions (null if the output is not a file).
+     */
+    private final FileChannel file;
+
+    /**
+     * The buffer used to send ACK packets.
+     */
+    private final ByteBuffer ackbuff;
+
+    /**
+     * The last block received in sequence.
+     */
+    private int last;
+
+    /**
+     * The number of blocks received since the last ACK.
+     */
+    private int count;
+
+    /**
+     * True if an out of sequence block has already been acknowledged.
+     */
+    private boolean lost;
+
+    /**
+     * The file store of the written file (null if unknown).
+     */
+    private FileStore store;
+
+    /**
+     * True once the file is extended to the announced size.
+     */
+    private boolean preallocated;
+
+    /**
+     * Constructor.
+     *
+     * @param transport the transport used to send packets (not null)
+     * @param fileName the name of the remote file
+     * @param timeout the upper bound of the retransmission timeout in milliseconds
+     * @param retries the maximum number of retransmissions of a same packet
+     * @param output the channel to write (not null)
+     */
+    Receiver(final Transport transport, final String fileName, final long timeout, final int retries,
+            final WritableByteChannel output) {
+        super(transport, fileName, timeout, retries);
+        this.output = output;
+        this.file = output instanceof FileChannel ? (FileChannel) output : null;
+        this.ackbuff = transport.allocate(4);
+    }
+
+    /**
+     * Adds the tsize option to the options of a READ request if missing, so that the server announces the size
+     * of the file.
+     *
+     * @param options the options of the request (not null)
+     * @return the options with the tsize option
+     */
+    static Option[] sized(final Option[] options) {
+        for (Option option : options) {
+            if (EOption.lookup(option.getLabel()) == EOption.TSIZE) {
+                return options;
+            }
+        }
+        final Option[] sized = Arrays.copyOf(options, options.length + 1);
+        sized[options.length] = Option.tsize(0);
+        return sized;
+    }
+
+    /**
+     * Sets the file store of the written file: the announced size is checked against its usable space.
+     *
+     * @param store the file store (not null)
+     */
+    void storage(final FileStore store) {
+        this.store = store;
+    }
+
+    /**
+     * Answers a WRITE request.
+     *
+     * @param client the transfer identifier of the client (not null)
+     * @param blksize the negotiated block size
+     * @param windowsize the negotiated window size
+     * @param oack the OACK packet to send or null if no option is acknowledged
+     * @throws IOException
+     */
+    void serve(final InetSocketAddress client, final int blksize, final int windowsize, final ByteBuffer oack)
+            throws IOException {
+        serving(EOperation.WRITE);
+        this.remote = client;
+        this.blksize = blksize;
+        this.windowsize = windowsize;
+        if (this.rcvbuff.capacity() < blksize + 4) {
+            this.rcvbuff = this.transport.allocate(blksize + 4);
+        }
+        control(oack != null ? oack : PacketView.ack(this.ackbuff, 0), client);
+    }
+
+    @Override
+    protected void packet(final PacketView packet) throws IOException, TFTPException {
+        if (!isEstablished()) {
+            if (packet.getOperation() == EOperation.OACK) {
+                configure(packet);
+                this.blksize = option(packet, EOption.BLKSIZE, this.blksize);
+                this.windowsize = option(packet, EOption.WINDOWSIZE, this.windowsize);
+                checkSize();
+                allocate();
+                start();
+                ack();
+                return;
+            } else if (packet.getOperation() == EOperation.DATA) {
+                start(); // the first DATA block is received without option acknowledgment
+            } else {
+                return;
+            }
+        }
+        if (packet.getOperation() != EOperation.DATA) {
+            return;
+        }
+        final int block = packet.getBlock();
+        if (block == next(this.last) || wrapped(block)) {
+            progress();
+            final boolean eof = packet.getLength() < this.blksize;
+            final ByteBuffer payload = this.rcvbuff.position(packet.getOffset());
+            update(payload);
+            write(payload);
+            this.bytes += packet.getLength();
+            this.blocks++;
+            this.last = block;
+            this.lost = false;
+            this.count++;
+            this.listener.received(this.fileName, block, this.bytes);
+            progressed();
+            if (eof || this.count == this.windowsize) { // Ack the whole window
+                ack();
+            }
+            if (eof) {
+                if (this.preallocated && this.bytes < this.tsize) { // less data than announced
+                    this.file.truncate(this.bytes);
+                }
+                if (this.output instanceof Flushable) { // the output may keep the end of the content
+                    ((Flushable) this.output).flush();
+                }
+                finish();
+            }
+        } else if (block == this.last && this.blocks > 0 && this.count == 0) {
+            // the last block is sent again: its ACK was lost
+            this.duplicates++;
+            ack();
+        } else if (stale(block)) {
+            this.duplicates++;
+        } else {
+            this.outOfOrder++;
+            if (!this.lost) { // Ack the last block received in sequence to roll back the window
+                ack();
+                this.lost = true;
+            }
+        }
+    }
+
+    @Override
+    protected void retransmit() throws IOException {
+        ack();
+        this.lost = true;
+    }
+
+    /**
+     * Starts the transfer once the options are negotiated.
+     */
+    private void start() {
+        if (this.rcvbuff.capacity() < this.blksize + 4) {
+            this.rcvbuff = this.transport.allocate(this.blksize + 4);
+        }
+        established();
+    }
+
+    /**
+     * Checks if a block follows the block 65535 with the other block number than expected: the rollover
+     * policy of the sender is then adopted.
+     *
+     * @param block the received block number
+     * @return true if the block follows the last block
+     */
+    private boolean wrapped(final int block) {
+        if (this.last != 65535 || this.rollover == ERollover.NONE || (block != 0 && block != 1)) {
+            return false;
+        }
+        this.rollover = block == 0 ? ERollover.ZERO : ERollover.ONE;
+        return true;
+    }
+
+    /**
+     * Checks if a block out of sequence was already received: a block of the last half of the block numbers
+     * preceding the next block is a duplicate, any other one is ahead of sequence.
+     *
+     * @param block the received block number
+     * @return true if the block is a duplicate
+     */
+    private boolean stale(final int block) {
+        return this.blocks > 0 && ((this.last - block) & 0xFFFF) < 0x8000;
+    }
+
+    /**
+     * Extends the written file to the announced size: the metadata of the file are updated once, not after each
+     * block. The transfer is refused with a DISK FULL error if the file store cannot hold the announced size.
+     *
+     * @throws IOException
+     * @throws TFTPException if there is not enough usable space
+     */
+    private void allocate() throws IOException, TFTPException {
+        if (this.tsize <= 0 || this.file == null) {
+            return;
+        }
+        if (this.store != null && this.tsize - this.file.size() > this.store.getUsableSpace()) {
+            final TFTPException error = new TFTPException(EError.DISK_FULL_OR_ALLOCATION_EXCEED,
+                    "Not enough space for " + this.tsize + " bytes");
+            this.transport.send(PacketView.error(this.transport.allocate(64), error.getError(),
+                    error.getMessage()), this.remote);
+            ErrorEvent.emit(this.fileName, this.remote, error, false);
+            throw error;
+        }
+        if (this.file.size() < this.tsize) {
+            this.file.write(ByteBuffer.allocate(1), this.tsize - 1);
+        }
+        this.preallocated = true;
+    }
+
+    /**
+     * Acknowledges the last block received in sequence.
+     *
+     * @throws IOException
+     */
+    private void ack() throws IOException {
+        this.transport.send(PacketView.ack(this.ackbuff, this.last), this.remote);
+        this.timer.sent();
+        this.count = 0;
+    }
+
+    /**
+     * Write the whole content of given buffer into the output channel.
+     *
+     * @param buffer the buffer to write
+     * @throws IOException
+     */
+    private void write(final ByteBuffer buffer) throws IOException {
+        if (this.file != null) {
+            long position = this.bytes;
+            while (buffer.hasRemaining()) {
+                position += this.file.write(buffer, position);
+            }
+            return;
+        }
+        while (buffer.hasRemaining()) {
+            this.output.write(buffer);
+        }
+    }
+
+}
@@ -14,7 +14,6 @@
  */
 package com.code.fauch.hedwig;
 
-import java.io.ByteArrayOutputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.InetAddress;
 import java.nio.ByteBuffer;
@@ -91,6 +90,40 @@ final class Request extends AbsPacket {
         return new Request(EOperation.READ, fileName, mode, host, port, opts);
     }
     
+    /**
+     * Builds a request from a decoded READ/WRITE packet: only known options are kept.
+     * 
+     * @param view the view on the READ/WRITE packet (not null)
+     * @param host the source host name
+     * @param port the source port
+     * @return the corresponding request
+     */
+    static Request from(final PacketView view, final InetAddress host, final int port) {
+        return new Request(view.getOperation(), view.getFileName(), view.getMode(), host, port, 
+                view.getOptions());
+    }
+    
+    /**
+     * @return the name of the file to read or write
+     */
+    public String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * @return the transfer mode
+     */
+    public String getMode() {
+        return mode;
+    }
+
+    /**
+     * @return the request options
+     */
+    public Option[] getOptions() {
+        return options.clone();
+    }
+
     @Override
     byte[] encode() throws UnsupportedEncodingException {
         final byte[] modeEnc = (this.mode + "\0").getBytes("US-ASCII");
@@ -111,12 +144,15 @@ final class Request extends AbsPacket {
      * @throws UnsupportedEncodingException 
      */
     private byte[] encodeOpts() throws UnsupportedEncodingException {
-        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int length = 0;
         for (Option opt : this.options) {
-            final byte[] buff = opt.encode();
-            out.write(buff, 0, buff.length);
+            length += opt.length();
         }
-        return out.toByteArray();
+        final ByteBuffer buffer = ByteBuffer.allocate(length);
+        for (Option opt : this.options) {
+            opt.encode(buffer);
+        }
+        return buffer.array();
     }
 
     @Override
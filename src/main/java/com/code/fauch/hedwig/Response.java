@@ -14,7 +14,6 @@
  */
 package com.code.fauch.hedwig;
 
-import java.io.ByteArrayOutputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.DatagramPacket;
 import java.net.InetAddress;
@@ -146,43 +145,60 @@ public final class Response extends AbsPacket {
      * @throws TFTPException if the response was a TFTP error.
      */
     public static Response from(final DatagramPacket packet) throws UnsupportedEncodingException, TFTPException {
-        byte[] content = Arrays.copyOf(Objects.requireNonNull(packet, "missing packet").getData(), packet.getLength());
-        final ByteBuffer buffer = ByteBuffer.wrap(content);
-        final EOperation op = EOperation.from(buffer.getShort());
+        final byte[] content = Objects.requireNonNull(packet, "missing packet").getData();
+        return from(ByteBuffer.wrap(content, packet.getOffset(), packet.getLength()), packet.getAddress(), packet.getPort());
+    }
+    
+    /**
+     * Read a response from a byte buffer.
+     * 
+     * Only the known options of OACK responses are kept.
+     * 
+     * @param buffer the buffer containing the packet between its position and its limit (not null)
+     * @param host the source host name
+     * @param port the source port
+     * @return the corresponding response
+     * @throws UnsupportedEncodingException
+     * @throws TFTPException if the response was a TFTP error.
+     */
+    static Response from(final ByteBuffer buffer, final InetAddress host, final int port) 
+            throws UnsupportedEncodingException, TFTPException {
+        final PacketView view = new PacketView();
+        if (!view.wrap(Objects.requireNonNull(buffer, "missing buffer"))) {
+            throw new IllegalArgumentException("Invalid TFTP response");
+        }
+        final EOperation op = view.getOperation();
         if (op == EOperation.ERROR) {
-            throw TFTPException.from(buffer);
+            throw TFTPException.from(view);
         } if (op == EOperation.OACK) {
             final HashMap<String, Option> opts = new HashMap<>();
-            Option opt = Option.decode(buffer);
-            while(opt != null) {
+            for (Option opt : view.getOptions()) {
                 opts.put(opt.getLabel(), opt);
-                opt = Option.decode(buffer);
             }
             return new Response(
                     op, 
                     0, 
                     new byte[0],
-                    packet.getAddress(), 
-                    packet.getPort(), 
+                    host, 
+                    port, 
                     opts);
         } if (op == EOperation.ACK) {
             return new Response(
                     op, 
-                    Short.toUnsignedInt(buffer.getShort()), 
+                    view.getBlock(), 
                     new byte[0],
-                    packet.getAddress(), 
-                    packet.getPort(), 
+                    host, 
+                    port, 
                     Collections.emptyMap());
         } else {
-            final short block = buffer.getShort();
-            byte[] data = new byte[buffer.remaining()];
-            buffer.get(data);
+            final byte[] data = new byte[view.getLength()];
+            buffer.get(view.getOffset(), data);
             return new Response(
                     op, 
-                    Short.toUnsignedInt(block), 
+                    view.getBlock(), 
                     data,
-                    packet.getAddress(), 
-                    packet.getPort(), 
+                    host, 
+                    port, 
                     Collections.emptyMap());
         }
     }
@@ -228,6 +244,15 @@ public final class Response extends AbsPacket {
         return this.options.get(Option.BLKSIZE);
     }
     
+    /**
+     * Returns the windowsize option.
+     * 
+     * @return the windowsize option or null if this option is not defined.
+     */
+    public Option getWindowsize() {
+        return this.options.get(Option.WINDOWSIZE);
+    }
+    
     @Override
     byte[] encode() throws UnsupportedEncodingException {
         if (getOperation() != EOperation.OACK) {
@@ -239,16 +264,12 @@ public final class Response extends AbsPacket {
             }
             return buffer.array();
         } else {
-            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            int length = 2;
             for (Option opt : this.options.values()) {
-                final byte[] buff = opt.encode();
-                out.write(buff, 0, buff.length);
+                length += opt.length();
             }
-            final byte[] opts = out.toByteArray();
-            final ByteBuffer buffer = ByteBuffer.allocate(2 + opts.length);
-            buffer.putShort(getOperation().getCode());
-            buffer.put(opts);
-            return buffer.array();
+            final Option[] opts = this.options.values().toArray(new Option[this.options.size()]);
+            return PacketView.oack(ByteBuffer.allocate(length), opts).array();
         }
     }
 
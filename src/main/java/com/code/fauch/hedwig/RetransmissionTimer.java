@@ -0,0 +1,220 @@
+/*
+ * Copyright 2019 Claire Fauch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.code.fauch.hedwig;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Retransmission timer of a transfer.
+ * https://tools.ietf.org/html/rfc6298
+ *
+ * The round trip time is estimated from the delay between a sent packet and the response it triggers.
+ * Samples are ignored for retransmitted packets (Karn's algorithm) and the retransmission timeout is
+ * doubled after each expiration without ever exceeding the upper bound.
+ *
+ * @author c.fauch
+ *
+ */
+final class RetransmissionTimer {
+
+    /**
+     * Initial retransmission timeout in nanoseconds (no sample yet).
+     */
+    private static final long INITIAL_TIMEOUT = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * Lower bound of the retransmission timeout in nanoseconds.
+     */
+    private static final long MIN_TIMEOUT = TimeUnit.MILLISECONDS.toNanos(20);
+
+    /**
+     * Upper bound of the retransmission timeout in nanoseconds.
+     */
+    private long maxTimeout;
+
+    /**
+     * Smoothed round trip time in nanoseconds (-1 until the first sample).
+     */
+    private long srtt = -1;
+
+    /**
+     * Round trip time variation in nanoseconds.
+     */
+    private long rttvar;
+
+    /**
+     * The current retransmission timeout in nanoseconds.
+     */
+    private long rto;
+
+    /**
+     * Sending time of the packet being timed or -1 if no packet is timed.
+     */
+    private long sentAt = -1;
+
+    /**
+     * Time at which the timer expires.
+     */
+    private long deadline;
+
+    /**
+     * True if the last sent packet was a retransmission.
+     */
+    private boolean retransmitting;
+
+    /**
+     * The flight recorder event of the timed round trip, reused from one round trip to the next one.
+     */
+    private final RoundTripEvent event = new RoundTripEvent();
+
+    /**
+     * True if the flight recorder event is timing the round trip.
+     */
+    private boolean recording;
+
+    /**
+     * Constructor.
+     *
+     * @param maxTimeout the upper bound of the retransmission timeout in milliseconds (strictly positive)
+     */
+    RetransmissionTimer(final long maxTimeout) {
+        this(maxTimeout, null);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param maxTimeout the upper bound of the retransmission timeout in milliseconds (strictly positive)
+     * @param fileName the name of the transferred file, recorded with the round trips
+     */
+    RetransmissionTimer(final long maxTimeout, final String fileName) {
+        bound(maxTimeout);
+        this.rto = Math.min(INITIAL_TIMEOUT, this.maxTimeout);
+        this.event.fileName = fileName;
+    }
+
+    /**
+     * Changes the upper bound of the retransmission timeout (the negotiated timeout).
+     *
+     * @param maxTimeout the upper bound in milliseconds (strictly positive)
+     */
+    void bound(final long maxTimeout) {
+        if (maxTimeout <= 0) {
+            throw new IllegalArgumentException("Invalid timeout: " + maxTimeout);
+        }
+        this.maxTimeout = Math.max(TimeUnit.MILLISECONDS.toNanos(maxTimeout), MIN_TIMEOUT);
+        this.rto = Math.min(this.rto, this.maxTimeout);
+    }
+
+    /**
+     * Arms the timer once a packet waiting for a response has been sent.
+     */
+    void sent() {
+        final long now = System.nanoTime();
+        if (!this.retransmitting) {
+            this.sentAt = now;
+            this.recording = this.event.isEnabled();
+            if (this.recording) {
+                this.event.begin();
+            }
+        }
+        this.deadline = now + this.rto;
+    }
+
+    /**
+     * Arms the timer again once an expected packet has been received.
+     * The round trip time is updated if the received packet answers a timed packet.
+     */
+    void received() {
+        final long now = System.nanoTime();
+        if (this.sentAt >= 0) {
+            sample(now - this.sentAt);
+            this.sentAt = -1;
+            if (this.recording) {
+                record();
+            }
+        }
+        this.retransmitting = false;
+        this.deadline = now + this.rto;
+    }
+
+    /**
+     * Backs off the timer once it has expired: the next sent packet will be a retransmission.
+     */
+    void expired() {
+        this.rto = Math.min(this.rto * 2, this.maxTimeout);
+        this.sentAt = -1;
+        this.recording = false;
+        this.retransmitting = true;
+    }
+
+    /**
+     * Returns the remaining time before the expiration of the timer.
+     *
+     * @return the remaining time in milliseconds, 0 if the timer has expired.
+     */
+    int remaining() {
+        final long remaining = this.deadline - System.nanoTime();
+        return remaining <= 0 ? 0 : (int) Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining));
+    }
+
+    /**
+     * Returns the time at which the timer expires.
+     *
+     * @return the deadline in nanoseconds (see System.nanoTime())
+     */
+    long getDeadline() {
+        return this.deadline;
+    }
+
+    /**
+     * Returns the current retransmission timeout.
+     *
+     * @return the timeout in milliseconds
+     */
+    long getTimeout() {
+        return TimeUnit.NANOSECONDS.toMillis(this.rto);
+    }
+
+    /**
+     * Commits the flight recorder event of the timed round trip if longer than its threshold.
+     */
+    private void record() {
+        this.recording = false;
+        this.event.end();
+        if (this.event.shouldCommit()) {
+            this.event.srtt = this.srtt;
+            this.event.rto = this.rto;
+            this.event.commit();
+        }
+    }
+
+    /**
+     * Updates the round trip time estimation with a new measure.
+     *
+     * @param rtt the measured round trip time in nanoseconds
+     */
+    private void sample(final long rtt) {
+        if (this.srtt < 0) {
+            this.srtt = rtt;
+            this.rttvar = rtt / 2;
+        } else {
+            this.rttvar = (3 * this.rttvar + Math.abs(this.srtt - rtt)) / 4;
+            this.srtt = (7 * this.srtt + rtt) / 8;
+        }
+        this.rto = Math.min(Math.max(this.srtt + 4 * this.rttvar, MIN_TIMEOUT), this.maxTimeout);
+    }
+
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2019 Claire Fauch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.code.fauch.hedwig;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight recorder event of a round trip: from a sent packet to the response it triggers.
+ *
+ * Only the round trips longer than the threshold (20 ms by default) are recorded.
+ *
+ * @author c.fauch
+ *
+ */
+@Name("com.code.fauch.hedwig.RoundTrip")
+@Label("TFTP Round Trip")
+@Category("Hedwig")
+@Description("The time between a sent packet and the response it triggers")
+@Threshold("20 ms")
+final class RoundTripEvent extends jdk.jfr.Event {
+
+    @Label("File Name")
+    String fileName;
+
+    @Label("Smoothed Round Trip Time")
+    @Timespan
+    long srtt;
+
+    @Label("Retransmission Timeout")
+    @Timespan
+    long rto;
+
+}
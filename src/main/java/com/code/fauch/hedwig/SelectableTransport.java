@@ -0,0 +1,110 @@
+/*
+ * Copyright 2019 Claire Fauch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.code.fauch.hedwig;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+/**
+ * Transport over a non-blocking datagram channel registered on an event loop.
+ *
+ * The transport never waits: a packet is received only if it is already there and a packet that can not be
+ * sent immediately is dropped, as if lost on the network, and recovered by retransmission.
+ * The channel is closed with the transport.
+ *
+ * @author c.fauch
+ *
+ */
+final class SelectableTransport implements Transport {
+
+    /**
+     * The non-blocking channel.
+     */
+    private final DatagramChannel channel;
+
+    /**
+     * Source of the last received packet.
+     */
+    private InetSocketAddress source;
+
+    /**
+     * Constructor.
+     *
+     * @param channel the non-blocking channel to use (not null)
+     */
+    SelectableTransport(final DatagramChannel channel) {
+        this.channel = channel;
+    }
+
+    @Override
+    public ByteBuffer allocate(final int capacity) {
+        return ByteBuffer.allocateDirect(capacity);
+    }
+
+    @Override
+    public int getTimeout() {
+        return 0;
+    }
+
+    @Override
+    public void send(final ByteBuffer packet, final InetSocketAddress remote) throws IOException {
+        this.channel.send(packet, remote);
+    }
+
+    @Override
+    public void reply(final ByteBuffer packet) throws IOException {
+        this.channel.send(packet, this.source);
+    }
+
+    /**
+     * Receives a packet already there, never waits.
+     *
+     * @param packet the buffer allocated by this transport: on return it contains the packet between 0
+     * and its limit (not null)
+     * @param timeout ignored
+     * @return true if a packet was received
+     * @throws IOException
+     */
+    @Override
+    public boolean receive(final ByteBuffer packet, final int timeout) throws IOException {
+        packet.clear();
+        final InetSocketAddress src = (InetSocketAddress) this.channel.receive(packet);
+        if (src == null) {
+            return false;
+        }
+        this.source = src;
+        packet.flip();
+        return true;
+    }
+
+    @Override
+    public InetAddress getAddress() {
+        return this.source.getAddress();
+    }
+
+    @Override
+    public int getPort() {
+        return this.source.getPort();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+    }
+
+}
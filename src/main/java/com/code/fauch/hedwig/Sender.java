@@ -0,0 +1,269 @@
+/*
+ * Copyright 2019 Claire Fauch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.code.fauch.hedwig;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+
+/**
+ * Session sending DATA blocks read from a channel.
+ *
+ * The whole window is sent before waiting for an ACK. The blocks following the acknowledged one stay in the
+ * window and are sent again with the next blocks; the whole window is sent again on timeout.
+ *
+ * To avoid the Sorcerer's Apprentice syndrome (https://tools.ietf.org/html/rfc1123#page-45), a duplicated ACK
+ * never causes DATA blocks to be sent again more than once. With a window, the first ACK of the last acknowledged
+ * block is taken as a receiver rolling back to it (https://tools.ietf.org/html/rfc7440#section-4): the whole window
+ * is sent again at once. Any other ACK that acknowledges no new block is dropped until the window slides.
+ *
+ * A client sends a WRITE request and starts once it is acknowledged. A server answering a READ request
+ * starts at once, or once its OACK is acknowledged by the ACK of block 0.
+ *
+ * @author c.fauch
+ *
+ */
+final class Sender extends Session {
+
+    /**
+     * The channel to read.
+     */
+    private final ReadableByteChannel input;
+
+    /**
+     * DATA packets of the current window: kept until acknowledged to be able to send them again.
+     */
+    private ByteBuffer[] window;
+
+    /**
+     * The number of blocks in the window.
+     */
+    private int count;
+
+    /**
+     * The last acknowledged block.
+     */
+    private int acked;
+
+    /**
+     * True once the window is sent again for an ACK of the last acknowledged block.
+     */
+    private boolean rolledBack;
+
+    /**
+     * The last block read from the input.
+     */
+    private int filled;
+
+    /**
+     * True once the whole input is read.
+     */
+    private boolean eof;
+
+    /**
+     * Constructor.
+     *
+     * @param transport the transport used to send packets (not null)
+     * @param fileName the name of the remote file
+     * @param timeout the upper bound of the retransmission timeout in milliseconds
+     * @param retries the maximum number of retransmissions of a same packet
+     * @param input the channel to read (not null)
+     */
+    Sender(final Transport transport, final String fileName, final long timeout, final int retries,
+            final ReadableByteChannel input) {
+        super(transport, fileName, timeout, retries);
+        this.input = input;
+    }
+
+    /**
+     * Answers a READ request.
+     *
+     * @param client the transfer identifier of the client (not null)
+     * @param blksize the negotiated block size
+     * @param windowsize the negotiated window size
+     * @param oack the OACK packet to send or null if no option is acknowledged
+     * @throws IOException
+     */
+    void serve(final InetSocketAddress client, final int blksize, final int windowsize, final ByteBuffer oack)
+            throws IOException {
+        serving(EOperation.READ);
+        this.remote = client;
+        this.blksize = blksize;
+        this.windowsize = windowsize;
+        if (oack != null) {
+            control(oack, client);
+        } else {
+            start();
+        }
+    }
+
+    /**
+     * Raises the block size of a WRITE request if needed, so that a file of the given size can be sent without
+     * rollover.
+     *
+     * @param options the options of the request (not null)
+     * @param size the size of the file to send
+     * @param rollover the rollover policy (not null)
+     * @return the options with a block size large enough
+     * @throws IllegalArgumentException if the file is too large for any block size
+     */
+    static Option[] fitted(final Option[] options, final long size, final ERollover rollover) {
+        int index = -1;
+        int blksize = DATA_SIZE;
+        for (int i = 0; i < options.length; i++) {
+            if (EOption.lookup(options[i].getLabel()) == EOption.BLKSIZE) {
+                index = i;
+                blksize = (int) options[i].getValue();
+            }
+        }
+        if (size <= rollover.getMaxSize(blksize)) {
+            return options;
+        }
+        final long required = size / 65535 + 1;
+        if (required > TFTPServer.MAX_BLKSIZE) {
+            throw new IllegalArgumentException("File too large without rollover: " + size);
+        }
+        final Option[] fitted = Arrays.copyOf(options, index < 0 ? options.length + 1 : options.length);
+        fitted[index < 0 ? options.length : index] = Option.blksize(required);
+        return fitted;
+    }
+
+    @Override
+    protected void packet(final PacketView packet) throws IOException, TFTPException {
+        if (!isEstablished()) {
+            if (packet.getOperation() == EOperation.OACK) {
+                configure(packet);
+                this.blksize = option(packet, EOption.BLKSIZE, this.blksize);
+                this.windowsize = option(packet, EOption.WINDOWSIZE, this.windowsize);
+                checkSize();
+                start();
+            } else if (packet.getOperation() == EOperation.ACK && packet.getBlock() == 0) {
+                start();
+            }
+        } else if (packet.getOperation() == EOperation.ACK) {
+            final int done = acknowledged(packet.getBlock());
+            if (done < 0) { // never send again for a duplicated ACK
+                this.duplicates++;
+                return;
+            }
+            this.rolledBack = done == 0;
+            progress();
+            this.listener.acknowledged(this.fileName, packet.getBlock());
+            // Sliding the window: the blocks following the acknowledged one will be sent again
+            for (int i = 0; i < this.count - done; i++) {
+                final ByteBuffer tmp = this.window[i];
+                this.window[i] = this.window[i + done];
+                this.window[i + done] = tmp;
+            }
+            this.count -= done;
+            for (int i = 0; i < done; i++) {
+                this.acked = next(this.acked);
+            }
+            if (this.count == 0 && this.eof) {
+                finish();
+            } else {
+                send();
+            }
+        }
+    }
+
+    @Override
+    protected void retransmit() throws IOException {
+        send();
+    }
+
+    /**
+     * Starts the transfer once the options are negotiated.
+     *
+     * @throws IOException
+     */
+    private void start() throws IOException {
+        this.window = new ByteBuffer[this.windowsize];
+        for (int i = 0; i < this.windowsize; i++) {
+            this.window[i] = this.transport.allocate(this.blksize + 4);
+        }
+        established();
+        send();
+    }
+
+    /**
+     * Fills the window with the next data blocks then sends the whole window.
+     *
+     * @throws IOException
+     */
+    private void send() throws IOException {
+        while (this.count < this.window.length && !this.eof) {
+            final int block = next(this.filled);
+            if (block < 0) { // the acknowledged blocks must be sent before failing
+                if (this.count == 0) {
+                    throw new IOException("More than 65535 blocks without rollover");
+                }
+                break;
+            }
+            this.filled = block;
+            final ByteBuffer data = PacketView.data(this.window[this.count], this.filled);
+            read(data);
+            if (data.hasRemaining()) {
+                this.eof = true;
+            }
+            data.flip();
+            update(data.position(4));
+            this.bytes += data.limit() - 4;
+            this.blocks++;
+            this.count++;
+            this.listener.sent(this.fileName, this.filled, this.bytes);
+        }
+        for (int i = 0; i < this.count; i++) {
+            this.transport.send(this.window[i].rewind(), this.remote);
+        }
+        this.timer.sent();
+    }
+
+    /**
+     * Returns the number of blocks of the window acknowledged by the given ACK.
+     *
+     * @param block the block of the received ACK
+     * @return the number of acknowledged blocks, 0 if the receiver asks to send the whole window again,
+     * or -1 if the ACK does not acknowledge any block of this window
+     */
+    private int acknowledged(final int block) {
+        int current = this.acked;
+        for (int i = 1; i <= this.count; i++) {
+            current = next(current);
+            if (current == block) {
+                return i;
+            }
+        }
+        // Without window the receiver never asks for a roll back, and it asks once until the window slides
+        return block == this.acked && this.window.length > 1 && !this.rolledBack ? 0 : -1;
+    }
+
+    /**
+     * Fill given buffer with data read from the input channel.
+     *
+     * @param buffer the buffer to fill
+     * @throws IOException
+     */
+    private void read(final ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (this.input.read(buffer) == -1) {
+                break;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,641 @@
+/*
+ * Copyright 2019 Claire Fauch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.code.fauch.hedwig;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Protocol state of a transfer.
+ *
+ * A session never waits: it is driven by the packets received from the transport and by the expiration
+ * of its retransmission timer, either by a thread blocked on the transport or by an event loop.
+ *
+ * Until the transfer is established, the control packet (READ/WRITE request of a client, OACK of a server)
+ * is sent again on timeout.
+ *
+ * @author c.fauch
+ *
+ */
+abstract class Session {
+
+    /**
+     * Default data size
+     */
+    static final int DATA_SIZE = 512;
+
+    /**
+     * Default window size (one ACK per block)
+     */
+    static final int WINDOW_SIZE = 1;
+
+    /**
+     * Default upper bound of the retransmission timeout in milliseconds (no timeout negotiated).
+     */
+    static final int TIMEOUT = 5000;
+
+    /**
+     * Default number of retransmissions of a same packet before giving up.
+     */
+    static final int RETRIES = 5;
+
+    /**
+     * Message of the error answering a packet of another transfer identifier.
+     */
+    static final String UNKNOWN_TID = "Unknown transfer ID";
+
+    /**
+     * The transport used to send packets.
+     */
+    protected final Transport transport;
+
+    /**
+     * The retransmission timer.
+     */
+    protected final RetransmissionTimer timer;
+
+    /**
+     * The view wrapped around each received packet.
+     */
+    protected final PacketView view = new PacketView();
+
+    /**
+     * The buffer in which packets are received.
+     */
+    protected ByteBuffer rcvbuff;
+
+    /**
+     * The remote transfer identifier (null until the first response of a server).
+     */
+    protected InetSocketAddress remote;
+
+    /**
+     * The negotiated block size.
+     */
+    protected int blksize = DATA_SIZE;
+
+    /**
+     * The negotiated window size.
+     */
+    protected int windowsize = WINDOW_SIZE;
+
+    /**
+     * The size acknowledged by the tsize option or UNDEFINED.
+     */
+    protected long tsize = PacketView.UNDEFINED;
+
+    /**
+     * The block number following the block 65535.
+     */
+    protected ERollover rollover = ERollover.ONE;
+
+    /**
+     * True if the session handles the packets of any source, false if the packets of another transfer
+     * identifier are rejected.
+     */
+    protected boolean anySource;
+
+    /**
+     * The name of the transferred file.
+     */
+    protected final String fileName;
+
+    /**
+     * The listener of the events of the transfer (never null).
+     */
+    protected TransferListener listener = TransferListener.NONE;
+
+    /**
+     * The maximum number of retransmissions of a same packet.
+     */
+    private final int retries;
+
+    /**
+     * The ERROR packet answering the packets of another transfer identifier, sent again as is.
+     */
+    private final ByteBuffer rejection;
+
+    /**
+     * The packet to send again until the transfer is established (null once established).
+     */
+    private ByteBuffer control;
+
+    /**
+     * The destination of the control packet.
+     */
+    private InetSocketAddress controlRemote;
+
+    /**
+     * The number of retransmissions of the last packet.
+     */
+    private int attempts;
+
+    /**
+     * The total number of retransmissions.
+     */
+    private int retransmissions;
+
+    /**
+     * The result of the transfer (null until complete).
+     */
+    private TransferResult result;
+
+    /**
+     * The start time of the transfer.
+     */
+    private final long start = System.nanoTime();
+
+    /**
+     * The flight recorder event of the transfer.
+     */
+    private final TransferEvent event = new TransferEvent();
+
+    /**
+     * The digest of the transferred content (null if not computed).
+     */
+    private TransferDigest digest;
+
+    /**
+     * The resource released with the session (may be null).
+     */
+    private Closeable resource;
+
+    /**
+     * The number of transferred bytes.
+     */
+    protected long bytes;
+
+    /**
+     * The number of transferred DATA blocks.
+     */
+    protected long blocks;
+
+    /**
+     * The number of duplicated packets dropped: DATA blocks already received or ACKs already handled.
+     */
+    protected int duplicates;
+
+    /**
+     * The number of DATA blocks received ahead of sequence.
+     */
+    protected int outOfOrder;
+
+    /**
+     * Constructor.
+     *
+     * @param transport the transport used to send packets (not null)
+     * @param fileName the name of the transferred file
+     * @param timeout the upper bound of the retransmission timeout in milliseconds
+     * @param retries the maximum number of retransmissions of a same packet
+     */
+    Session(final Transport transport, final String fileName, final long timeout, final int retries) {
+        this.transport = transport;
+        this.fileName = fileName;
+        this.timer = new RetransmissionTimer(timeout, fileName);
+        this.retries = retries;
+        this.rcvbuff = transport.allocate(DATA_SIZE + 4);
+        this.rejection = PacketView.error(transport.allocate(UNKNOWN_TID.length() + 5), EError.UNKNOWN_TRANSFER_ID,
+                UNKNOWN_TID);
+        this.event.begin();
+    }
+
+    /**
+     * Returns the buffer in which the next packet should be received.
+     *
+     * @return the receive buffer
+     */
+    final ByteBuffer getBuffer() {
+        return this.rcvbuff;
+    }
+
+    /**
+     * Returns the remaining time before the retransmission timer expires.
+     *
+     * @return the remaining time in milliseconds, 0 if expired.
+     */
+    final int remaining() {
+        return this.timer.remaining();
+    }
+
+    /**
+     * Returns the time at which the retransmission timer expires.
+     *
+     * @return the deadline in nanoseconds (see System.nanoTime())
+     */
+    final long deadline() {
+        return this.timer.getDeadline();
+    }
+
+    /**
+     * @return true once the transfer is complete
+     */
+    final boolean isDone() {
+        return this.result != null;
+    }
+
+    /**
+     * @return the result of the transfer (null until complete)
+     */
+    final TransferResult getResult() {
+        return this.result;
+    }
+
+    /**
+     * Sets the listener of the events of the transfer.
+     *
+     * @param listener the listener (not null)
+     */
+    final void listen(final TransferListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Sets the block number following the block 65535 unless negotiated.
+     *
+     * @param rollover the rollover policy (not null)
+     */
+    final void rollover(final ERollover rollover) {
+        this.rollover = rollover;
+    }
+
+    /**
+     * Sets the digest computed with the transferred content.
+     *
+     * @param digest the digest (not null)
+     */
+    final void digest(final TransferDigest digest) {
+        this.digest = digest;
+    }
+
+    /**
+     * Notifies the failure of the transfer.
+     *
+     * @param cause the cause of the failure (not null)
+     */
+    final void failed(final Throwable cause) {
+        if (this.result == null) {
+            this.listener.failed(this.fileName, cause);
+            record(String.valueOf(cause));
+        }
+    }
+
+    /**
+     * Attaches a resource to release with the session.
+     *
+     * @param resource the resource (not null)
+     */
+    final void attach(final Closeable resource) {
+        this.resource = resource;
+    }
+
+    /**
+     * Releases the attached resource if any.
+     *
+     * @throws IOException
+     */
+    final void close() throws IOException {
+        if (this.resource != null) {
+            this.resource.close();
+        }
+    }
+
+    /**
+     * Sends the READ/WRITE request of a client: the transfer starts once the remote host answers it.
+     *
+     * @param request the request (not null)
+     * @throws IOException
+     */
+    final void request(final Request request) throws IOException {
+        final InetSocketAddress destination = new InetSocketAddress(request.getHost(), request.getPort());
+        this.event.operation = request.getOperation().name();
+        control(encode(request), destination);
+        this.listener.requested(request.getFileName(), this.event.operation, destination, request.getOptions());
+    }
+
+    /**
+     * Handles the packet received in the receive buffer from the source of the transport.
+     * Invalid packets are ignored and the packets of another transfer identifier are rejected.
+     *
+     * @throws IOException
+     * @throws TFTPException if the received packet is a TFTP error
+     */
+    final void received() throws IOException, TFTPException {
+        if (this.result != null || !this.view.wrap(this.rcvbuff)) {
+            return;
+        }
+        if (this.remote != null && !this.anySource && !fromRemote()) {
+            reject();
+            return;
+        }
+        if (this.view.getOperation() == EOperation.ERROR) {
+            if (this.remote == null && !refusal(this.view)) { // a late error of a previous transfer on the same port
+                return;
+            }
+            final TFTPException error = TFTPException.from(this.view);
+            ErrorEvent.emit(this.fileName, new InetSocketAddress(this.transport.getAddress(),
+                    this.transport.getPort()), error, true);
+            throw error;
+        }
+        if (this.remote == null) {
+            if (!first(this.view)) { // a late packet of a previous transfer on the same port
+                return;
+            }
+            this.remote = new InetSocketAddress(this.transport.getAddress(), this.transport.getPort());
+        }
+        packet(this.view);
+    }
+
+    /**
+     * Tells if an ERROR packet received before the transfer is established may refuse the request: it must come
+     * from the host of the request, and an UNKNOWN TRANSFER ID error only answers the packets of a previous
+     * transfer, as the request has no transfer identifier yet.
+     *
+     * @param packet the view on the received ERROR packet (not null)
+     * @return true if the error may answer the request
+     */
+    private boolean refusal(final PacketView packet) {
+        return this.controlRemote != null && this.controlRemote.getAddress().equals(this.transport.getAddress())
+                && packet.getError() != EError.UNKNOWN_TRANSFER_ID;
+    }
+
+    /**
+     * Tells if a packet may be the first response of a server: an OACK, the first DATA block or the ACK of the
+     * WRITE request.
+     *
+     * @param packet the view on the received packet (not null)
+     * @return true if the packet may start the transfer
+     */
+    private static boolean first(final PacketView packet) {
+        switch (packet.getOperation()) {
+        case OACK:
+            return true;
+        case DATA:
+            return packet.getBlock() == 1;
+        case ACK:
+            return packet.getBlock() == 0;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Handles the expiration of the retransmission timer: the last packet is sent again.
+     *
+     * @throws IOException
+     * @throws SocketTimeoutException if all retransmissions have been done
+     */
+    final void expired() throws IOException {
+        if (this.attempts >= this.retries) {
+            throw new SocketTimeoutException("No response after " + this.attempts + " retransmissions");
+        }
+        this.timer.expired();
+        this.attempts++;
+        this.retransmissions++;
+        this.listener.retransmitted(this.fileName, this.retransmissions);
+        if (this.control != null) {
+            this.transport.send(this.control.rewind(), this.controlRemote);
+            this.timer.sent();
+        } else {
+            retransmit();
+        }
+    }
+
+    /**
+     * Sends the control packet: it will be sent again on timeout until the transfer is established.
+     *
+     * @param packet the control packet (not null)
+     * @param destination the destination of the packet (not null)
+     * @throws IOException
+     */
+    protected final void control(final ByteBuffer packet, final InetSocketAddress destination) throws IOException {
+        this.control = packet;
+        this.controlRemote = destination;
+        this.transport.send(packet.rewind(), destination);
+        this.timer.sent();
+    }
+
+    /**
+     * Answers a packet coming from another transfer identifier with an UNKNOWN TRANSFER ID error, without
+     * disturbing the transfer (https://tools.ietf.org/html/rfc1350#section-4). An ERROR packet is not answered.
+     * Nothing is allocated: the same ERROR packet is sent back to the source of each stray packet.
+     *
+     * @throws IOException
+     */
+    private void reject() throws IOException {
+        if (this.view.getOperation() == EOperation.ERROR) {
+            return;
+        }
+        ErrorEvent.emit(this.fileName, this.transport.getAddress(), this.transport.getPort(),
+                EError.UNKNOWN_TRANSFER_ID, UNKNOWN_TID);
+        this.transport.reply(this.rejection.rewind());
+    }
+
+    /**
+     * @return true if the last received packet comes from the remote transfer identifier
+     */
+    protected final boolean fromRemote() {
+        return this.remote != null && this.remote.getPort() == this.transport.getPort()
+                && this.remote.getAddress().equals(this.transport.getAddress());
+    }
+
+    /**
+     * @return true once the transfer is established
+     */
+    protected final boolean isEstablished() {
+        return this.control == null;
+    }
+
+    /**
+     * Marks the transfer as established.
+     */
+    protected final void established() {
+        this.control = null;
+        progress();
+    }
+
+    /**
+     * Marks the reception of an expected packet.
+     */
+    protected final void progress() {
+        this.timer.received();
+        this.attempts = 0;
+    }
+
+    /**
+     * Notifies the progress of a download.
+     */
+    protected final void progressed() {
+        if (this.listener != TransferListener.NONE) {
+            this.listener.progress(new TransferProgress(this.fileName, this.bytes, this.tsize,
+                    Duration.ofNanos(System.nanoTime() - this.start)));
+        }
+    }
+
+    /**
+     * Updates the digest if any with the content of a DATA block, sent or received in sequence.
+     *
+     * @param payload the buffer holding the content between its position and its limit (not null)
+     */
+    protected final void update(final ByteBuffer payload) {
+        if (this.digest != null) {
+            this.digest.update(payload);
+        }
+    }
+
+    /**
+     * Marks the transfer as complete.
+     */
+    protected final void finish() {
+        this.result = new TransferResult(this.fileName, this.bytes, this.blocks, this.retransmissions,
+                this.duplicates, this.outOfOrder, Duration.ofNanos(System.nanoTime() - this.start),
+                this.digest == null ? null : this.digest.digest());
+        this.listener.completed(this.result);
+        record(null);
+    }
+
+    /**
+     * Marks the start of a transfer answering a request received by a server.
+     *
+     * @param operation the operation of the request (not null)
+     */
+    protected final void serving(final EOperation operation) {
+        this.event.operation = operation.name();
+        this.event.server = true;
+    }
+
+    /**
+     * Applies the timeout acknowledged by the server and notifies the acknowledged options.
+     *
+     * @param oack the view on the OACK packet (not null)
+     */
+    protected final void configure(final PacketView oack) {
+        final long timeout = oack.getOption(EOption.TIMEOUT);
+        if (timeout != PacketView.UNDEFINED) {
+            this.timer.bound(TimeUnit.SECONDS.toMillis(timeout));
+        }
+        this.tsize = oack.getOption(EOption.TSIZE);
+        final ERollover negotiated = ERollover.of(oack.getOption(EOption.ROLLOVER));
+        if (negotiated != null) {
+            this.rollover = negotiated;
+        }
+        if (this.listener != TransferListener.NONE) {
+            this.listener.negotiated(this.fileName, oack.getOptions());
+        }
+    }
+
+    /**
+     * Commits the flight recorder event of the transfer if enabled.
+     *
+     * @param failure the cause of the failure or null if the transfer is complete
+     */
+    private void record(final String failure) {
+        this.event.end();
+        if (!this.event.shouldCommit()) {
+            return;
+        }
+        this.event.fileName = this.fileName;
+        if (this.remote != null) {
+            this.event.remoteHost = this.remote.getHostString();
+            this.event.remotePort = this.remote.getPort();
+        }
+        this.event.blksize = this.blksize;
+        this.event.windowsize = this.windowsize;
+        this.event.tsize = this.tsize;
+        this.event.bytes = this.bytes;
+        this.event.blocks = this.blocks;
+        this.event.retransmissions = this.retransmissions;
+        this.event.duplicates = this.duplicates;
+        this.event.outOfOrder = this.outOfOrder;
+        this.event.failure = failure;
+        this.event.commit();
+    }
+
+    /**
+     * Encodes a READ/WRITE request in a buffer of the transport.
+     *
+     * @param request the request (not null)
+     * @return the encoded request
+     * @throws IOException
+     */
+    protected final ByteBuffer encode(final Request request) throws IOException {
+        final byte[] content = request.encode();
+        return this.transport.allocate(content.length).put(content).flip();
+    }
+
+    /**
+     * Returns the negotiated value of an option.
+     *
+     * @param oack the view on the OACK packet (not null)
+     * @param option the option (not null)
+     * @param def the default value if the option was not acknowledged
+     * @return the value to use
+     */
+    protected static int option(final PacketView oack, final EOption option, final int def) {
+        final long value = oack.getOption(option);
+        return value == PacketView.UNDEFINED ? def : (int) value;
+    }
+
+    /**
+     * Returns the block number following the given one according to the rollover policy.
+     *
+     * @param block the block number
+     * @return the next block number or -1 if the block 65535 cannot be followed
+     */
+    protected final int next(final int block) {
+        return block >= 65535 ? this.rollover.getFirst() : (block + 1);
+    }
+
+    /**
+     * Checks that a file of the announced size can be transferred with the negotiated block size.
+     *
+     * @throws TFTPException if the file needs more than 65535 blocks without rollover
+     */
+    protected final void checkSize() throws TFTPException {
+        if (this.tsize > this.rollover.getMaxSize(this.blksize)) {
+            final TFTPException error = new TFTPException(EError.OPTION_NEGOTIATION_FAILED,
+                    "File too large for block size " + this.blksize);
+            try {
+                this.transport.send(PacketView.error(this.transport.allocate(64), error.getError(),
+                        error.getMessage()), this.remote);
+            } catch (IOException e) {
+                // the remote host will time out
+            }
+            ErrorEvent.emit(this.fileName, this.remote, error, false);
+            throw error;
+        }
+    }
+
+    /**
+     * Handles a valid packet coming from the remote host.
+     *
+     * @param packet the view on the packet (not null)
+     * @throws IOException
+     * @throws TFTPException if the transfer is refused
+     */
+    protected abstract void packet(PacketView packet) throws IOException, TFTPException;
+
+    /**
+     * Sends the last packet again once the transfer is established.
+     *
+     * @throws IOException
+     */
+    protected abstract void retransmit() throws IOException;
+
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2019 Claire Fauch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.code.fauch.hedwig;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+
+/**
+ * Transport over a datagram socket.
+ *
+ * Buffers are heap buffers: the datagram packets are set on their backing arrays. The timeout of the
+ * socket is restored when the transport is closed.
+ *
+ * @author c.fauch
+ *
+ */
+final class SocketTransport implements Transport {
+
+    /**
+     * The socket.
+     */
+    private final DatagramSocket socket;
+
+    /**
+     * The timeout of the socket when the transport was open.
+     */
+    private final int soTimeout;
+
+    /**
+     * The datagram packet used to send.
+     */
+    private final DatagramPacket sndpacket = new DatagramPacket(new byte[0], 0);
+
+    /**
+     * The datagram packet used to receive.
+     */
+    private final DatagramPacket rcvpacket = new DatagramPacket(new byte[0], 0);
+
+    /**
+     * Constructor.
+     *
+     * @param socket the socket to use (not null)
+     * @throws SocketException
+     */
+    SocketTransport(final DatagramSocket socket) throws SocketException {
+        this.socket = socket;
+        this.soTimeout = socket.getSoTimeout();
+    }
+
+    @Override
+    public ByteBuffer allocate(final int capacity) {
+        return ByteBuffer.allocate(capacity);
+    }
+
+    @Override
+    public int getTimeout() {
+        return this.soTimeout;
+    }
+
+    @Override
+    public void send(final ByteBuffer packet, final InetSocketAddress remote) throws IOException {
+        this.sndpacket.setData(packet.array(), packet.arrayOffset() + packet.position(), packet.remaining());
+        this.sndpacket.setSocketAddress(remote);
+        this.socket.send(this.sndpacket);
+        packet.position(packet.limit());
+    }
+
+    @Override
+    public void reply(final ByteBuffer packet) throws IOException {
+        this.sndpacket.setData(packet.array(), packet.arrayOffset() + packet.position(), packet.remaining());
+        this.sndpacket.setAddress(this.rcvpacket.getAddress());
+        this.sndpacket.setPort(this.rcvpacket.getPort());
+        this.socket.send(this.sndpacket);
+        packet.position(packet.limit());
+    }
+
+    @Override
+    public boolean receive(final ByteBuffer packet, final int timeout) throws IOException {
+        packet.clear();
+        this.rcvpacket.setData(packet.array(), packet.arrayOffset(), packet.capacity());
+        this.socket.setSoTimeout(timeout);
+        try {
+            this.socket.receive(this.rcvpacket);
+        } catch (SocketTimeoutException e) {
+            return false;
+        }
+        packet.limit(this.rcvpacket.getLength());
+        return true;
+    }
+
+    @Override
+    public InetAddress getAddress() {
+        return this.rcvpacket.getAddress();
+    }
+
+    @Override
+    public int getPort() {
+        return this.rcvpacket.getPort();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.socket.setSoTimeout(this.soTimeout);
+    }
+
+}
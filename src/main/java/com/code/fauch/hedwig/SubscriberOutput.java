@@ -0,0 +1,168 @@
+/*
+ * Copyright 2019 Claire Fauch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.code.fauch.hedwig;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Channel emitting the written bytes to a subscriber, as its subscription.
+ *
+ * Each write is emitted as a new buffer once the subscriber requested it: the writing thread waits for the
+ * demand, so that the received blocks are acknowledged only as the subscriber consumes them. The written
+ * bytes are copied, so that the subscriber may keep the emitted buffers. The subscriber is signalled by the
+ * writing thread only, and never once the subscription is cancelled. A lock is used instead of a monitor,
+ * so that a virtual thread waiting for the demand does not hold its carrier thread.
+ *
+ * @author c.fauch
+ *
+ */
+final class SubscriberOutput implements WritableByteChannel, Flow.Subscription {
+
+    /**
+     * The subscriber.
+     */
+    private final Flow.Subscriber<? super ByteBuffer> subscriber;
+
+    /**
+     * Called once when the subscription is cancelled.
+     */
+    private final Runnable onCancel;
+
+    /**
+     * Guards the demand.
+     */
+    private final Lock lock = new ReentrantLock();
+
+    /**
+     * Signalled when the demand is raised or the subscription is cancelled.
+     */
+    private final Condition requested = this.lock.newCondition();
+
+    /**
+     * The number of buffers requested and not emitted yet.
+     */
+    private long demand;
+
+    /**
+     * The invalid request of the subscriber (null if none).
+     */
+    private volatile IllegalArgumentException invalid;
+
+    /**
+     * True once the subscription is cancelled.
+     */
+    private volatile boolean cancelled;
+
+    /**
+     * Constructor.
+     *
+     * @param subscriber the subscriber (not null)
+     * @param onCancel called once when the subscription is cancelled (not null)
+     */
+    SubscriberOutput(final Flow.Subscriber<? super ByteBuffer> subscriber, final Runnable onCancel) {
+        this.subscriber = subscriber;
+        this.onCancel = onCancel;
+    }
+
+    @Override
+    public void request(final long n) {
+        this.lock.lock();
+        try {
+            if (n <= 0) {
+                this.invalid = new IllegalArgumentException("Invalid demand: " + n);
+            } else {
+                this.demand = this.demand + n < 0 ? Long.MAX_VALUE : this.demand + n;
+            }
+            this.requested.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public void cancel() {
+        this.lock.lock();
+        try {
+            if (this.cancelled) {
+                return;
+            }
+            this.cancelled = true;
+            this.requested.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+        this.onCancel.run();
+    }
+
+    @Override
+    public int write(final ByteBuffer src) throws IOException {
+        this.lock.lock();
+        try {
+            while (this.demand == 0 && !this.cancelled && this.invalid == null) {
+                this.requested.await();
+            }
+            if (this.cancelled) {
+                throw new IOException("Subscription cancelled");
+            }
+            if (this.invalid != null) {
+                throw new IOException(this.invalid);
+            }
+            this.demand--;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the demand");
+        } finally {
+            this.lock.unlock();
+        }
+        final int written = src.remaining();
+        this.subscriber.onNext(ByteBuffer.allocate(written).put(src).flip());
+        return written;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !this.cancelled;
+    }
+
+    @Override
+    public void close() {
+        // nothing to release
+    }
+
+    /**
+     * Signals the end of the transfer to the subscriber unless the subscription is cancelled.
+     *
+     * @param error the failure of the transfer (null if complete)
+     */
+    void complete(final Throwable error) {
+        if (this.cancelled || error instanceof CancellationException) {
+            return;
+        }
+        if (error == null) {
+            this.subscriber.onComplete();
+        } else {
+            this.subscriber.onError(this.invalid != null ? this.invalid : error);
+        }
+    }
+
+}
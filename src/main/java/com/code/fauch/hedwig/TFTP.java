@@ -18,165 +18,544 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
-import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
-import java.util.Arrays;
+import java.net.NetworkInterface;
+import java.net.SocketTimeoutException;
+import java.nio.channels.Channels;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
 
 /**
  * TFTP client class.
  * 
+ * Transfers are done either over a datagram socket or over a datagram channel. Over a channel, packets are 
+ * encoded and decoded in place in direct buffers reused from one block to the next one.
+ * 
  * @author c.fauch
  *
  */
 public final class TFTP {
 
     /**
-     * Maximum data size
+     * The rate limit shared by the transfers of all the TFTP clients.
      */
-    private static final int DATA_SIZE = 512;
+    private static final TokenBucket GLOBAL = new TokenBucket(0);
 
     /**
-     * The currently open socket on which transfer should be done.
+     * The currently open socket on which transfer should be done (null if a channel is used).
      */
     private final DatagramSocket socket;
     
+    /**
+     * The currently open channel on which transfer should be done (null if a socket is used).
+     */
+    private final DatagramChannel channel;
+    
+    /**
+     * The transport kept open from one transfer to the next one (null if a transport is open per transfer).
+     */
+    private final PooledTransport pooled;
+    
+    /**
+     * The maximum number of retransmissions of a same packet before giving up.
+     */
+    private int retries = Session.RETRIES;
+    
+    /**
+     * The listener of the events of the transfers.
+     */
+    private TransferListener listener = TransferListener.NONE;
+    
+    /**
+     * The block number following the block 65535 unless negotiated.
+     */
+    private ERollover rollover = ERollover.ONE;
+    
+    /**
+     * The network interface on which the multicast groups are joined (null if multicast gets are disabled).
+     */
+    private NetworkInterface multicast;
+    
+    /**
+     * The algorithm of the digest of the transferred content (null if not computed).
+     */
+    private String digest;
+    
+    /**
+     * The number of blocks of an input stream read ahead by the puts (0 if read inline).
+     */
+    private int readAhead;
+    
+    /**
+     * The number of blocks written behind into the output stream by the gets (0 if written inline).
+     */
+    private int writeBehind;
+    
+    /**
+     * The rate limit of each transfer in bytes per second (0 if unlimited).
+     */
+    private long rate;
+    
     /**
      * Constructor.
      * 
      * @param socket the socket to use (not null).
      */
     public TFTP(final DatagramSocket socket) {
-        this.socket = socket;
+        this.socket = Objects.requireNonNull(socket, "missing socket");
+        this.channel = null;
+        this.pooled = null;
+    }
+    
+    /**
+     * Constructor.
+     * 
+     * The channel is switched to non-blocking mode for the time of each transfer.
+     * 
+     * @param channel the channel to use (not null).
+     */
+    public TFTP(final DatagramChannel channel) {
+        this.socket = null;
+        this.channel = Objects.requireNonNull(channel, "missing channel");
+        this.pooled = null;
+    }
+    
+    /**
+     * Constructor of a pooled client: the transfers reuse the transport and its buffers.
+     * 
+     * @param channel the channel to use (not null)
+     * @param pooled the transport over the channel kept open (not null)
+     */
+    TFTP(final DatagramChannel channel, final PooledTransport pooled) {
+        this.socket = null;
+        this.channel = channel;
+        this.pooled = pooled;
+    }
+    
+    /**
+     * Sets the maximum number of retransmissions of a same packet before giving up the transfer.
+     * 
+     * @param retries the maximum number of retransmissions (0 to never retransmit)
+     * @return this TFTP client
+     */
+    public TFTP retries(final int retries) {
+        if (retries < 0) {
+            throw new IllegalArgumentException("Invalid number of retries: " + retries);
+        }
+        this.retries = retries;
+        return this;
+    }
+    
+    /**
+     * Sets the listener of the events of the transfers.
+     * 
+     * @param listener the listener (not null)
+     * @return this TFTP client
+     */
+    public TFTP listener(final TransferListener listener) {
+        this.listener = Objects.requireNonNull(listener, "missing listener");
+        return this;
+    }
+    
+    /**
+     * Sets the block number following the block 65535 when the rollover option is not acknowledged (1 by 
+     * default). Without rollover, the block size of a put by path is raised if needed to send the whole file.
+     * 
+     * @param rollover the rollover policy (not null)
+     * @return this TFTP client
+     */
+    public TFTP rollover(final ERollover rollover) {
+        this.rollover = Objects.requireNonNull(rollover, "missing rollover");
+        return this;
+    }
+    
+    /**
+     * Sets the algorithm of the digest computed with the content of the transfers while it is sent or
+     * received, and given with their result: "CRC32C" or the name of a message digest algorithm ("SHA-256"...).
+     * The digest of a netascii transfer is computed with the netascii content. No digest is computed for a 
+     * multicast get.
+     * 
+     * @param algorithm the algorithm (null to compute no digest)
+     * @return this TFTP client
+     * @throws IllegalArgumentException if the algorithm is not available
+     */
+    public TFTP digest(final String algorithm) {
+        if (algorithm != null) {
+            TransferDigest.of(algorithm);
+        }
+        this.digest = algorithm;
+        return this;
+    }
+    
+    /**
+     * Sets the number of blocks read ahead from the input stream of a put: the stream is read on a dedicated 
+     * thread while the previous blocks are in flight, so that a slow stream does not stall the transfer.
+     * 
+     * @param blocks the number of blocks read ahead (0 to read each block when it is sent)
+     * @return this TFTP client
+     */
+    public TFTP readAhead(final int blocks) {
+        if (blocks < 0) {
+            throw new IllegalArgumentException("Invalid number of blocks: " + blocks);
+        }
+        this.readAhead = blocks;
+        return this;
+    }
+    
+    /**
+     * Sets the number of blocks written behind into the output stream of a get: the blocks are acknowledged 
+     * once copied into a ring of buffers drained on a dedicated thread, so that a slow stream does not hold 
+     * back the acknowledgments. The transfer waits for a free buffer when the ring is full. A failure of the 
+     * stream fails the transfer at the next block, or at the latest once the last block is received.
+     * 
+     * @param blocks the number of blocks written behind (0 to write each block before acknowledging it)
+     * @return this TFTP client
+     */
+    public TFTP writeBehind(final int blocks) {
+        if (blocks < 0) {
+            throw new IllegalArgumentException("Invalid number of blocks: " + blocks);
+        }
+        this.writeBehind = blocks;
+        return this;
+    }
+    
+    /**
+     * Sets the rate limit of each transfer: the packets are spaced so that the bytes sent and received by a 
+     * transfer do not exceed the given rate. On put the DATA blocks are paced, on get the ACKs are delayed so 
+     * that the server is held back.
+     * 
+     * @param bytesPerSecond the rate limit in bytes per second (0 for no limit)
+     * @return this TFTP client
+     */
+    public TFTP rate(final long bytesPerSecond) {
+        if (bytesPerSecond < 0) {
+            throw new IllegalArgumentException("Invalid rate: " + bytesPerSecond);
+        }
+        this.rate = bytesPerSecond;
+        return this;
+    }
+    
+    /**
+     * Sets the rate limit shared by the transfers of all the TFTP clients of the JVM, on top of the rate limit 
+     * of each transfer. The running transfers are paced at once with the new rate.
+     * 
+     * @param bytesPerSecond the rate limit in bytes per second (0 for no limit)
+     */
+    public static void globalRate(final long bytesPerSecond) {
+        if (bytesPerSecond < 0) {
+            throw new IllegalArgumentException("Invalid rate: " + bytesPerSecond);
+        }
+        GLOBAL.setRate(bytesPerSecond);
+    }
+    
+    /**
+     * Enables the multicast option for the gets by path (https://tools.ietf.org/html/rfc2090): the server sends the
+     * blocks to a multicast group shared by all the clients reading the same file. The group is joined on the 
+     * given network interface. The transfer is an ordinary transfer if the server does not acknowledge the option.
+     * 
+     * @param nif the network interface on which the multicast groups are joined (not null)
+     * @return this TFTP client
+     * @throws IllegalStateException if the client does not use a datagram channel
+     */
+    public TFTP multicast(final NetworkInterface nif) {
+        if (this.channel == null) {
+            throw new IllegalStateException("Multicast transfers need a datagram channel");
+        }
+        this.multicast = Objects.requireNonNull(nif, "missing network interface");
+        return this;
     }
     
     /**
      * Put a file.
      * 
+     * The negotiated timeout (or else the timeout of the socket) is the upper bound of the retransmission 
+     * timeout, which is adapted to the round trip time of the transfer.
+     * 
      * @param host the destination host
      * @param port the destination port
      * @param input the input stream open on the file to send 
      * @param fileName the name of the resulting remote file
      * @param mode the send mode: "octet", "netascii", "mail"
-     * @param options options: "blksize", "timeout", "tsize"
+     * @param options options: "blksize", "timeout", "tsize", "windowsize"
+     * @return the result of the transfer
      * @throws UnsupportedEncodingException
      * @throws IOException
+     * @throws SocketTimeoutException if the remote host did not respond after all retransmissions
      * @throws TFTPException
      */
-    public void put(final InetAddress host, final int port, final InputStream input, final String fileName, 
+    public TransferResult put(final InetAddress host, final int port, final InputStream input, final String fileName, 
             final String mode, final Option... options) throws UnsupportedEncodingException, IOException, TFTPException {
-        final DatagramPacket rcvpacket = new DatagramPacket(new byte[DATA_SIZE + 4], DATA_SIZE + 4);
-        send(Request.write(fileName, mode, host, port, options));
-        Response resp = rcv(rcvpacket);
-        final InetAddress host2Use = resp.getHost();
-        final int port2Use = resp.getPort();
-        final Option blksize = resp.getBlksize();
-        final byte[] writeBuff = new byte[blksize == null ? DATA_SIZE : (int)blksize.getValue()];
-        boolean goOn = true;
-        int block = resp.getBlock(); // 1 to 65535 except for first ACK of WRITE request or OACK
-        while (goOn) {
-            if (block == resp.getBlock()) { // Ack the current block
-                if (goOn) { //Sending next data block
-                    block = block >= 65535 ? 1 : (block + 1);
-                    final int bytesRead = read(input, writeBuff);
-                    if (bytesRead < writeBuff.length) {
-                        goOn = false;
-                    }
-                    send(Response.data(block, Arrays.copyOf(writeBuff, bytesRead), host2Use, port2Use));
-                }
+        if (this.readAhead > 0) {
+            try (ReadAheadInput ahead = new ReadAheadInput(Channels.newChannel(input), this.readAhead, 
+                    blksize(options))) {
+                return put(host, port, ahead, fileName, mode, options);
             }
-            //Waiting for response
-            resp = rcv(rcvpacket);
         }
+        return put(host, port, Channels.newChannel(input), fileName, mode, options);
     }
     
     /**
      * Get a file.
      * 
+     * The negotiated timeout (or else the timeout of the socket) is the upper bound of the retransmission 
+     * timeout, which is adapted to the round trip time of the transfer.
+     * 
+     * The tsize option is requested if missing, so that the size of the file is known from the OACK of the 
+     * server and reported with the progress of the transfer.
+     * 
      * @param host host the destination host
      * @param port the destination port
      * @param output the output stream open on the local file to write
      * @param fileName the name of the remote file to download
      * @param mode the send mode: "octet", "netascii", "mail"
-     * @param options options: "blksize", "timeout", "tsize"
+     * @param options options: "blksize", "timeout", "tsize", "windowsize"
+     * @return the result of the transfer
      * @throws UnsupportedEncodingException
      * @throws IOException
+     * @throws SocketTimeoutException if the remote host did not respond after all retransmissions
      * @throws TFTPException
      */
-    public void get(final InetAddress host, final int port, final OutputStream output, final String fileName, 
+    public TransferResult get(final InetAddress host, final int port, final OutputStream output, final String fileName, 
             final String mode, final Option... options) throws UnsupportedEncodingException, IOException, TFTPException {
-        DatagramPacket rcvpacket = new DatagramPacket(new byte[DATA_SIZE + 4], DATA_SIZE + 4);
-        send(Request.read(fileName, mode, host, port, options));
-        Response resp = rcv(rcvpacket);
-        final InetAddress host2Use = resp.getHost();
-        final int port2Use = resp.getPort();
-        final Option blksize = resp.getBlksize();
-        final int realBlksize = (blksize == null ? DATA_SIZE : (int)blksize.getValue()); 
-        rcvpacket = new DatagramPacket(new byte[realBlksize + 4], realBlksize + 4);
-        boolean goOn = true;
-        int block = resp.getBlock(); // 1 to 65535 except for OACK
-        while (goOn) {
-            if (block == resp.getBlock()) { // Ack the current block
-                if (resp.getOperation() == EOperation.DATA) {
-                    output.write(resp.getData());
-                    if (resp.getData().length < realBlksize) {
-                        goOn = false;
-                    }
-                }
-                send(Response.ack(block, host2Use, port2Use));
-                block = block >= 65535 ? 1 : (block + 1);
+        if (this.writeBehind > 0) {
+            try (WriteBehindOutput behind = new WriteBehindOutput(Channels.newChannel(output), this.writeBehind, 
+                    blksize(options))) {
+                return get(host, port, behind, null, fileName, mode, options);
             }
-            if (goOn) {
-                resp = rcv(rcvpacket); //Waiting for response
+        }
+        return get(host, port, Channels.newChannel(output), null, fileName, mode, options);
+    }
+    
+    /**
+     * Put a file.
+     * 
+     * The blocks are copied straight from a memory mapping of the file into the DATA packets.
+     * 
+     * @param host the destination host
+     * @param port the destination port
+     * @param file the path of the file to send 
+     * @param fileName the name of the resulting remote file
+     * @param mode the send mode: "octet", "netascii", "mail"
+     * @param options options: "blksize", "timeout", "tsize", "windowsize"
+     * @return the result of the transfer
+     * @throws UnsupportedEncodingException
+     * @throws IOException
+     * @throws SocketTimeoutException if the remote host did not respond after all retransmissions
+     * @throws TFTPException
+     */
+    public TransferResult put(final InetAddress host, final int port, final Path file, final String fileName, 
+            final String mode, final Option... options) throws UnsupportedEncodingException, IOException, TFTPException {
+        try (FileChannel input = FileChannel.open(file, StandardOpenOption.READ)) {
+            // each byte may be sent as two bytes in netascii
+            final long size = NetasciiInput.isNetascii(mode) ? 2 * input.size() : input.size();
+            return put(host, port, new MappedInput(input), fileName, mode, 
+                    Sender.fitted(options, size, this.rollover));
+        }
+    }
+    
+    /**
+     * Get a file.
+     * 
+     * The file is created or truncated, then each received block is written at its position in the file. The 
+     * file is extended at once to the size announced by the server, and the transfer fails with a DISK FULL 
+     * error if the file store cannot hold it.
+     * 
+     * If multicast is enabled and the mode is not netascii, the blocks are received in any order from the 
+     * multicast group and the missing blocks are requested once the client is the master client.
+     * 
+     * @param host host the destination host
+     * @param port the destination port
+     * @param file the path of the local file to write
+     * @param fileName the name of the remote file to download
+     * @param mode the send mode: "octet", "netascii", "mail"
+     * @param options options: "blksize", "timeout", "tsize", "windowsize"
+     * @return the result of the transfer
+     * @throws UnsupportedEncodingException
+     * @throws IOException
+     * @throws SocketTimeoutException if the remote host did not respond after all retransmissions
+     * @throws TFTPException
+     */
+    public TransferResult get(final InetAddress host, final int port, final Path file, final String fileName, 
+            final String mode, final Option... options) throws UnsupportedEncodingException, IOException, TFTPException {
+        try (FileChannel output = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.CREATE, 
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            if (this.multicast != null && !NetasciiInput.isNetascii(mode)) {
+                return multicast(host, port, output, fileName, mode, options);
             }
+            return get(host, port, output, Files.getFileStore(file), fileName, mode, options);
         }
     }
     
     /**
-     * Send a TFTP packet though the socket.
+     * Put a file read from a channel.
      * 
-     * @param packet the TFTP packet to send (not null)
+     * @param host the destination host
+     * @param port the destination port
+     * @param input the channel open on the file to send 
+     * @param fileName the name of the resulting remote file
+     * @param mode the send mode: "octet", "netascii", "mail"
+     * @param options options: "blksize", "timeout", "tsize", "windowsize"
+     * @return the result of the transfer
      * @throws UnsupportedEncodingException
      * @throws IOException
+     * @throws SocketTimeoutException if the remote host did not respond after all retransmissions
+     * @throws TFTPException
      */
-    private void send(final AbsPacket packet) throws UnsupportedEncodingException, IOException {
-        this.socket.send(packet.build());
+    TransferResult put(final InetAddress host, final int port, final ReadableByteChannel input, 
+            final String fileName, final String mode, final Option... options) 
+                    throws UnsupportedEncodingException, IOException, TFTPException {
+        try (Transport transport = open()) {
+            final Sender sender = new Sender(transport, fileName, timeout(transport), this.retries, 
+                    NetasciiInput.isNetascii(mode) ? new NetasciiInput(input) : input);
+            sender.listen(this.listener);
+            sender.rollover(this.rollover);
+            if (this.digest != null) {
+                sender.digest(TransferDigest.of(this.digest));
+            }
+            return run(transport, sender, Request.write(fileName, mode, host, port, options));
+        }
     }
     
     /**
-     * Read a TFTP response from the socket.
+     * Get a file written into a channel.
      * 
-     * @param packet the datagram packet to use (not null)
-     * @return the corresponding TFTP response
+     * @param host host the destination host
+     * @param port the destination port
+     * @param output the channel open on the local file to write
+     * @param store the file store of the local file (null if unknown)
+     * @param fileName the name of the remote file to download
+     * @param mode the send mode: "octet", "netascii", "mail"
+     * @param options options: "blksize", "timeout", "tsize", "windowsize"
+     * @return the result of the transfer
+     * @throws UnsupportedEncodingException
      * @throws IOException
+     * @throws SocketTimeoutException if the remote host did not respond after all retransmissions
      * @throws TFTPException
      */
-    private Response rcv(final DatagramPacket packet) throws IOException, TFTPException {
-        this.socket.receive(packet);
-        return Response.from(packet);
+    TransferResult get(final InetAddress host, final int port, final WritableByteChannel output, 
+            final FileStore store, final String fileName, final String mode, final Option... options) 
+                    throws UnsupportedEncodingException, IOException, TFTPException {
+        try (Transport transport = open()) {
+            final Receiver receiver = new Receiver(transport, fileName, timeout(transport), this.retries, 
+                    NetasciiInput.isNetascii(mode) ? new NetasciiOutput(output) : output);
+            receiver.listen(this.listener);
+            receiver.rollover(this.rollover);
+            if (this.digest != null) {
+                receiver.digest(TransferDigest.of(this.digest));
+            }
+            if (store != null) {
+                receiver.storage(store);
+            }
+            return run(transport, receiver, Request.read(fileName, mode, host, port, Receiver.sized(options)));
+        }
     }
     
     /**
-     * Fill given buffer with data read from input stream.
+     * Get a file through a multicast group.
      * 
-     * @param input the input stream to read (not null)
-     * @param buffer the buffer to fill
-     * @return the total number of bytes read, should be buffer size unless the
-     * end of stream is reached.
+     * @param host host the destination host
+     * @param port the destination port
+     * @param output the local file to write
+     * @param fileName the name of the remote file to download
+     * @param mode the send mode: "octet", "netascii", "mail"
+     * @param options options: "blksize", "timeout", "tsize", "windowsize"
+     * @return the result of the transfer
+     * @throws UnsupportedEncodingException
      * @throws IOException
+     * @throws SocketTimeoutException if the remote host did not respond after all retransmissions
+     * @throws TFTPException
      */
-    private static int read(final InputStream input, byte[] buffer) throws IOException {
-        int offset = 0;
-        int remaining = buffer.length;
-        while (remaining > 0) {
-            final int bytesRead = input.read(buffer, offset, remaining);
-            if (bytesRead == -1) {
-                break;
+    private TransferResult multicast(final InetAddress host, final int port, final FileChannel output, 
+            final String fileName, final String mode, final Option... options) 
+                    throws UnsupportedEncodingException, IOException, TFTPException {
+        try (MulticastTransport transport = new MulticastTransport(this.channel, this.multicast)) {
+            final MulticastReceiver receiver = new MulticastReceiver(transport, fileName, timeout(transport), 
+                    this.retries, output);
+            receiver.listen(this.listener);
+            return run(transport, receiver, Request.read(fileName, mode, host, port, 
+                    MulticastReceiver.requested(Receiver.sized(options))));
+        }
+    }
+    
+    /**
+     * Open the transport for a transfer.
+     * 
+     * @return the transport over the socket or the channel, or the pooled transport, always paced with the global
+     * rate limit so that it applies once set during the transfer
+     * @throws IOException
+     */
+    private Transport open() throws IOException {
+        final Transport transport;
+        if (this.pooled != null) {
+            transport = this.pooled;
+        } else {
+            transport = this.channel == null ? new SocketTransport(this.socket) : new ChannelTransport(this.channel);
+        }
+        return new PacedTransport(transport, this.rate == 0 ? null : new TokenBucket(this.rate), GLOBAL);
+    }
+    
+    /**
+     * Returns the requested block size.
+     * 
+     * @param options the options of the request (not null)
+     * @return the value of the blksize option or else the default block size
+     */
+    private static int blksize(final Option[] options) {
+        for (Option option : options) {
+            if (EOption.lookup(option.getLabel()) == EOption.BLKSIZE) {
+                return (int) option.getValue();
+            }
+        }
+        return Session.DATA_SIZE;
+    }
+    
+    /**
+     * Returns the upper bound of the retransmission timeout when no timeout is negotiated.
+     * 
+     * @param transport the transport of the transfer (not null)
+     * @return the timeout of the socket if any or else the default timeout in milliseconds
+     */
+    private static int timeout(final Transport transport) {
+        return transport.getTimeout() > 0 ? transport.getTimeout() : Session.TIMEOUT;
+    }
+    
+    /**
+     * Sends the request then drives the session until the transfer is complete: packets are received until 
+     * the retransmission timer expires.
+     * 
+     * @param transport the transport of the transfer (not null)
+     * @param session the session (not null)
+     * @param request the READ/WRITE request (not null)
+     * @return the result of the transfer
+     * @throws IOException
+     * @throws SocketTimeoutException if the remote host did not respond after all retransmissions
+     * @throws TFTPException
+     */
+    private static TransferResult run(final Transport transport, final Session session, final Request request) 
+            throws IOException, TFTPException {
+        try {
+            session.request(request);
+            while (!session.isDone()) {
+                final int timeout = session.remaining();
+                if (timeout > 0 && transport.receive(session.getBuffer(), timeout)) {
+                    session.received();
+                } else if (session.remaining() == 0) {
+                    session.expired();
+                }
             }
-            offset += bytesRead;
-            remaining -= bytesRead;
+            return session.getResult();
+        } catch (IOException | TFTPException | RuntimeException e) {
+            session.failed(e);
+            throw e;
         }
-        return offset;
     }
     
 }
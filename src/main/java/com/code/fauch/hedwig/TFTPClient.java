@@ -0,0 +1,311 @@
+/*
+ * Copyright 2019 Claire Fauch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.code.fauch.hedwig;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Asynchronous TFTP client.
+ *
+ * Many concurrent transfers are multiplexed on a small number of selector threads: each transfer uses its own
+ * datagram channel and is driven by one of the threads of the client, so that no thread is blocked waiting
+ * for a packet. At most a given number of transfers run at the same time, the next ones wait for a free slot.
+ *
+ * A transfer is cancelled by cancelling its future: the remote host is then notified by an ERROR packet.
+ *
+ * The input and output streams are read and written by the selector threads.
+ *
+ * @author c.fauch
+ *
+ */
+public final class TFTPClient implements Closeable {
+
+    /**
+     * The selector threads.
+     */
+    private final EventLoop[] loops;
+
+    /**
+     * The maximum number of transfers running at the same time.
+     */
+    private final int maxTransfers;
+
+    /**
+     * The transfers waiting for a free slot.
+     */
+    private final Queue<Transfer> pending = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The number of running transfers.
+     */
+    private final AtomicInteger active = new AtomicInteger();
+
+    /**
+     * The number of transfers already dispatched (used to choose the selector thread).
+     */
+    private final AtomicInteger dispatched = new AtomicInteger();
+
+    /**
+     * The maximum number of retransmissions of a same packet before giving up.
+     */
+    private volatile int retries = Session.RETRIES;
+
+    /**
+     * The listener of the events of the transfers.
+     */
+    private volatile TransferListener listener = TransferListener.NONE;
+
+    /**
+     * The block number following the block 65535 unless negotiated.
+     */
+    private volatile ERollover rollover = ERollover.ONE;
+
+    /**
+     * The algorithm of the digest of the transferred content (null if not computed).
+     */
+    private volatile String digest;
+
+    /**
+     * True once the client is closed.
+     */
+    private volatile boolean closed;
+
+    /**
+     * Constructor.
+     *
+     * @param threads the number of selector threads (strictly positive)
+     * @param maxTransfers the maximum number of transfers running at the same time (strictly positive)
+     * @throws IOException
+     */
+    public TFTPClient(final int threads, final int maxTransfers) throws IOException {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Invalid number of threads: " + threads);
+        }
+        if (maxTransfers <= 0) {
+            throw new IllegalArgumentException("Invalid number of transfers: " + maxTransfers);
+        }
+        this.maxTransfers = maxTransfers;
+        this.loops = new EventLoop[threads];
+        try {
+            for (int i = 0; i < threads; i++) {
+                this.loops[i] = new EventLoop("hedwig-loop-" + i);
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Sets the maximum number of retransmissions of a same packet before giving up a transfer.
+     *
+     * @param retries the maximum number of retransmissions (0 to never retransmit)
+     * @return this TFTP client
+     */
+    public TFTPClient retries(final int retries) {
+        if (retries < 0) {
+            throw new IllegalArgumentException("Invalid number of retries: " + retries);
+        }
+        this.retries = retries;
+        return this;
+    }
+
+    /**
+     * Sets the listener of the events of the next transfers: it is notified by the selector threads.
+     *
+     * @param listener the listener (not null)
+     * @return this TFTP client
+     */
+    public TFTPClient listener(final TransferListener listener) {
+        this.listener = Objects.requireNonNull(listener, "missing listener");
+        return this;
+    }
+
+    /**
+     * Sets the block number following the block 65535 when the rollover option is not acknowledged (1 by
+     * default).
+     *
+     * @param rollover the rollover policy (not null)
+     * @return this TFTP client
+     */
+    public TFTPClient rollover(final ERollover rollover) {
+        this.rollover = Objects.requireNonNull(rollover, "missing rollover");
+        return this;
+    }
+
+    /**
+     * Sets the algorithm of the digest computed with the content of the next transfers while it is sent or
+     * received, and given with their result: "CRC32C" or the name of a message digest algorithm ("SHA-256"...).
+     * The digest of a netascii transfer is computed with the netascii content.
+     *
+     * @param algorithm the algorithm (null to compute no digest)
+     * @return this TFTP client
+     * @throws IllegalArgumentException if the algorithm is not available
+     */
+    public TFTPClient digest(final String algorithm) {
+        if (algorithm != null) {
+            TransferDigest.of(algorithm);
+        }
+        this.digest = algorithm;
+        return this;
+    }
+
+    /**
+     * Put a file asynchronously.
+     *
+     * The upper bound of the retransmission timeout is the negotiated timeout (5 seconds by default).
+     *
+     * @param host the destination host
+     * @param port the destination port
+     * @param input the input stream open on the file to send
+     * @param fileName the name of the resulting remote file
+     * @param mode the send mode: "octet", "netascii", "mail"
+     * @param options options: "blksize", "timeout", "tsize", "windowsize"
+     * @return the future result of the transfer: it fails with a SocketTimeoutException if the remote host did
+     * not respond after all retransmissions, or with a TFTPException.
+     */
+    public CompletableFuture<TransferResult> putAsync(final InetAddress host, final int port,
+            final InputStream input, final String fileName, final String mode, final Option... options) {
+        Objects.requireNonNull(input, "missing input");
+        final ReadableByteChannel channel = NetasciiInput.isNetascii(mode)
+                ? new NetasciiInput(Channels.newChannel(input)) : Channels.newChannel(input);
+        final int max = this.retries;
+        final TransferListener listener = this.listener;
+        final ERollover rollover = this.rollover;
+        final String digest = this.digest;
+        return submit(transport -> {
+            final Sender sender = new Sender(transport, fileName, Session.TIMEOUT, max, channel);
+            sender.listen(listener);
+            sender.rollover(rollover);
+            if (digest != null) {
+                sender.digest(TransferDigest.of(digest));
+            }
+            sender.request(Request.write(fileName, mode, host, port, options));
+            return sender;
+        });
+    }
+
+    /**
+     * Get a file asynchronously.
+     *
+     * The upper bound of the retransmission timeout is the negotiated timeout (5 seconds by default).
+     *
+     * @param host the destination host
+     * @param port the destination port
+     * @param output the output stream open on the local file to write
+     * @param fileName the name of the remote file to download
+     * @param mode the send mode: "octet", "netascii", "mail"
+     * @param options options: "blksize", "timeout", "tsize", "windowsize"
+     * @return the future result of the transfer: it fails with a SocketTimeoutException if the remote host did
+     * not respond after all retransmissions, or with a TFTPException.
+     */
+    public CompletableFuture<TransferResult> getAsync(final InetAddress host, final int port,
+            final OutputStream output, final String fileName, final String mode, final Option... options) {
+        Objects.requireNonNull(output, "missing output");
+        final WritableByteChannel channel = NetasciiInput.isNetascii(mode)
+                ? new NetasciiOutput(Channels.newChannel(output)) : Channels.newChannel(output);
+        final int max = this.retries;
+        final TransferListener listener = this.listener;
+        final ERollover rollover = this.rollover;
+        final String digest = this.digest;
+        return submit(transport -> {
+            final Receiver receiver = new Receiver(transport, fileName, Session.TIMEOUT, max, channel);
+            receiver.listen(listener);
+            receiver.rollover(rollover);
+            if (digest != null) {
+                receiver.digest(TransferDigest.of(digest));
+            }
+            receiver.request(Request.read(fileName, mode, host, port, Receiver.sized(options)));
+            return receiver;
+        });
+    }
+
+    /**
+     * Closes the client: the transfers not yet complete fail.
+     */
+    @Override
+    public void close() throws IOException {
+        this.closed = true;
+        for (EventLoop loop : this.loops) {
+            if (loop != null) {
+                loop.close();
+            }
+        }
+        Transfer transfer;
+        while ((transfer = this.pending.poll()) != null) {
+            transfer.getFuture().completeExceptionally(new IOException("Client closed"));
+        }
+    }
+
+    /**
+     * Queues a new transfer.
+     *
+     * @param starter starts the session of the transfer (not null)
+     * @return the future result of the transfer
+     */
+    private CompletableFuture<TransferResult> submit(final Transfer.Starter starter) {
+        final Transfer transfer = new Transfer(starter, this::release);
+        if (this.closed) {
+            transfer.getFuture().completeExceptionally(new IOException("Client closed"));
+        } else {
+            this.pending.add(transfer);
+            dispatch();
+        }
+        return transfer.getFuture();
+    }
+
+    /**
+     * Frees the slot of a closed transfer.
+     */
+    private void release() {
+        this.active.decrementAndGet();
+        dispatch();
+    }
+
+    /**
+     * Starts the pending transfers while there are free slots.
+     */
+    private void dispatch() {
+        while (!this.closed && !this.pending.isEmpty()) {
+            final int running = this.active.get();
+            if (running >= this.maxTransfers) {
+                return;
+            }
+            if (!this.active.compareAndSet(running, running + 1)) {
+                continue;
+            }
+            final Transfer transfer = this.pending.poll();
+            if (transfer == null || transfer.getFuture().isDone()) { // cancelled while pending
+                this.active.decrementAndGet();
+                continue;
+            }
+            final int index = Math.floorMod(this.dispatched.getAndIncrement(), this.loops.length);
+            transfer.submit(this.loops[index]);
+        }
+    }
+
+}
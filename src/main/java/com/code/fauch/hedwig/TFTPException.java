@@ -78,4 +78,17 @@ public class TFTPException extends Exception {
         return new TFTPException(EError.from(block), new String(data, "US-ASCII"));
     }
     
+    /**
+     * Extract error from a decoded ERROR packet.
+     * 
+     * @param view the view on the ERROR packet (not null)
+     * @return the corresponding exception
+     */
+    static TFTPException from(final PacketView view) {
+        if (view.getLength() == 0) {
+            return new TFTPException(view.getError());
+        }
+        return new TFTPException(view.getError(), view.getMessage());
+    }
+    
 }
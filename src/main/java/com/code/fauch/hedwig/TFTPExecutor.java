@@ -0,0 +1,387 @@
+/*
+ * Copyright 2019 Claire Fauch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.code.fauch.hedwig;
+
+import java.io.Closeable;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.function.UnaryOperator;
+
+/**
+ * Runs blocking TFTP transfers on the threads of an executor.
+ *
+ * Each transfer runs on its own datagram socket with the blocking TFTP API. With virtual threads, a thread
+ * waiting for a packet is parked without holding its carrier thread: Hedwig never holds a monitor during
+ * socket I/O. At most a given number of transfers run at the same time, the next ones wait for a permit.
+ *
+ * A transfer is cancelled by cancelling its future: its socket is then closed.
+ *
+ * @author c.fauch
+ *
+ */
+public final class TFTPExecutor implements Closeable {
+
+    /**
+     * The executor running the transfers.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * True if the executor is shut down with this TFTP executor.
+     */
+    private final boolean owned;
+
+    /**
+     * Permits of the running transfers.
+     */
+    private final Semaphore permits;
+
+    /**
+     * The maximum number of retransmissions of a same packet before giving up.
+     */
+    private volatile int retries = Session.RETRIES;
+
+    /**
+     * The listener of the events of the transfers.
+     */
+    private volatile TransferListener listener = TransferListener.NONE;
+
+    /**
+     * The block number following the block 65535 unless negotiated.
+     */
+    private volatile ERollover rollover = ERollover.ONE;
+
+    /**
+     * The algorithm of the digest of the transferred content (null if not computed).
+     */
+    private volatile String digest;
+
+    /**
+     * The rate limit of each transfer in bytes per second (0 if unlimited).
+     */
+    private volatile long rate;
+
+    /**
+     * Constructor.
+     *
+     * @param executor the executor running the transfers (not null): it is not shut down with this TFTP executor
+     * @param maxTransfers the maximum number of transfers running at the same time (strictly positive)
+     */
+    public TFTPExecutor(final ExecutorService executor, final int maxTransfers) {
+        this(executor, maxTransfers, false);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param executor the executor running the transfers (not null)
+     * @param maxTransfers the maximum number of transfers running at the same time (strictly positive)
+     * @param owned true if the executor is shut down with this TFTP executor
+     */
+    private TFTPExecutor(final ExecutorService executor, final int maxTransfers, final boolean owned) {
+        if (maxTransfers <= 0) {
+            throw new IllegalArgumentException("Invalid number of transfers: " + maxTransfers);
+        }
+        this.executor = Objects.requireNonNull(executor, "missing executor");
+        this.permits = new Semaphore(maxTransfers);
+        this.owned = owned;
+    }
+
+    /**
+     * Builds a TFTP executor running each transfer on a new virtual thread, or on a pool of platform threads if
+     * the runtime does not support virtual threads (see platformThreads).
+     *
+     * @param maxTransfers the maximum number of transfers running at the same time (strictly positive)
+     * @return the new TFTP executor
+     */
+    public static TFTPExecutor virtualThreads(final int maxTransfers) {
+        final ExecutorService executor = newVirtualThreadPerTaskExecutor();
+        if (executor == null) {
+            return platformThreads(maxTransfers);
+        }
+        return new TFTPExecutor(executor, maxTransfers, true);
+    }
+
+    /**
+     * Builds a TFTP executor running the transfers on a pool of platform threads: one thread per running
+     * transfer.
+     *
+     * @param maxTransfers the maximum number of transfers running at the same time (strictly positive)
+     * @return the new TFTP executor
+     */
+    public static TFTPExecutor platformThreads(final int maxTransfers) {
+        if (maxTransfers <= 0) {
+            throw new IllegalArgumentException("Invalid number of transfers: " + maxTransfers);
+        }
+        return new TFTPExecutor(Executors.newFixedThreadPool(maxTransfers), maxTransfers, true);
+    }
+
+    /**
+     * @return true if the runtime supports virtual threads
+     */
+    public static boolean hasVirtualThreads() {
+        final ExecutorService executor = newVirtualThreadPerTaskExecutor();
+        if (executor == null) {
+            return false;
+        }
+        executor.shutdown();
+        return true;
+    }
+
+    /**
+     * Sets the maximum number of retransmissions of a same packet before giving up a transfer.
+     *
+     * @param retries the maximum number of retransmissions (0 to never retransmit)
+     * @return this TFTP executor
+     */
+    public TFTPExecutor retries(final int retries) {
+        if (retries < 0) {
+            throw new IllegalArgumentException("Invalid number of retries: " + retries);
+        }
+        this.retries = retries;
+        return this;
+    }
+
+    /**
+     * Sets the listener of the events of the next transfers: it is notified by the threads running them.
+     *
+     * @param listener the listener (not null)
+     * @return this TFTP executor
+     */
+    public TFTPExecutor listener(final TransferListener listener) {
+        this.listener = Objects.requireNonNull(listener, "missing listener");
+        return this;
+    }
+
+    /**
+     * Sets the block number following the block 65535 when the rollover option is not acknowledged (1 by
+     * default).
+     *
+     * @param rollover the rollover policy (not null)
+     * @return this TFTP executor
+     */
+    public TFTPExecutor rollover(final ERollover rollover) {
+        this.rollover = Objects.requireNonNull(rollover, "missing rollover");
+        return this;
+    }
+
+    /**
+     * Sets the algorithm of the digest computed with the content of the next transfers while it is sent or
+     * received, and given with their result: "CRC32C" or the name of a message digest algorithm ("SHA-256"...).
+     * The digest of a netascii transfer is computed with the netascii content.
+     *
+     * @param algorithm the algorithm (null to compute no digest)
+     * @return this TFTP executor
+     * @throws IllegalArgumentException if the algorithm is not available
+     */
+    public TFTPExecutor digest(final String algorithm) {
+        if (algorithm != null) {
+            TransferDigest.of(algorithm);
+        }
+        this.digest = algorithm;
+        return this;
+    }
+
+    /**
+     * Sets the rate limit of each transfer: the packets are spaced so that the bytes sent and received by a
+     * transfer do not exceed the given rate.
+     *
+     * @param bytesPerSecond the rate limit in bytes per second (0 for no limit)
+     * @return this TFTP executor
+     */
+    public TFTPExecutor rate(final long bytesPerSecond) {
+        if (bytesPerSecond < 0) {
+            throw new IllegalArgumentException("Invalid rate: " + bytesPerSecond);
+        }
+        this.rate = bytesPerSecond;
+        return this;
+    }
+
+    /**
+     * Submits a transfer.
+     *
+     * @param job the transfer to run (not null)
+     * @return the future result of the transfer: it fails with a SocketTimeoutException if the remote host did
+     * not respond after all retransmissions, or with a TFTPException.
+     */
+    public CompletableFuture<TransferResult> submit(final TransferJob job) {
+        Objects.requireNonNull(job, "missing job");
+        final CompletableFuture<TransferResult> future = new CompletableFuture<>();
+        submit(job, future);
+        return future;
+    }
+
+    /**
+     * Publishes the content of a remote file.
+     *
+     * Each subscriber gets the file by its own transfer, submitted when it subscribes. Each received block is
+     * emitted as one buffer holding its payload, and acknowledged only once the subscriber has requested it: a
+     * subscriber which does not request more holds the remote host back, until the remote host gives up after its
+     * retransmissions.
+     * Cancelling the subscription cancels the transfer. The failure of the transfer is signalled to the
+     * subscriber.
+     *
+     * @param host the destination host
+     * @param port the destination port
+     * @param fileName the name of the remote file to download
+     * @param mode the send mode: "octet", "netascii", "mail"
+     * @param options options: "blksize", "timeout", "tsize", "windowsize"
+     * @return the publisher of the content of the file
+     */
+    public Flow.Publisher<ByteBuffer> publish(final InetAddress host, final int port, final String fileName,
+            final String mode, final Option... options) {
+        return subscriber -> {
+            Objects.requireNonNull(subscriber, "missing subscriber");
+            final CompletableFuture<TransferResult> future = new CompletableFuture<>();
+            final SubscriberOutput output = new SubscriberOutput(subscriber, () -> future.cancel(true));
+            subscriber.onSubscribe(output);
+            future.whenComplete((r, e) -> output.complete(e));
+            submit(TransferJob.get(host, port, output, fileName, mode, options), future);
+        };
+    }
+
+    /**
+     * Submits a transfer completing a given future.
+     *
+     * @param job the transfer to run (not null)
+     * @param future the future to complete (not null)
+     */
+    private void submit(final TransferJob job, final CompletableFuture<TransferResult> future) {
+        final int max = this.retries;
+        final TransferListener listener = this.listener;
+        final ERollover rollover = this.rollover;
+        final String digest = this.digest;
+        final long rate = this.rate;
+        final UnaryOperator<TFTP> settings = tftp -> tftp.retries(max).listener(listener).rollover(rollover)
+                .digest(digest).rate(rate);
+        try {
+            this.executor.execute(() -> run(job, settings, future));
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Submits many transfers: they run as soon as permits are available.
+     *
+     * @param jobs the transfers to run (not null)
+     * @return the future results of the transfers, in the order of the jobs
+     */
+    public List<CompletableFuture<TransferResult>> submitAll(final Collection<TransferJob> jobs) {
+        final List<CompletableFuture<TransferResult>> futures = new ArrayList<>(jobs.size());
+        for (TransferJob job : jobs) {
+            futures.add(submit(job));
+        }
+        return futures;
+    }
+
+    /**
+     * Submits many transfers and waits until all of them are complete.
+     *
+     * @param jobs the transfers to run (not null)
+     * @return the results of the transfers, in the order of the jobs
+     * @throws CompletionException if at least one transfer failed
+     */
+    public List<TransferResult> runAll(final Collection<TransferJob> jobs) {
+        final List<CompletableFuture<TransferResult>> futures = submitAll(jobs);
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+        final List<TransferResult> results = new ArrayList<>(futures.size());
+        for (CompletableFuture<TransferResult> future : futures) {
+            results.add(future.join());
+        }
+        return results;
+    }
+
+    /**
+     * Shuts down the executor if it was created by this TFTP executor: running transfers are completed.
+     */
+    @Override
+    public void close() {
+        if (this.owned) {
+            this.executor.shutdown();
+        }
+    }
+
+    /**
+     * Runs a transfer once a permit is available.
+     *
+     * @param job the transfer to run (not null)
+     * @param settings applies the settings of this TFTP executor to a TFTP client (not null)
+     * @param future the future to complete (not null)
+     */
+    private void run(final TransferJob job, final UnaryOperator<TFTP> settings,
+            final CompletableFuture<TransferResult> future) {
+        if (future.isDone()) { // cancelled while waiting for a thread
+            return;
+        }
+        try {
+            this.permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.completeExceptionally(e);
+            return;
+        }
+        try (DatagramSocket socket = new DatagramSocket()) {
+            closeOnCancel(future, socket);
+            if (!future.isDone()) {
+                future.complete(job.run(settings.apply(new TFTP(socket))));
+            }
+        } catch (Exception e) {
+            future.completeExceptionally(e);
+        } finally {
+            this.permits.release();
+        }
+    }
+
+    /**
+     * Closes a socket when a future is cancelled, so that the blocking transfer using it stops at once.
+     *
+     * @param future the future of the transfer (not null)
+     * @param socket the socket of the transfer (not null)
+     */
+    private static void closeOnCancel(final CompletableFuture<?> future, final DatagramSocket socket) {
+        future.whenComplete((r, e) -> {
+            if (future.isCancelled()) {
+                socket.close();
+            }
+        });
+    }
+
+    /**
+     * Creates an executor running each task on a new virtual thread if the runtime supports it.
+     *
+     * @return the new executor or null if not supported
+     */
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,271 @@
+/*
+ * Copyright 2019 Claire Fauch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.code.fauch.hedwig;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Pool of blocking TFTP clients bound once and reused from one transfer to the next one.
+ *
+ * Each client of the pool owns a datagram channel bound to an ephemeral port when the pool is created, with the
+ * requested socket buffer sizes, and a transport kept open with the buffers of the previous transfers: a burst
+ * of small transfers then pays neither the setup of a socket nor the allocation of its buffers. A client is
+ * leased for the time of one or more transfers, then returned to the pool. The settings of the pool are applied
+ * to a client each time it is leased.
+ *
+ * As the clients reuse their port, the packets received late from a previous transfer are dropped when a
+ * transfer ends, and a transfer only starts with a packet that may be the first response of a server: a late
+ * ERROR packet does not fail the next transfer unless it may refuse its request.
+ *
+ * @author c.fauch
+ *
+ */
+public final class TFTPPool implements Closeable {
+
+    /**
+     * The channels of the clients.
+     */
+    private final List<DatagramChannel> channels = new ArrayList<>();
+
+    /**
+     * The transports of the clients.
+     */
+    private final List<PooledTransport> transports = new ArrayList<>();
+
+    /**
+     * The clients ready to be leased.
+     */
+    private final BlockingQueue<TFTP> idle;
+
+    /**
+     * The leased clients.
+     */
+    private final Set<TFTP> leased = ConcurrentHashMap.newKeySet();
+
+    /**
+     * The maximum number of retransmissions of a same packet before giving up.
+     */
+    private volatile int retries = Session.RETRIES;
+
+    /**
+     * The listener of the events of the transfers.
+     */
+    private volatile TransferListener listener = TransferListener.NONE;
+
+    /**
+     * The block number following the block 65535 unless negotiated.
+     */
+    private volatile ERollover rollover = ERollover.ONE;
+
+    /**
+     * The algorithm of the digest of the transferred content (null if not computed).
+     */
+    private volatile String digest;
+
+    /**
+     * The rate limit of each transfer in bytes per second (0 if unlimited).
+     */
+    private volatile long rate;
+
+    /**
+     * True once the pool is closed.
+     */
+    private volatile boolean closed;
+
+    /**
+     * Constructor: the channels of the clients are open and bound.
+     *
+     * @param size the number of clients (strictly positive)
+     * @param receiveBufferSize the size of the socket receive buffers in bytes (0 for the system default)
+     * @param sendBufferSize the size of the socket send buffers in bytes (0 for the system default)
+     * @throws IOException
+     */
+    public TFTPPool(final int size, final int receiveBufferSize, final int sendBufferSize) throws IOException {
+        if (size <= 0) {
+            throw new IllegalArgumentException("Invalid number of clients: " + size);
+        }
+        if (receiveBufferSize < 0) {
+            throw new IllegalArgumentException("Invalid receive buffer size: " + receiveBufferSize);
+        }
+        if (sendBufferSize < 0) {
+            throw new IllegalArgumentException("Invalid send buffer size: " + sendBufferSize);
+        }
+        this.idle = new ArrayBlockingQueue<>(size);
+        try {
+            for (int i = 0; i < size; i++) {
+                final DatagramChannel channel = DatagramChannel.open();
+                this.channels.add(channel);
+                if (receiveBufferSize > 0) {
+                    channel.setOption(StandardSocketOptions.SO_RCVBUF, receiveBufferSize);
+                }
+                if (sendBufferSize > 0) {
+                    channel.setOption(StandardSocketOptions.SO_SNDBUF, sendBufferSize);
+                }
+                channel.bind(new InetSocketAddress(0));
+                final PooledTransport transport = new PooledTransport(channel);
+                this.transports.add(transport);
+                this.idle.add(new TFTP(channel, transport));
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Sets the maximum number of retransmissions of a same packet before giving up a transfer.
+     *
+     * @param retries the maximum number of retransmissions (0 to never retransmit)
+     * @return this TFTP pool
+     */
+    public TFTPPool retries(final int retries) {
+        if (retries < 0) {
+            throw new IllegalArgumentException("Invalid number of retries: " + retries);
+        }
+        this.retries = retries;
+        return this;
+    }
+
+    /**
+     * Sets the listener of the events of the transfers of the next leased clients.
+     *
+     * @param listener the listener (not null)
+     * @return this TFTP pool
+     */
+    public TFTPPool listener(final TransferListener listener) {
+        this.listener = Objects.requireNonNull(listener, "missing listener");
+        return this;
+    }
+
+    /**
+     * Sets the block number following the block 65535 when the rollover option is not acknowledged (1 by
+     * default).
+     *
+     * @param rollover the rollover policy (not null)
+     * @return this TFTP pool
+     */
+    public TFTPPool rollover(final ERollover rollover) {
+        this.rollover = Objects.requireNonNull(rollover, "missing rollover");
+        return this;
+    }
+
+    /**
+     * Sets the algorithm of the digest computed with the content of the transfers while it is sent or
+     * received, and given with their result: "CRC32C" or the name of a message digest algorithm ("SHA-256"...).
+     *
+     * @param algorithm the algorithm (null to compute no digest)
+     * @return this TFTP pool
+     * @throws IllegalArgumentException if the algorithm is not available
+     */
+    public TFTPPool digest(final String algorithm) {
+        if (algorithm != null) {
+            TransferDigest.of(algorithm);
+        }
+        this.digest = algorithm;
+        return this;
+    }
+
+    /**
+     * Sets the rate limit of each transfer: the packets are spaced so that the bytes sent and received by a
+     * transfer do not exceed the given rate.
+     *
+     * @param bytesPerSecond the rate limit in bytes per second (0 for no limit)
+     * @return this TFTP pool
+     */
+    public TFTPPool rate(final long bytesPerSecond) {
+        if (bytesPerSecond < 0) {
+            throw new IllegalArgumentException("Invalid rate: " + bytesPerSecond);
+        }
+        this.rate = bytesPerSecond;
+        return this;
+    }
+
+    /**
+     * Leases a client, waiting until one is returned if all the clients are leased.
+     *
+     * @return the leased client, with the settings of this pool
+     * @throws IOException if the pool is closed
+     * @throws InterruptedException if interrupted while waiting for a client
+     */
+    public TFTP lease() throws IOException, InterruptedException {
+        if (this.closed) {
+            throw new IOException("Pool closed");
+        }
+        final TFTP tftp = this.idle.take();
+        this.leased.add(tftp);
+        return tftp.retries(this.retries).listener(this.listener).rollover(this.rollover).digest(this.digest)
+                .rate(this.rate).readAhead(0).writeBehind(0);
+    }
+
+    /**
+     * Returns a leased client to the pool.
+     *
+     * @param tftp the client leased from this pool (not null)
+     * @throws IllegalArgumentException if the client is not leased from this pool
+     */
+    public void release(final TFTP tftp) {
+        if (!this.leased.remove(Objects.requireNonNull(tftp, "missing client"))) {
+            throw new IllegalArgumentException("Client not leased from this pool");
+        }
+        this.idle.add(tftp);
+    }
+
+    /**
+     * Runs a transfer with a leased client, returned once the transfer is complete.
+     *
+     * @param job the transfer to run (not null)
+     * @return the result of the transfer
+     * @throws IOException
+     * @throws SocketTimeoutException if the remote host did not respond after all retransmissions
+     * @throws TFTPException
+     * @throws InterruptedException if interrupted while waiting for a client
+     */
+    public TransferResult run(final TransferJob job) throws IOException, TFTPException, InterruptedException {
+        Objects.requireNonNull(job, "missing job");
+        final TFTP tftp = lease();
+        try {
+            return job.run(tftp);
+        } finally {
+            release(tftp);
+        }
+    }
+
+    /**
+     * Closes the channels of the clients, leased or not.
+     */
+    @Override
+    public void close() throws IOException {
+        this.closed = true;
+        for (PooledTransport transport : this.transports) {
+            transport.dispose();
+        }
+        for (DatagramChannel channel : this.channels) {
+            channel.close();
+        }
+    }
+
+}
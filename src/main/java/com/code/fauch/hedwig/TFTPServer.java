@@ -0,0 +1,913 @@
+/*
+ * Copyright 2019 Claire Fauch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.code.fauch.hedwig;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * TFTP server class.
+ *
+ * The server answers READ/WRITE requests on files of a root directory with option negotiation (blksize, timeout,
+ * tsize, windowsize). Each session uses its own datagram channel (its transfer identifier) and all the sessions
+ * are multiplexed on a small number of event loop threads, so that thousands of sessions run at the same time
+ * without a thread per session. The sessions of a thread may instead share a single channel: the received
+ * packets are then routed to the sessions by the transfer identifier of the client.
+ *
+ * The files read by several clients at the same time can be shared through a cache of read-only mappings with
+ * a memory budget (disabled by default): a hot file is then read once from the disk whatever the number of
+ * clients. They can also be sent once to a multicast group (multicast option, disabled by default): the
+ * clients requesting a file already sent to the group join the running session.
+ *
+ * WRITE requests are refused unless the server is writable: files are then created but never overwritten, and
+ * a file whose transfer fails is deleted.
+ *
+ * @author c.fauch
+ *
+ */
+public final class TFTPServer implements Closeable {
+
+    /**
+     * Maximum block size (https://tools.ietf.org/html/rfc2348)
+     */
+    static final int MAX_BLKSIZE = 65464;
+
+    /**
+     * Minimum block size (https://tools.ietf.org/html/rfc2348)
+     */
+    static final int MIN_BLKSIZE = 8;
+
+    /**
+     * Default maximum window size.
+     */
+    static final int MAX_WINDOWSIZE = 64;
+
+    /**
+     * Maximum timeout in seconds (https://tools.ietf.org/html/rfc2349)
+     */
+    static final int MAX_TIMEOUT = 255;
+
+    /**
+     * The root directory of the served files.
+     */
+    private final Path root;
+
+    /**
+     * The sessions running, by transfer identifier of the client.
+     */
+    private final Set<InetSocketAddress> clients = ConcurrentHashMap.newKeySet();
+
+    /**
+     * The number of sessions already dispatched (used to choose the event loop).
+     */
+    private final AtomicInteger dispatched = new AtomicInteger();
+
+    /**
+     * The number of event loop threads.
+     */
+    private int threads = 2;
+
+    /**
+     * The maximum number of retransmissions of a same packet before giving up.
+     */
+    private int retries = Session.RETRIES;
+
+    /**
+     * The maximum acknowledged block size.
+     */
+    private int maxBlksize = MAX_BLKSIZE;
+
+    /**
+     * The maximum acknowledged window size.
+     */
+    private int maxWindowsize = MAX_WINDOWSIZE;
+
+    /**
+     * True if WRITE requests are accepted.
+     */
+    private boolean writable;
+
+    /**
+     * The block number following the block 65535 unless negotiated.
+     */
+    private ERollover rollover = ERollover.ONE;
+
+    /**
+     * The cache of the read files (null if disabled).
+     */
+    private FileCache cache;
+
+    /**
+     * The multicast group the DATA blocks of multicast transfers are sent to (null if disabled).
+     */
+    private InetSocketAddress group;
+
+    /**
+     * The network interface the multicast packets are sent through (null for the default interface).
+     */
+    private NetworkInterface multicastInterface;
+
+    /**
+     * The running multicast transfers by file: only used by the thread of the first event loop.
+     */
+    private final Map<Path, Transfer> multicasts = new HashMap<>();
+
+    /**
+     * True if the sessions of an event loop share a single channel.
+     */
+    private boolean sharedChannels;
+
+    /**
+     * The channels shared by the sessions of each event loop (null if not shared).
+     */
+    private Demultiplexer[] demultiplexers;
+
+    /**
+     * The event loops (null until started).
+     */
+    private EventLoop[] loops;
+
+    /**
+     * The thread mapping the files into the cache, off the event loops (null if no cache or until started).
+     */
+    private ExecutorService mapper;
+
+    /**
+     * The channel receiving the requests (null until started).
+     */
+    private DatagramChannel channel;
+
+    /**
+     * Constructor.
+     *
+     * @param root the root directory of the served files (not null)
+     */
+    public TFTPServer(final Path root) {
+        this.root = Objects.requireNonNull(root, "missing root").toAbsolutePath().normalize();
+    }
+
+    /**
+     * Sets the number of event loop threads.
+     *
+     * @param threads the number of threads (strictly positive)
+     * @return this TFTP server
+     */
+    public TFTPServer threads(final int threads) {
+        checkNotStarted();
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Invalid number of threads: " + threads);
+        }
+        this.threads = threads;
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of retransmissions of a same packet before giving up a session.
+     *
+     * @param retries the maximum number of retransmissions (0 to never retransmit)
+     * @return this TFTP server
+     */
+    public TFTPServer retries(final int retries) {
+        checkNotStarted();
+        if (retries < 0) {
+            throw new IllegalArgumentException("Invalid number of retries: " + retries);
+        }
+        this.retries = retries;
+        return this;
+    }
+
+    /**
+     * Sets the maximum block size acknowledged to clients.
+     *
+     * @param maxBlksize the maximum block size (between 8 and 65464)
+     * @return this TFTP server
+     */
+    public TFTPServer maxBlksize(final int maxBlksize) {
+        checkNotStarted();
+        if (maxBlksize < MIN_BLKSIZE || maxBlksize > MAX_BLKSIZE) {
+            throw new IllegalArgumentException("Invalid block size: " + maxBlksize);
+        }
+        this.maxBlksize = maxBlksize;
+        return this;
+    }
+
+    /**
+     * Sets the maximum window size acknowledged to clients.
+     *
+     * @param maxWindowsize the maximum window size (between 1 and 65535)
+     * @return this TFTP server
+     */
+    public TFTPServer maxWindowsize(final int maxWindowsize) {
+        checkNotStarted();
+        if (maxWindowsize < 1 || maxWindowsize > 65535) {
+            throw new IllegalArgumentException("Invalid window size: " + maxWindowsize);
+        }
+        this.maxWindowsize = maxWindowsize;
+        return this;
+    }
+
+    /**
+     * Accepts or refuses WRITE requests (refused by default).
+     *
+     * @param writable true to accept WRITE requests
+     * @return this TFTP server
+     */
+    public TFTPServer writable(final boolean writable) {
+        checkNotStarted();
+        this.writable = writable;
+        return this;
+    }
+
+    /**
+     * Sets the block number following the block 65535 when the rollover option is not requested (1 by default).
+     * Without rollover, the READ requests of files needing more than 65535 blocks are refused.
+     *
+     * @param rollover the rollover policy (not null)
+     * @return this TFTP server
+     */
+    public TFTPServer rollover(final ERollover rollover) {
+        checkNotStarted();
+        this.rollover = Objects.requireNonNull(rollover, "missing rollover");
+        return this;
+    }
+
+    /**
+     * Shares a single channel between the sessions of each event loop, instead of a channel per session (not
+     * shared by default): the server then uses a socket per thread whatever the number of sessions. The packets
+     * are routed to the sessions by the transfer identifier of the client, and the packets of unknown transfer
+     * identifiers are answered with an UNKNOWN TRANSFER ID error. Multicast sessions keep their own channel.
+     *
+     * @param shared true to share a channel between the sessions of each event loop
+     * @return this TFTP server
+     */
+    public TFTPServer sharedChannels(final boolean shared) {
+        checkNotStarted();
+        this.sharedChannels = shared;
+        return this;
+    }
+
+    /**
+     * Enables the cache of the read files: the files are mapped once and shared by the sessions reading them.
+     * The files are mapped by a dedicated thread, so that the sessions of the event loops are not stalled.
+     *
+     * @param budget the maximum total size of the cached files in bytes (0 to disable the cache)
+     * @return this TFTP server
+     */
+    public TFTPServer cacheSize(final long budget) {
+        checkNotStarted();
+        if (budget < 0) {
+            throw new IllegalArgumentException("Invalid cache size: " + budget);
+        }
+        this.cache = budget == 0 ? null : new FileCache(budget);
+        return this;
+    }
+
+    /**
+     * Enables the multicast option (https://tools.ietf.org/html/rfc2090): the files are sent to a multicast group
+     * and the clients reading the same file share a single session. The multicast transfers run on the first
+     * event loop.
+     *
+     * @param group the address and port of the multicast group (not null)
+     * @param nif the network interface the multicast packets are sent through (null for the default interface)
+     * @return this TFTP server
+     */
+    public TFTPServer multicast(final InetSocketAddress group, final NetworkInterface nif) {
+        checkNotStarted();
+        if (!Objects.requireNonNull(group, "missing group").getAddress().isMulticastAddress()) {
+            throw new IllegalArgumentException("Invalid multicast group: " + group);
+        }
+        this.group = group;
+        this.multicastInterface = nif;
+        return this;
+    }
+
+    /**
+     * Starts the server.
+     *
+     * @param address the address to listen to (port 0 for an ephemeral port)
+     * @return this TFTP server
+     * @throws IOException
+     */
+    public TFTPServer start(final InetSocketAddress address) throws IOException {
+        checkNotStarted();
+        this.loops = new EventLoop[this.threads];
+        try {
+            for (int i = 0; i < this.threads; i++) {
+                this.loops[i] = new EventLoop("hedwig-server-" + i);
+            }
+            if (this.cache != null) {
+                this.mapper = Executors.newSingleThreadExecutor(task -> {
+                    final Thread thread = new Thread(task, "hedwig-server-mapper");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+            this.channel = DatagramChannel.open().bind(address);
+            this.channel.configureBlocking(false);
+            final Listener listener = new Listener();
+            this.loops[0].execute(listener::open);
+            if (this.sharedChannels) {
+                this.demultiplexers = new Demultiplexer[this.threads];
+                for (int i = 0; i < this.threads; i++) {
+                    this.demultiplexers[i] = share(this.loops[i]);
+                }
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+        return this;
+    }
+
+    /**
+     * @return the address the server listens to
+     * @throws IOException
+     */
+    public InetSocketAddress getAddress() throws IOException {
+        return (InetSocketAddress) this.channel.getLocalAddress();
+    }
+
+    /**
+     * @return the number of sessions running
+     */
+    public int getSessions() {
+        return this.clients.size();
+    }
+
+    /**
+     * Stops the server: the running sessions are aborted.
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.loops != null) {
+            for (EventLoop loop : this.loops) {
+                if (loop != null) {
+                    loop.close();
+                }
+            }
+        }
+        if (this.mapper != null) {
+            this.mapper.shutdownNow();
+        }
+        if (this.channel != null) {
+            this.channel.close();
+        }
+    }
+
+    /**
+     * Opens a channel shared by the sessions of an event loop, bound to the address of the server.
+     *
+     * @param loop the event loop (not null)
+     * @return the shared channel, registered once the pending tasks of the loop are run
+     * @throws IOException
+     */
+    private Demultiplexer share(final EventLoop loop) throws IOException {
+        final DatagramChannel shared = DatagramChannel.open()
+                .bind(new InetSocketAddress(this.channel.socket().getLocalAddress(), 0));
+        shared.configureBlocking(false);
+        final Demultiplexer demultiplexer = new Demultiplexer(shared);
+        loop.execute(() -> {
+            try {
+                demultiplexer.register(loop);
+            } catch (IOException e) {
+                demultiplexer.abort();
+            }
+        });
+        return demultiplexer;
+    }
+
+    /**
+     * Starts a session answering a request or refuses it: a failure to prepare the session only refuses the
+     * request, the server keeps listening.
+     *
+     * @param request the READ/WRITE request (not null)
+     * @param client the transfer identifier of the client (not null)
+     */
+    private void accept(final Request request, final InetSocketAddress client) {
+        if (!this.clients.add(client)) { // the request is sent again while its session runs
+            return;
+        }
+        try {
+            final Transfer transfer;
+            if (request.getOperation() == EOperation.READ) {
+                transfer = read(request, client);
+            } else {
+                transfer = write(request, client);
+            }
+            if (transfer != null) { // else joined a multicast transfer or started once the file is mapped
+                dispatch(transfer, client);
+            }
+        } catch (TFTPException | IOException | RuntimeException e) {
+            refuse(request, client, e);
+        }
+    }
+
+    /**
+     * Submits a transfer to the next event loop.
+     *
+     * @param transfer the transfer to start (not null)
+     * @param client the transfer identifier of the client (not null)
+     */
+    private void dispatch(final Transfer transfer, final InetSocketAddress client) {
+        final int index = Math.floorMod(this.dispatched.getAndIncrement(), this.loops.length);
+        if (this.demultiplexers != null) {
+            transfer.shared(this.demultiplexers[index], client);
+        }
+        transfer.submit(this.loops[index]);
+    }
+
+    /**
+     * Refuses a request with an ERROR packet.
+     *
+     * @param request the READ/WRITE request (not null)
+     * @param client the transfer identifier of the client (not null)
+     * @param cause the cause of the refusal (not null)
+     */
+    private void refuse(final Request request, final InetSocketAddress client, final Exception cause) {
+        final TFTPException error = refusal(cause);
+        ErrorEvent.emit(request.getFileName(), client, error, false);
+        this.clients.remove(client);
+        try {
+            this.channel.send(PacketView.error(ByteBuffer.allocate(516), error.getError(), error.getMessage()),
+                    client);
+        } catch (IOException e) {
+            // the client will time out
+        }
+    }
+
+    /**
+     * Returns the TFTP error answering a request that could not be served.
+     *
+     * @param cause the cause of the failure (not null)
+     * @return the TFTP error sent to the client
+     */
+    private static TFTPException refusal(final Exception cause) {
+        if (cause instanceof TFTPException) {
+            return (TFTPException) cause;
+        }
+        if (cause instanceof AccessDeniedException) {
+            return new TFTPException(EError.ACCESS_VIOLATION, "Access violation");
+        }
+        if (cause instanceof NoSuchFileException) {
+            return new TFTPException(EError.FILE_NOT_FOUND, "File not found");
+        }
+        return new TFTPException(EError.NOT_DEFINED, "Cannot read file");
+    }
+
+    /**
+     * Prepares the session answering a READ request.
+     *
+     * @param request the READ request (not null)
+     * @param client the transfer identifier of the client (not null)
+     * @return the transfer to start, or null if the client joined a multicast transfer or if the transfer is
+     * started once the file is mapped into the cache
+     * @throws TFTPException if the request is refused
+     * @throws IOException
+     */
+    private Transfer read(final Request request, final InetSocketAddress client) throws TFTPException, IOException {
+        final Path file = resolve(request.getFileName());
+        if (!Files.isRegularFile(file)) {
+            throw new TFTPException(EError.FILE_NOT_FOUND, "File not found");
+        }
+        if (!Files.isReadable(file)) {
+            throw new TFTPException(EError.ACCESS_VIOLATION, "Access violation");
+        }
+        final BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        final Negotiation negotiation = new Negotiation(request, attributes.size());
+        if (negotiation.multicast) {
+            return multicast(request, client, file, negotiation);
+        }
+        if (this.cache != null) { // mapping the file on the loop would stall its other sessions
+            this.mapper.execute(() -> {
+                try {
+                    final ByteBuffer cached = this.cache.get(file, attributes);
+                    dispatch(sending(request, client, file, negotiation, cached), client);
+                } catch (IOException | RuntimeException e) {
+                    refuse(request, client, e);
+                }
+            });
+            return null;
+        }
+        return sending(request, client, file, negotiation, null);
+    }
+
+    /**
+     * Prepares the session sending a file.
+     *
+     * @param request the READ request (not null)
+     * @param client the transfer identifier of the client (not null)
+     * @param file the file to read (not null)
+     * @param negotiation the negotiated options (not null)
+     * @param cached the cached content of the file (null to map the file for the session)
+     * @return the transfer to start
+     */
+    private Transfer sending(final Request request, final InetSocketAddress client, final Path file,
+            final Negotiation negotiation, final ByteBuffer cached) {
+        final int max = this.retries;
+        return new Transfer(transport -> {
+            if (cached != null) {
+                final Sender sender = new Sender(transport, request.getFileName(), negotiation.timeout, max,
+                        encoded(new BufferInput(cached, file), request));
+                sender.rollover(negotiation.rollover);
+                sender.serve(client, negotiation.blksize, negotiation.windowsize, negotiation.oack(transport));
+                return sender;
+            }
+            final FileChannel input;
+            try {
+                input = FileChannel.open(file, StandardOpenOption.READ);
+            } catch (IOException e) { // the file is gone since the request
+                final TFTPException error = refusal(e);
+                transport.send(PacketView.error(transport.allocate(516), error.getError(), error.getMessage()),
+                        client);
+                throw e;
+            }
+            final Sender sender = new Sender(transport, request.getFileName(), negotiation.timeout, max,
+                    encoded(new MappedInput(input), request));
+            sender.rollover(negotiation.rollover);
+            sender.attach(input);
+            try {
+                sender.serve(client, negotiation.blksize, negotiation.windowsize, negotiation.oack(transport));
+            } catch (IOException e) {
+                input.close();
+                throw e;
+            }
+            return sender;
+        }, () -> this.clients.remove(client), this.channel.socket().getLocalAddress());
+    }
+
+    /**
+     * Encodes the content of a file read in netascii mode.
+     *
+     * @param input the channel reading the file (not null)
+     * @param request the READ request (not null)
+     * @return the channel to send
+     */
+    private static ReadableByteChannel encoded(final ReadableByteChannel input, final Request request) {
+        return NetasciiInput.isNetascii(request.getMode()) ? new NetasciiInput(input) : input;
+    }
+
+    /**
+     * Adds the client of a multicast READ request to the running transfer of the file, or prepares a new one:
+     * called by the thread of the first event loop.
+     *
+     * @param request the READ request (not null)
+     * @param client the transfer identifier of the client (not null)
+     * @param file the file to read (not null)
+     * @param negotiation the negotiated options (not null)
+     * @return the transfer to start or null if the client joined the running transfer
+     */
+    private Transfer multicast(final Request request, final InetSocketAddress client, final Path file,
+            final Negotiation negotiation) {
+        final Transfer running = this.multicasts.get(file);
+        if (running != null && !isClosing(running)) {
+            this.clients.remove(client);
+            this.loops[0].execute(() -> join(running, client)); // once the session is started
+            return null;
+        }
+        final int max = this.retries;
+        final Transfer transfer = new Transfer(transport -> {
+            final FileChannel input = FileChannel.open(file, StandardOpenOption.READ);
+            final MulticastSender sender = new MulticastSender(transport, request.getFileName(),
+                    negotiation.timeout, max, input, this.group);
+            sender.attach(input);
+            try {
+                sender.serve(client, negotiation.blksize, negotiation.windowsize,
+                        negotiation.acked.toArray(new Option[0]));
+            } catch (IOException e) {
+                input.close();
+                throw e;
+            }
+            return sender;
+        }, () -> this.clients.remove(client), this.channel.socket().getLocalAddress())
+                .multicast(this.multicastInterface);
+        this.multicasts.put(file, transfer);
+        transfer.getFuture().whenComplete((r, e) -> this.multicasts.remove(file, transfer));
+        transfer.submit(this.loops[0]);
+        return null;
+    }
+
+    /**
+     * Tells if a running multicast transfer sends no more block to new clients: a client coming then gets a new
+     * transfer instead of joining it.
+     *
+     * @param transfer the running transfer (not null)
+     * @return true if the transfer is closing
+     */
+    private static boolean isClosing(final Transfer transfer) {
+        final Session session = transfer.getSession();
+        return session instanceof MulticastSender && ((MulticastSender) session).isClosing();
+    }
+
+    /**
+     * Adds a client to a running multicast transfer: called by the thread of the first event loop. A client
+     * coming once the transfer is complete sends its request again and gets a new transfer.
+     *
+     * @param transfer the running transfer (not null)
+     * @param client the transfer identifier of the client (not null)
+     */
+    private static void join(final Transfer transfer, final InetSocketAddress client) {
+        final Session session = transfer.getSession();
+        if (session instanceof MulticastSender) {
+            try {
+                ((MulticastSender) session).join(client);
+            } catch (IOException e) {
+                transfer.fail(e);
+            }
+        }
+    }
+
+    /**
+     * Prepares the session answering a WRITE request.
+     *
+     * @param request the WRITE request (not null)
+     * @param client the transfer identifier of the client (not null)
+     * @return the transfer to start
+     * @throws TFTPException if the request is refused
+     */
+    private Transfer write(final Request request, final InetSocketAddress client) throws TFTPException {
+        if (!this.writable) {
+            throw new TFTPException(EError.ACCESS_VIOLATION, "Access violation");
+        }
+        final Path file = resolve(request.getFileName());
+        if (Files.exists(file)) {
+            throw new TFTPException(EError.FILE_ALREADY_EXISTS, "File already exists");
+        }
+        if (!Files.isDirectory(file.getParent())) {
+            throw new TFTPException(EError.FILE_NOT_FOUND, "Directory not found");
+        }
+        final Negotiation negotiation = new Negotiation(request, PacketView.UNDEFINED);
+        final int max = this.retries;
+        final Transfer transfer = new Transfer(transport -> {
+            final FileChannel output = FileChannel.open(file, StandardOpenOption.WRITE,
+                    StandardOpenOption.CREATE_NEW);
+            final Receiver receiver = new Receiver(transport, request.getFileName(), negotiation.timeout, max,
+                    NetasciiInput.isNetascii(request.getMode()) ? new NetasciiOutput(output) : output);
+            receiver.rollover(negotiation.rollover);
+            receiver.attach(output);
+            try {
+                receiver.serve(client, negotiation.blksize, negotiation.windowsize, negotiation.oack(transport));
+            } catch (IOException e) {
+                output.close();
+                throw e;
+            }
+            return receiver;
+        }, () -> this.clients.remove(client), this.channel.socket().getLocalAddress());
+        transfer.getFuture().whenComplete((r, e) -> {
+            if (e != null) {
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException ex) {
+                    // the partial file stays
+                }
+            }
+        });
+        return transfer;
+    }
+
+    /**
+     * Resolves a requested file name against the root directory.
+     *
+     * @param fileName the requested file name (not null)
+     * @return the path of the file
+     * @throws TFTPException if the file is outside the root directory
+     */
+    private Path resolve(final String fileName) throws TFTPException {
+        final String relative = fileName.startsWith("/") ? fileName.substring(1) : fileName;
+        final Path file;
+        try {
+            file = this.root.resolve(relative).normalize();
+        } catch (RuntimeException e) {
+            throw new TFTPException(EError.ACCESS_VIOLATION, "Access violation");
+        }
+        if (!file.startsWith(this.root) || file.equals(this.root)) {
+            throw new TFTPException(EError.ACCESS_VIOLATION, "Access violation");
+        }
+        return file;
+    }
+
+    /**
+     * Checks that the server is not started yet.
+     */
+    private void checkNotStarted() {
+        if (this.loops != null) {
+            throw new IllegalStateException("Server already started");
+        }
+    }
+
+    /**
+     * Options acknowledged to a client.
+     */
+    private final class Negotiation {
+
+        /**
+         * The acknowledged options.
+         */
+        private final List<Option> acked = new ArrayList<>();
+
+        /**
+         * The negotiated block size.
+         */
+        private int blksize = Session.DATA_SIZE;
+
+        /**
+         * The negotiated window size.
+         */
+        private int windowsize = Session.WINDOW_SIZE;
+
+        /**
+         * The upper bound of the retransmission timeout in milliseconds.
+         */
+        private long timeout = Session.TIMEOUT;
+
+        /**
+         * The block number following the block 65535.
+         */
+        private ERollover rollover = TFTPServer.this.rollover;
+
+        /**
+         * True if the file is sent to the multicast group.
+         */
+        private boolean multicast;
+
+        /**
+         * Constructor: the values out of range are ignored, the block size and the window size are reduced to
+         * the maximum values of the server.
+         *
+         * @param request the request (not null)
+         * @param size the size of the file to read or UNDEFINED for a WRITE request
+         * @throws TFTPException if the file to read needs more than 65535 blocks without rollover
+         */
+        Negotiation(final Request request, final long size) throws TFTPException {
+            for (Option opt : request.getOptions()) {
+                final EOption option = EOption.lookup(opt.getLabel());
+                if (option == null) {
+                    continue;
+                }
+                final long value = opt.getValue();
+                switch (option) {
+                case BLKSIZE:
+                    if (value >= MIN_BLKSIZE) {
+                        this.blksize = (int) Math.min(value, TFTPServer.this.maxBlksize);
+                        this.acked.add(Option.blksize(this.blksize));
+                    }
+                    break;
+                case TIMEOUT:
+                    if (value >= 1 && value <= MAX_TIMEOUT) {
+                        this.timeout = TimeUnit.SECONDS.toMillis(value);
+                        this.acked.add(opt);
+                    }
+                    break;
+                case TSIZE:
+                    this.acked.add(Option.tsize(size == PacketView.UNDEFINED ? value : size));
+                    break;
+                case WINDOWSIZE:
+                    if (value >= 1 && value <= 65535) {
+                        this.windowsize = (int) Math.min(value, TFTPServer.this.maxWindowsize);
+                        this.acked.add(Option.windowsize(this.windowsize));
+                    }
+                    break;
+                case ROLLOVER:
+                    final ERollover requested = ERollover.of(value);
+                    if (requested != null) {
+                        this.rollover = requested;
+                        this.acked.add(opt);
+                    }
+                    break;
+                case MULTICAST: // acknowledged by the multicast session, the blocks are not encoded
+                    this.multicast = TFTPServer.this.group != null && request.getOperation() == EOperation.READ
+                            && !NetasciiInput.isNetascii(request.getMode());
+                    break;
+                default:
+                    break;
+                }
+            }
+            if (this.multicast && size > ERollover.NONE.getMaxSize(this.blksize)) { // sent without rollover
+                this.multicast = false;
+            }
+            if (size > this.rollover.getMaxSize(this.blksize)) {
+                throw new TFTPException(EError.OPTION_NEGOTIATION_FAILED, "File too large for block size "
+                        + this.blksize);
+            }
+        }
+
+        /**
+         * Encodes the OACK packet.
+         *
+         * @param transport the transport of the session (not null)
+         * @return the OACK packet or null if no option is acknowledged
+         */
+        ByteBuffer oack(final Transport transport) {
+            if (this.acked.isEmpty()) {
+                return null;
+            }
+            int length = 2;
+            for (Option opt : this.acked) {
+                length += opt.length();
+            }
+            return PacketView.oack(transport.allocate(length), this.acked.toArray(new Option[0]));
+        }
+
+    }
+
+    /**
+     * Receives the requests on the listening channel.
+     */
+    private final class Listener implements EventLoop.Handler {
+
+        /**
+         * The buffer receiving the requests.
+         */
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(Session.DATA_SIZE + 4);
+
+        /**
+         * The view on the received requests.
+         */
+        private final PacketView view = new PacketView();
+
+        /**
+         * Registers the listening channel: called by the loop thread.
+         */
+        void open() {
+            try {
+                TFTPServer.this.loops[0].register(TFTPServer.this.channel, this);
+            } catch (IOException e) {
+                abort();
+            }
+        }
+
+        @Override
+        public void readable() {
+            try {
+                while (true) {
+                    this.buffer.clear();
+                    final InetSocketAddress client = (InetSocketAddress) TFTPServer.this.channel.receive(this.buffer);
+                    if (client == null) {
+                        return;
+                    }
+                    if (this.view.wrap(this.buffer.flip()) && (this.view.getOperation() == EOperation.READ
+                            || this.view.getOperation() == EOperation.WRITE)) {
+                        accept(Request.from(this.view, client.getAddress(), client.getPort()), client);
+                    }
+                }
+            } catch (IOException e) {
+                abort();
+            }
+        }
+
+        @Override
+        public void expired() {
+            // the listening channel never expires
+        }
+
+        @Override
+        public long deadline() {
+            return System.nanoTime() + TimeUnit.HOURS.toNanos(1);
+        }
+
+        @Override
+        public void abort() {
+            try {
+                TFTPServer.this.channel.close();
+            } catch (IOException e) {
+                // nothing more to release
+            }
+        }
+
+    }
+
+}
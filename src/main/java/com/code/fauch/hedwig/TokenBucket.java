@@ -0,0 +1,140 @@
+/*
+ * Copyright 2019 Claire Fauch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.code.fauch.hedwig;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Token bucket limiting the rate of the bytes sent or received.
+ *
+ * The bucket is filled at the given rate up to a burst of 10 milliseconds of traffic, and at least one block of
+ * the default size. Each packet takes its size from the bucket, which may go below zero: the caller then waits
+ * for the time needed to fill the bucket back, so that the following packets are spaced at the given rate
+ * instead of being sent in a burst. A lock is used instead of a monitor, so that the bucket may be shared by
+ * virtual threads. The lock is not taken while the rate is unlimited, so that the transfers sharing a bucket
+ * without limit do not wait for each other.
+ *
+ * @author c.fauch
+ *
+ */
+final class TokenBucket {
+
+    /**
+     * The duration of the traffic allowed in a burst in nanoseconds.
+     */
+    private static final long BURST = TimeUnit.MILLISECONDS.toNanos(10);
+
+    /**
+     * Guards the state of the bucket.
+     */
+    private final Lock lock = new ReentrantLock();
+
+    /**
+     * The rate in bytes per second (0 if unlimited): changed with the lock held.
+     */
+    private volatile long rate;
+
+    /**
+     * The number of bytes that may be taken without waiting, negative if taken in advance.
+     */
+    private double tokens;
+
+    /**
+     * The time of the last filling in nanoseconds (see System.nanoTime()).
+     */
+    private long filled = System.nanoTime();
+
+    /**
+     * Constructor.
+     *
+     * @param rate the rate in bytes per second (0 if unlimited)
+     */
+    TokenBucket(final long rate) {
+        this.rate = rate;
+        this.tokens = capacity(rate);
+    }
+
+    /**
+     * Changes the rate: the bytes already taken in advance are kept.
+     *
+     * @param rate the rate in bytes per second (0 if unlimited)
+     */
+    void setRate(final long rate) {
+        this.lock.lock();
+        try {
+            fill(System.nanoTime());
+            this.rate = rate;
+            this.tokens = Math.min(this.tokens, capacity(rate));
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * @return the rate in bytes per second (0 if unlimited)
+     */
+    long getRate() {
+        return this.rate;
+    }
+
+    /**
+     * Takes bytes from the bucket.
+     *
+     * @param bytes the number of bytes to take
+     * @return the time to wait before using them in nanoseconds (0 if none)
+     */
+    long take(final int bytes) {
+        if (this.rate == 0) {
+            return 0;
+        }
+        this.lock.lock();
+        try {
+            if (this.rate == 0) {
+                return 0;
+            }
+            fill(System.nanoTime());
+            this.tokens -= bytes;
+            return this.tokens >= 0 ? 0 : (long) (-this.tokens * TimeUnit.SECONDS.toNanos(1) / this.rate);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Fills the bucket with the bytes allowed since the last filling.
+     *
+     * @param now the current time in nanoseconds
+     */
+    private void fill(final long now) {
+        if (this.rate > 0) {
+            final double allowed = (double) (now - this.filled) * this.rate / TimeUnit.SECONDS.toNanos(1);
+            this.tokens = Math.min(this.tokens + allowed, capacity(this.rate));
+        }
+        this.filled = now;
+    }
+
+    /**
+     * Returns the number of bytes allowed in a burst.
+     *
+     * @param rate the rate in bytes per second (0 if unlimited)
+     * @return the capacity of the bucket in bytes
+     */
+    private static double capacity(final long rate) {
+        return Math.max((double) rate * BURST / TimeUnit.SECONDS.toNanos(1), Session.DATA_SIZE + 4);
+    }
+
+}
@@ -0,0 +1,355 @@
+/*
+ * Copyright 2019 Claire Fauch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.code.fauch.hedwig;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.StandardSocketOptions;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Asynchronous transfer driven by an event loop.
+ *
+ * The transfer owns its channel: it is open on the loop thread when the transfer starts and closed once the
+ * transfer is complete, failed or cancelled, with the resource attached to the session. A transfer may instead
+ * be attached to a channel shared with the other transfers of its loop, and detached once closed. The result
+ * of the transfer completes the future.
+ *
+ * @author c.fauch
+ *
+ */
+final class Transfer implements EventLoop.Handler {
+
+    /**
+     * Starts a session over the transport of a transfer.
+     */
+    interface Starter {
+
+        /**
+         * Creates the session and sends its first packet.
+         *
+         * @param transport the transport of the transfer (not null)
+         * @return the started session
+         * @throws IOException
+         */
+        Session start(Transport transport) throws IOException;
+
+    }
+
+    /**
+     * The future completed by the result of the transfer.
+     */
+    private final CompletableFuture<TransferResult> future = new CompletableFuture<>();
+
+    /**
+     * Starts the session.
+     */
+    private final Starter starter;
+
+    /**
+     * Called once when the transfer is closed.
+     */
+    private final Runnable onClose;
+
+    /**
+     * The local address to bind the channel to (null for any address).
+     */
+    private final InetAddress local;
+
+    /**
+     * The network interface the multicast packets are sent through (null for the default interface).
+     */
+    private NetworkInterface nif;
+
+    /**
+     * The channel shared with other transfers of the loop (null if the transfer owns its channel).
+     */
+    private Demultiplexer shared;
+
+    /**
+     * The transfer identifier of the remote host on the shared channel (null if not shared).
+     */
+    private InetSocketAddress remote;
+
+    /**
+     * The event loop driving the transfer (null until submitted).
+     */
+    private volatile EventLoop loop;
+
+    /**
+     * The registration key of the channel (null until open).
+     */
+    private SelectionKey key;
+
+    /**
+     * The transport of the transfer (null until open).
+     */
+    private Transport transport;
+
+    /**
+     * The session (null until open).
+     */
+    private Session session;
+
+    /**
+     * True once the transfer is closed.
+     */
+    private boolean closed;
+
+    /**
+     * Constructor.
+     *
+     * @param starter starts the session (not null)
+     * @param onClose called once when the transfer is closed (not null)
+     */
+    Transfer(final Starter starter, final Runnable onClose) {
+        this(starter, onClose, null);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param starter starts the session (not null)
+     * @param onClose called once when the transfer is closed (not null)
+     * @param local the local address to bind the channel to (null for any address)
+     */
+    Transfer(final Starter starter, final Runnable onClose, final InetAddress local) {
+        this.starter = starter;
+        this.onClose = onClose;
+        this.local = local;
+        this.future.whenComplete((r, e) -> {
+            if (this.future.isCancelled() && this.loop != null) {
+                this.loop.execute(this::cancel);
+            }
+        });
+    }
+
+    /**
+     * @return the future completed by the result of the transfer
+     */
+    CompletableFuture<TransferResult> getFuture() {
+        return this.future;
+    }
+
+    /**
+     * @return the session (null until open): must be called by the loop thread
+     */
+    Session getSession() {
+        return this.session;
+    }
+
+    /**
+     * Sets the network interface the multicast packets are sent through.
+     *
+     * @param nif the network interface (null for the default interface)
+     * @return this transfer
+     */
+    Transfer multicast(final NetworkInterface nif) {
+        this.nif = nif;
+        return this;
+    }
+
+    /**
+     * Runs the transfer over a channel shared with other transfers instead of its own channel.
+     *
+     * @param demultiplexer the shared channel, registered on the loop the transfer is submitted to (not null)
+     * @param remote the transfer identifier of the remote host (not null)
+     * @return this transfer
+     */
+    Transfer shared(final Demultiplexer demultiplexer, final InetSocketAddress remote) {
+        this.shared = demultiplexer;
+        this.remote = remote;
+        return this;
+    }
+
+    /**
+     * Submits the transfer to an event loop.
+     *
+     * @param loop the event loop (not null)
+     */
+    void submit(final EventLoop loop) {
+        this.loop = loop;
+        loop.execute(this::open);
+    }
+
+    /**
+     * Fails the transfer if not already complete.
+     *
+     * @param cause the cause of the failure (not null)
+     */
+    void fail(final Throwable cause) {
+        if (!this.closed && this.session != null) {
+            this.session.failed(cause);
+        }
+        final IOException failure = close();
+        if (failure != null) {
+            cause.addSuppressed(failure);
+        }
+        this.future.completeExceptionally(cause);
+    }
+
+    @Override
+    public void readable() {
+        try {
+            while (!this.closed && this.transport.receive(this.session.getBuffer(), 0)) {
+                this.session.received();
+                if (this.session.isDone()) {
+                    final IOException failure = close();
+                    if (failure == null) {
+                        this.future.complete(this.session.getResult());
+                    } else { // the received file may not be complete
+                        this.future.completeExceptionally(failure);
+                    }
+                }
+            }
+            if (!this.closed) {
+                this.loop.armed(this.session.deadline());
+            }
+        } catch (IOException | TFTPException | RuntimeException e) {
+            fail(e);
+        } catch (InternalError e) {
+            fail(truncated(e));
+        }
+    }
+
+    @Override
+    public void expired() {
+        try {
+            this.session.expired();
+        } catch (IOException | RuntimeException e) {
+            fail(e);
+        } catch (InternalError e) {
+            fail(truncated(e));
+        }
+    }
+
+    @Override
+    public long deadline() {
+        return this.session.deadline();
+    }
+
+    @Override
+    public void abort() {
+        fail(new IOException("Event loop closed"));
+    }
+
+    /**
+     * Returns the failure of a transfer reading a file truncated while mapped. In compiled code, the fault in the
+     * mapped pages is raised as an InternalError once back in the handler, not by the read itself.
+     *
+     * @param error the error raised by the fault (not null)
+     * @return the failure of the transfer
+     */
+    private static IOException truncated(final InternalError error) {
+        return new IOException("File truncated while read", error);
+    }
+
+    /**
+     * Opens the channel of the transfer and starts the session: called by the loop thread.
+     */
+    private void open() {
+        if (this.future.isDone()) {
+            close();
+            return;
+        }
+        try {
+            if (this.shared != null) {
+                this.transport = this.shared.attach(this.remote, this);
+                this.session = this.starter.start(this.transport);
+                return;
+            }
+            final DatagramChannel channel = DatagramChannel.open();
+            this.transport = new SelectableTransport(channel);
+            channel.configureBlocking(false);
+            if (this.local != null) {
+                channel.bind(new InetSocketAddress(this.local, 0));
+            }
+            if (this.nif != null) {
+                channel.setOption(StandardSocketOptions.IP_MULTICAST_IF, this.nif);
+            }
+            this.key = this.loop.register(channel, this);
+            this.session = this.starter.start(this.transport);
+        } catch (IOException | RuntimeException e) {
+            fail(e);
+        } catch (InternalError e) {
+            fail(truncated(e));
+        }
+    }
+
+    /**
+     * Cancels the transfer: the remote host is notified if known. Called by the loop thread.
+     */
+    private void cancel() {
+        if (this.closed) {
+            return;
+        }
+        if (this.session != null) {
+            this.session.failed(new CancellationException("Transfer cancelled"));
+        }
+        if (this.session != null && this.session.remote != null) {
+            try {
+                this.transport.send(PacketView.error(this.transport.allocate(32), EError.NOT_DEFINED,
+                        "Transfer cancelled"), this.session.remote);
+            } catch (IOException e) {
+                // the remote host will time out
+            }
+        }
+        close(); // a failure to close cannot be reported: the future is already cancelled
+    }
+
+    /**
+     * Closes the channel of the transfer and the resource of the session, even if closing the other one fails.
+     *
+     * @return the failure to close them (null if none or already closed)
+     */
+    private IOException close() {
+        if (this.closed) {
+            return null;
+        }
+        this.closed = true;
+        if (this.key != null) {
+            this.key.cancel();
+        }
+        IOException failure = null;
+        try {
+            if (this.transport != null) {
+                this.transport.close();
+            }
+        } catch (IOException e) {
+            failure = e;
+        } finally {
+            try {
+                if (this.session != null) {
+                    this.session.close();
+                }
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            } finally {
+                this.onClose.run();
+            }
+        }
+        return failure;
+    }
+
+}
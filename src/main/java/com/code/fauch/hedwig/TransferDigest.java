@@ -0,0 +1,106 @@
+/*
+ * Copyright 2019 Claire Fauch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.code.fauch.hedwig;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.CRC32C;
+import java.util.zip.Checksum;
+
+/**
+ * Digest of the content of a transfer, computed block by block as the blocks are sent or received.
+ *
+ * The algorithm is either a message digest algorithm ("SHA-256", "MD5"...) or "CRC32C", whose value is given
+ * as 4 bytes in big-endian order.
+ *
+ * @author c.fauch
+ *
+ */
+final class TransferDigest {
+
+    /**
+     * The CRC32C algorithm.
+     */
+    static final String CRC32C = "CRC32C";
+
+    /**
+     * The message digest (null for CRC32C).
+     */
+    private final MessageDigest md;
+
+    /**
+     * The checksum (null for a message digest).
+     */
+    private final Checksum checksum;
+
+    /**
+     * Constructor.
+     *
+     * @param md the message digest (null for CRC32C)
+     * @param checksum the checksum (null for a message digest)
+     */
+    private TransferDigest(final MessageDigest md, final Checksum checksum) {
+        this.md = md;
+        this.checksum = checksum;
+    }
+
+    /**
+     * Builds a new digest.
+     *
+     * @param algorithm "CRC32C" or the name of a message digest algorithm (not null)
+     * @return the new digest
+     * @throws IllegalArgumentException if the algorithm is not available
+     */
+    static TransferDigest of(final String algorithm) {
+        if (CRC32C.equalsIgnoreCase(algorithm)) {
+            return new TransferDigest(null, new CRC32C());
+        }
+        try {
+            return new TransferDigest(MessageDigest.getInstance(algorithm), null);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException("Unknown digest algorithm: " + algorithm, e);
+        }
+    }
+
+    /**
+     * Updates the digest with the content of a buffer between its position and its limit. The position of the
+     * buffer is not changed.
+     *
+     * @param data the buffer (not null)
+     */
+    void update(final ByteBuffer data) {
+        final int position = data.position();
+        if (this.md != null) {
+            this.md.update(data);
+        } else {
+            this.checksum.update(data);
+        }
+        data.position(position);
+    }
+
+    /**
+     * Completes the digest.
+     *
+     * @return the value of the digest
+     */
+    byte[] digest() {
+        if (this.md != null) {
+            return this.md.digest();
+        }
+        return ByteBuffer.allocate(4).putInt((int) this.checksum.getValue()).array();
+    }
+
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2019 Claire Fauch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.code.fauch.hedwig;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event of a whole transfer, committed once the transfer is complete or failed.
+ *
+ * @author c.fauch
+ *
+ */
+@Name("com.code.fauch.hedwig.Transfer")
+@Label("TFTP Transfer")
+@Category("Hedwig")
+@Description("A TFTP transfer from the request to the last block")
+final class TransferEvent extends jdk.jfr.Event {
+
+    @Label("File Name")
+    String fileName;
+
+    @Label("Remote Host")
+    String remoteHost;
+
+    @Label("Remote Port")
+    int remotePort;
+
+    @Label("Operation")
+    @Description("The operation of the request: READ or WRITE")
+    String operation;
+
+    @Label("Server")
+    @Description("True if the transfer answers a request received by a server")
+    boolean server;
+
+    @Label("Block Size")
+    int blksize;
+
+    @Label("Window Size")
+    int windowsize;
+
+    @Label("Transfer Size")
+    @Description("The size acknowledged by the tsize option or -1 if not acknowledged")
+    @DataAmount
+    long tsize = -1;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+
+    @Label("Blocks")
+    long blocks;
+
+    @Label("Retransmissions")
+    int retransmissions;
+
+    @Label("Duplicates")
+    @Description("The number of duplicated DATA or ACK packets dropped")
+    int duplicates;
+
+    @Label("Out Of Order")
+    @Description("The number of DATA blocks received ahead of sequence")
+    int outOfOrder;
+
+    @Label("Failure")
+    @Description("The cause of the failure or null if the transfer is complete")
+    String failure;
+
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2019 Claire Fauch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.code.fauch.hedwig;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Objects;
+import java.util.concurrent.Flow;
+
+/**
+ * Transfer to run by a TFTPExecutor: the file to put or to get and its local source or sink.
+ *
+ * @author c.fauch
+ *
+ */
+public final class TransferJob {
+
+    /**
+     * Runs the transfer of a job with a client.
+     */
+    @FunctionalInterface
+    private interface Runner {
+
+        /**
+         * @param tftp the client to use (not null)
+         * @return the result of the transfer
+         * @throws IOException
+         * @throws TFTPException
+         */
+        TransferResult run(TFTP tftp) throws IOException, TFTPException;
+
+    }
+
+    /**
+     * The name of the remote file.
+     */
+    private final String fileName;
+
+    /**
+     * Runs the transfer.
+     */
+    private final Runner runner;
+
+    /**
+     * Constructor.
+     *
+     * @param fileName the name of the remote file
+     * @param runner runs the transfer (not null)
+     */
+    private TransferJob(final String fileName, final Runner runner) {
+        this.fileName = fileName;
+        this.runner = runner;
+    }
+
+    /**
+     * Builds a job to put a file.
+     *
+     * @param host the destination host
+     * @param port the destination port
+     * @param input the input stream open on the file to send (not null)
+     * @param fileName the name of the resulting remote file
+     * @param mode the send mode: "octet", "netascii", "mail"
+     * @param options options: "blksize", "timeout", "tsize", "windowsize"
+     * @return the new job
+     */
+    public static TransferJob put(final InetAddress host, final int port, final InputStream input,
+            final String fileName, final String mode, final Option... options) {
+        Objects.requireNonNull(input, "missing input");
+        return new TransferJob(fileName, tftp -> tftp.put(host, port, input, fileName, mode, options));
+    }
+
+    /**
+     * Builds a job to put a file emitted by a publisher.
+     *
+     * The publisher is subscribed once the transfer starts. A few buffers are requested in advance, then one
+     * more each time a buffer is sent, so that the transfer pulls the content at its own pace. The subscription
+     * is cancelled if the transfer fails, and the transfer fails if the publisher fails.
+     *
+     * @param host the destination host
+     * @param port the destination port
+     * @param source the publisher of the content of the file to send (not null)
+     * @param fileName the name of the resulting remote file
+     * @param mode the send mode: "octet", "netascii", "mail"
+     * @param options options: "blksize", "timeout", "tsize", "windowsize"
+     * @return the new job
+     */
+    public static TransferJob put(final InetAddress host, final int port,
+            final Flow.Publisher<? extends ByteBuffer> source, final String fileName, final String mode,
+            final Option... options) {
+        Objects.requireNonNull(source, "missing source");
+        return new TransferJob(fileName, tftp -> {
+            try (PublisherInput input = new PublisherInput(source, PublisherInput.PREFETCH)) {
+                return tftp.put(host, port, input, fileName, mode, options);
+            }
+        });
+    }
+
+    /**
+     * Builds a job to get a file.
+     *
+     * @param host the destination host
+     * @param port the destination port
+     * @param output the output stream open on the local file to write (not null)
+     * @param fileName the name of the remote file to download
+     * @param mode the send mode: "octet", "netascii", "mail"
+     * @param options options: "blksize", "timeout", "tsize", "windowsize"
+     * @return the new job
+     */
+    public static TransferJob get(final InetAddress host, final int port, final OutputStream output,
+            final String fileName, final String mode, final Option... options) {
+        Objects.requireNonNull(output, "missing output");
+        return new TransferJob(fileName, tftp -> tftp.get(host, port, output, fileName, mode, options));
+    }
+
+    /**
+     * Builds a job to get a file written into a channel: each received block is written at once, by a single
+     * write.
+     *
+     * @param host the destination host
+     * @param port the destination port
+     * @param output the channel to write (not null)
+     * @param fileName the name of the remote file to download
+     * @param mode the send mode: "octet", "netascii", "mail"
+     * @param options options: "blksize", "timeout", "tsize", "windowsize"
+     * @return the new job
+     */
+    static TransferJob get(final InetAddress host, final int port, final WritableByteChannel output,
+            final String fileName, final String mode, final Option... options) {
+        Objects.requireNonNull(output, "missing output");
+        return new TransferJob(fileName, tftp -> tftp.get(host, port, output, null, fileName, mode, options));
+    }
+
+    /**
+     * @return the name of the remote file
+     */
+    public String getFileName() {
+        return this.fileName;
+    }
+
+    /**
+     * Runs the transfer.
+     *
+     * @param tftp the client to use (not null)
+     * @return the result of the transfer
+     * @throws IOException
+     * @throws TFTPException
+     */
+    TransferResult run(final TFTP tftp) throws IOException, TFTPException {
+        return this.runner.run(tftp);
+    }
+
+}
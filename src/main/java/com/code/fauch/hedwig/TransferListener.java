@@ -0,0 +1,124 @@
+/*
+ * Copyright 2019 Claire Fauch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.code.fauch.hedwig;
+
+import java.net.InetSocketAddress;
+
+/**
+ * Listener of the events of transfers.
+ *
+ * The callbacks are invoked synchronously by the thread driving the transfer when the event occurs: a listener
+ * needing timestamps reads the clock itself, and it must return quickly since the transfer waits for it. A same
+ * listener may be notified by several transfers at the same time.
+ *
+ * All the callbacks do nothing by default. Without listener, the transfers use NONE: no event is built and no
+ * clock is read, so that the instrumentation costs nothing when disabled.
+ *
+ * @author c.fauch
+ *
+ */
+public interface TransferListener {
+
+    /**
+     * The listener ignoring all the events.
+     */
+    TransferListener NONE = new TransferListener() {
+    };
+
+    /**
+     * Called when the READ/WRITE request is sent for the first time.
+     *
+     * @param fileName the name of the remote file
+     * @param operation the operation of the request: "READ" or "WRITE"
+     * @param remote the address and port the request is sent to
+     * @param options the requested options
+     */
+    default void requested(final String fileName, final String operation, final InetSocketAddress remote,
+            final Option[] options) {
+    }
+
+    /**
+     * Called when the remote host acknowledges options.
+     *
+     * @param fileName the name of the remote file
+     * @param options the acknowledged options
+     */
+    default void negotiated(final String fileName, final Option[] options) {
+    }
+
+    /**
+     * Called when a DATA block is sent for the first time.
+     *
+     * @param fileName the name of the remote file
+     * @param block the block number
+     * @param bytes the number of bytes sent so far, this block included
+     */
+    default void sent(final String fileName, final int block, final long bytes) {
+    }
+
+    /**
+     * Called when a sent DATA block is acknowledged by the remote host.
+     *
+     * @param fileName the name of the remote file
+     * @param block the last acknowledged block number
+     */
+    default void acknowledged(final String fileName, final int block) {
+    }
+
+    /**
+     * Called when a DATA block is received in sequence.
+     *
+     * @param fileName the name of the remote file
+     * @param block the block number
+     * @param bytes the number of bytes received so far, this block included
+     */
+    default void received(final String fileName, final int block, final long bytes) {
+    }
+
+    /**
+     * Called when a download progresses, after each DATA block received in sequence.
+     *
+     * @param progress the progress of the download
+     */
+    default void progress(final TransferProgress progress) {
+    }
+
+    /**
+     * Called when a packet is sent again on timeout.
+     *
+     * @param fileName the name of the remote file
+     * @param retransmissions the total number of retransmissions of the transfer
+     */
+    default void retransmitted(final String fileName, final int retransmissions) {
+    }
+
+    /**
+     * Called when the transfer is complete.
+     *
+     * @param result the result of the transfer
+     */
+    default void completed(final TransferResult result) {
+    }
+
+    /**
+     * Called when the transfer fails.
+     *
+     * @param fileName the name of the remote file
+     * @param cause the cause of the failure
+     */
+    default void failed(final String fileName, final Throwable cause) {
+    }
+
+}
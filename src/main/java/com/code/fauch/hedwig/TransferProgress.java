@@ -0,0 +1,121 @@
+/*
+ * Copyright 2019 Claire Fauch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.code.fauch.hedwig;
+
+import java.time.Duration;
+
+/**
+ * Progress of a running download.
+ *
+ * @author c.fauch
+ *
+ */
+public final class TransferProgress {
+
+    /**
+     * The name of the remote file.
+     */
+    private final String fileName;
+
+    /**
+     * The number of bytes received so far.
+     */
+    private final long bytes;
+
+    /**
+     * The size announced by the remote host or -1 if unknown.
+     */
+    private final long total;
+
+    /**
+     * The time elapsed since the start of the transfer.
+     */
+    private final Duration elapsed;
+
+    /**
+     * Constructor.
+     *
+     * @param fileName the name of the remote file
+     * @param bytes the number of bytes received so far
+     * @param total the size announced by the remote host or -1 if unknown
+     * @param elapsed the time elapsed since the start of the transfer (not null)
+     */
+    TransferProgress(final String fileName, final long bytes, final long total, final Duration elapsed) {
+        this.fileName = fileName;
+        this.bytes = bytes;
+        this.total = total;
+        this.elapsed = elapsed;
+    }
+
+    /**
+     * @return the name of the remote file
+     */
+    public String getFileName() {
+        return this.fileName;
+    }
+
+    /**
+     * @return the number of bytes received so far
+     */
+    public long getBytes() {
+        return this.bytes;
+    }
+
+    /**
+     * @return the size announced by the remote host (tsize option) or -1 if unknown
+     */
+    public long getTotal() {
+        return this.total;
+    }
+
+    /**
+     * @return the time elapsed since the start of the transfer
+     */
+    public Duration getElapsed() {
+        return this.elapsed;
+    }
+
+    /**
+     * Returns the completed fraction of the transfer.
+     *
+     * @return the fraction between 0 and 1 or -1 if the size is unknown
+     */
+    public double getFraction() {
+        if (this.total < 0) {
+            return -1;
+        }
+        return this.total == 0 ? 1 : Math.min(1, (double) this.bytes / this.total);
+    }
+
+    /**
+     * Returns the estimated remaining time at the average rate of the transfer so far.
+     *
+     * @return the estimated remaining time or null if the size is unknown or nothing is received yet
+     */
+    public Duration getEta() {
+        if (this.total < 0 || this.bytes <= 0) {
+            return null;
+        }
+        final long remaining = Math.max(0, this.total - this.bytes);
+        return Duration.ofNanos((long) ((double) this.elapsed.toNanos() * remaining / this.bytes));
+    }
+
+    @Override
+    public String toString() {
+        return "TransferProgress [fileName=" + fileName + ", bytes=" + bytes + ", total=" + total + ", elapsed="
+                + elapsed + "]";
+    }
+
+}
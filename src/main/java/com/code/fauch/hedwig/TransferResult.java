@@ -0,0 +1,198 @@
+/*
+ * Copyright 2019 Claire Fauch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.code.fauch.hedwig;
+
+import java.time.Duration;
+
+/**
+ * Result of a completed transfer.
+ *
+ * @author c.fauch
+ *
+ */
+public final class TransferResult {
+
+    /**
+     * The name of the remote file.
+     */
+    private final String fileName;
+
+    /**
+     * The number of transferred bytes.
+     */
+    private final long bytes;
+
+    /**
+     * The number of transferred DATA blocks.
+     */
+    private final long blocks;
+
+    /**
+     * The number of retransmitted packets.
+     */
+    private final int retransmissions;
+
+    /**
+     * The number of duplicated packets dropped.
+     */
+    private final int duplicates;
+
+    /**
+     * The number of DATA blocks received ahead of sequence.
+     */
+    private final int outOfOrder;
+
+    /**
+     * The duration of the transfer.
+     */
+    private final Duration duration;
+
+    /**
+     * The digest of the transferred content (null if not computed).
+     */
+    private final byte[] digest;
+
+    /**
+     * Constructor.
+     *
+     * @param fileName the name of the remote file
+     * @param bytes the number of transferred bytes
+     * @param blocks the number of transferred DATA blocks
+     * @param retransmissions the number of retransmitted packets
+     * @param duration the duration of the transfer (not null)
+     */
+    TransferResult(final String fileName, final long bytes, final long blocks, final int retransmissions,
+            final Duration duration) {
+        this(fileName, bytes, blocks, retransmissions, duration, null);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param fileName the name of the remote file
+     * @param bytes the number of transferred bytes
+     * @param blocks the number of transferred DATA blocks
+     * @param retransmissions the number of retransmitted packets
+     * @param duration the duration of the transfer (not null)
+     * @param digest the digest of the transferred content (null if not computed)
+     */
+    TransferResult(final String fileName, final long bytes, final long blocks, final int retransmissions,
+            final Duration duration, final byte[] digest) {
+        this(fileName, bytes, blocks, retransmissions, 0, 0, duration, digest);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param fileName the name of the remote file
+     * @param bytes the number of transferred bytes
+     * @param blocks the number of transferred DATA blocks
+     * @param retransmissions the number of retransmitted packets
+     * @param duplicates the number of duplicated packets dropped
+     * @param outOfOrder the number of DATA blocks received ahead of sequence
+     * @param duration the duration of the transfer (not null)
+     * @param digest the digest of the transferred content (null if not computed)
+     */
+    TransferResult(final String fileName, final long bytes, final long blocks, final int retransmissions,
+            final int duplicates, final int outOfOrder, final Duration duration, final byte[] digest) {
+        this.fileName = fileName;
+        this.bytes = bytes;
+        this.blocks = blocks;
+        this.retransmissions = retransmissions;
+        this.duplicates = duplicates;
+        this.outOfOrder = outOfOrder;
+        this.duration = duration;
+        this.digest = digest;
+    }
+
+    /**
+     * @return the name of the remote file
+     */
+    public String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * @return the number of transferred bytes
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return the number of transferred DATA blocks
+     */
+    public long getBlocks() {
+        return blocks;
+    }
+
+    /**
+     * @return the number of retransmitted packets
+     */
+    public int getRetransmissions() {
+        return retransmissions;
+    }
+
+    /**
+     * @return the number of duplicated packets dropped: DATA blocks already received or ACKs already handled
+     */
+    public int getDuplicates() {
+        return duplicates;
+    }
+
+    /**
+     * @return the number of DATA blocks received ahead of sequence
+     */
+    public int getOutOfOrder() {
+        return outOfOrder;
+    }
+
+    /**
+     * @return the duration of the transfer
+     */
+    public Duration getDuration() {
+        return duration;
+    }
+
+    /**
+     * @return the digest of the transferred content or null if not computed
+     */
+    public byte[] getDigest() {
+        return digest == null ? null : digest.clone();
+    }
+
+    @Override
+    public String toString() {
+        return "TransferResult [fileName=" + fileName + ", bytes=" + bytes + ", blocks=" + blocks
+                + ", retransmissions=" + retransmissions + ", duplicates=" + duplicates + ", outOfOrder=" + outOfOrder
+                + ", duration=" + duration
+                + (digest == null ? "" : ", digest=" + hex(digest)) + "]";
+    }
+
+    /**
+     * Formats bytes in hexadecimal.
+     *
+     * @param bytes the bytes (not null)
+     * @return the lower case hexadecimal string
+     */
+    private static String hex(final byte[] bytes) {
+        final StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return builder.toString();
+    }
+
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2019 Claire Fauch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.code.fauch.hedwig;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * Datagram transport used for the time of a transfer.
+ *
+ * The packets are exchanged through byte buffers allocated by the transport itself and reused from one
+ * packet to the next one.
+ *
+ * @author c.fauch
+ *
+ */
+interface Transport extends Closeable {
+
+    /**
+     * Allocates a new buffer suitable for this transport.
+     *
+     * @param capacity the capacity of the buffer in bytes
+     * @return the new buffer
+     */
+    ByteBuffer allocate(int capacity);
+
+    /**
+     * Returns the default time to wait for a packet.
+     *
+     * @return the time to wait in milliseconds or 0 if not defined
+     */
+    int getTimeout();
+
+    /**
+     * Sends a packet.
+     *
+     * @param packet the buffer allocated by this transport and containing the packet between its position
+     * and its limit (not null)
+     * @param remote the destination (not null)
+     * @throws IOException
+     */
+    void send(ByteBuffer packet, InetSocketAddress remote) throws IOException;
+
+    /**
+     * Sends a packet to the source of the last received packet.
+     *
+     * @param packet the buffer allocated by this transport and containing the packet between its position
+     * and its limit (not null)
+     * @throws IOException
+     */
+    void reply(ByteBuffer packet) throws IOException;
+
+    /**
+     * Receives a packet.
+     *
+     * @param packet the buffer allocated by this transport: on return it contains the packet between 0
+     * and its limit (not null)
+     * @param timeout the time to wait in milliseconds (strictly positive)
+     * @return true if a packet was received, false if the time to wait has elapsed
+     * @throws IOException
+     */
+    boolean receive(ByteBuffer packet, int timeout) throws IOException;
+
+    /**
+     * Returns the source host of the last received packet.
+     *
+     * @return the source host
+     */
+    InetAddress getAddress();
+
+    /**
+     * Returns the source port of the last received packet.
+     *
+     * @return the source port
+     */
+    int getPort();
+
+}
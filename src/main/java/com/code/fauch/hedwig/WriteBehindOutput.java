@@ -0,0 +1,209 @@
+/*
+ * Copyright 2019 Claire Fauch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.code.fauch.hedwig;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Channel writing into another channel behind the session, on a dedicated thread.
+ *
+ * The written bytes are copied into a ring of buffers allocated once, and the writing thread drains the ring
+ * in order into the wrapped channel: a block is thus acknowledged without waiting for a slow sink. A write
+ * waits for a free buffer when the ring is full, so that the session is slowed down to the pace of the sink.
+ * A failure of the sink is thrown by the next write or flush; the following buffers are dropped. A flush waits
+ * until the whole ring is written, then flushes the wrapped channel if it can be. The wrapped channel is not
+ * closed with this channel: the writing thread is never interrupted, so that an interruptible channel over the
+ * stream of the caller stays open, and stops once its current write returns.
+ *
+ * @author c.fauch
+ *
+ */
+final class WriteBehindOutput implements WritableByteChannel, Flushable {
+
+    /**
+     * Marker stopping the writing thread waiting for a buffer to write.
+     */
+    private static final ByteBuffer STOP = ByteBuffer.allocate(0);
+
+    /**
+     * The channel to write.
+     */
+    private final WritableByteChannel target;
+
+    /**
+     * The number of buffers of the ring.
+     */
+    private final int count;
+
+    /**
+     * The buffers to fill.
+     */
+    private final BlockingQueue<ByteBuffer> free;
+
+    /**
+     * The filled buffers in write order.
+     */
+    private final BlockingQueue<ByteBuffer> filled;
+
+    /**
+     * The writing thread.
+     */
+    private final Thread thread;
+
+    /**
+     * The failure of the sink (null if none).
+     */
+    private volatile IOException error;
+
+    /**
+     * True once closed.
+     */
+    private volatile boolean closed;
+
+    /**
+     * Constructor: the writing thread is started.
+     *
+     * @param target the channel to write (not null)
+     * @param count the number of buffers of the ring (strictly positive)
+     * @param size the size of a buffer (strictly positive)
+     */
+    WriteBehindOutput(final WritableByteChannel target, final int count, final int size) {
+        this.target = target;
+        this.count = count;
+        this.free = new ArrayBlockingQueue<>(count);
+        this.filled = new ArrayBlockingQueue<>(count);
+        for (int i = 0; i < count; i++) {
+            this.free.add(ByteBuffer.allocate(size));
+        }
+        this.thread = new Thread(this::run, "hedwig-write-behind");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    @Override
+    public int write(final ByteBuffer src) throws IOException {
+        check();
+        final int written = src.remaining();
+        while (src.hasRemaining()) {
+            final ByteBuffer buffer = take();
+            if (src.remaining() > buffer.remaining()) {
+                final int limit = src.limit();
+                buffer.put(src.limit(src.position() + buffer.remaining()));
+                src.limit(limit);
+            } else {
+                buffer.put(src);
+            }
+            this.filled.add(buffer.flip());
+        }
+        return written;
+    }
+
+    /**
+     * Waits until the whole ring is written then flushes the wrapped channel.
+     */
+    @Override
+    public void flush() throws IOException {
+        check();
+        final ByteBuffer[] buffers = new ByteBuffer[this.count];
+        for (int i = 0; i < this.count; i++) {
+            buffers[i] = take();
+        }
+        for (ByteBuffer buffer : buffers) {
+            this.free.add(buffer);
+        }
+        check();
+        if (this.target instanceof Flushable) {
+            ((Flushable) this.target).flush();
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !this.closed;
+    }
+
+    /**
+     * Stops the writing thread, without interrupting it: the buffers not written yet are dropped.
+     */
+    @Override
+    public void close() {
+        this.closed = true;
+        // if all the buffers are filled, the writing thread does not wait and sees it is closed
+        this.filled.offer(STOP);
+    }
+
+    /**
+     * Throws the failure of the sink if any.
+     *
+     * @throws IOException
+     */
+    private void check() throws IOException {
+        if (this.closed) {
+            throw new ClosedChannelException();
+        }
+        if (this.error != null) {
+            throw this.error;
+        }
+    }
+
+    /**
+     * Takes a free buffer.
+     *
+     * @return the cleared buffer
+     * @throws InterruptedIOException if the calling thread is interrupted
+     */
+    private ByteBuffer take() throws InterruptedIOException {
+        try {
+            return this.free.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing behind");
+        }
+    }
+
+    /**
+     * Drains the filled buffers until closed.
+     */
+    private void run() {
+        try {
+            while (!this.closed) {
+                final ByteBuffer buffer = this.filled.take();
+                if (buffer == STOP) {
+                    return;
+                }
+                if (this.error == null) {
+                    try {
+                        while (buffer.hasRemaining()) {
+                            this.target.write(buffer);
+                        }
+                    } catch (IOException e) {
+                        this.error = e;
+                    }
+                }
+                this.free.add(buffer.clear());
+            }
+        } catch (InterruptedException e) {
+            // closed
+        }
+    }
+
+}
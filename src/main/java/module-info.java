@@ -1,3 +1,4 @@
 module com.code.fauch.hedwig {
+    requires jdk.jfr;
     exports com.code.fauch.hedwig;
 }
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2019 Claire Fauch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.code.fauch.hedwig;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * TU for ChannelTransport
+ *
+ * @author c.fauch
+ *
+ */
+public class ChannelTransportTest {
+
+    @Test
+    public void testSendReceive() throws IOException {
+        try (DatagramChannel sender = DatagramChannel.open(); DatagramChannel receiver = DatagramChannel.open()) {
+            receiver.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            sender.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            try (Transport snd = new ChannelTransport(sender); Transport rcv = new ChannelTransport(receiver)) {
+                final ByteBuffer out = snd.allocate(4);
+                Assert.assertTrue(out.isDirect());
+                out.putShort(EOperation.ACK.getCode()).putShort((short) 12).flip();
+                snd.send(out, (InetSocketAddress) receiver.getLocalAddress());
+                final ByteBuffer in = rcv.allocate(516);
+                Assert.assertTrue(rcv.receive(in, 1000));
+                Assert.assertEquals(4, in.limit());
+                Assert.assertEquals(EOperation.ACK.getCode(), in.getShort(0));
+                Assert.assertEquals(12, in.getShort(2));
+                Assert.assertEquals(((InetSocketAddress) sender.getLocalAddress()).getPort(), rcv.getPort());
+                Assert.assertEquals(InetAddress.getLoopbackAddress(), rcv.getAddress());
+            }
+        }
+    }
+
+    @Test
+    public void testReceiveTimeout() throws IOException {
+        try (DatagramChannel channel = DatagramChannel.open()) {
+            channel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            try (Transport transport = new ChannelTransport(channel)) {
+                final long start = System.nanoTime();
+                Assert.assertFalse(transport.receive(transport.allocate(516), 50));
+                Assert.assertTrue(System.nanoTime() - start >= 40_000_000L);
+            }
+        }
+    }
+
+    @Test
+    public void testRestoreBlockingMode() throws IOException {
+        try (DatagramChannel channel = DatagramChannel.open()) {
+            final Transport transport = new ChannelTransport(channel);
+            try {
+                Assert.assertFalse(channel.isBlocking());
+            } finally {
+                transport.close();
+            }
+            Assert.assertTrue(channel.isBlocking());
+        }
+    }
+
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2019 Claire Fauch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.code.fauch.hedwig;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.DatagramChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * TU for ERollover
+ *
+ * @author c.fauch
+ *
+ */
+public class ERolloverTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testMaxSize() {
+        Assert.assertEquals(65535L * 512 - 1, ERollover.NONE.getMaxSize(512));
+        Assert.assertEquals(Long.MAX_VALUE, ERollover.ZERO.getMaxSize(512));
+        Assert.assertEquals(ERollover.ZERO, ERollover.of(0));
+        Assert.assertEquals(ERollover.ONE, ERollover.of(1));
+        Assert.assertNull(ERollover.of(2));
+    }
+
+    @Test
+    public void testFitted() {
+        final Option[] options = {Option.blksize(8), Option.windowsize(4)};
+        Assert.assertSame(options, Sender.fitted(options, 65535L * 8 - 1, ERollover.NONE));
+        Assert.assertSame(options, Sender.fitted(options, 10_000_000, ERollover.ONE));
+        final Option[] fitted = Sender.fitted(options, 10_000_000, ERollover.NONE);
+        Assert.assertEquals(153, fitted[0].getValue());
+        Assert.assertTrue(10_000_000 <= ERollover.NONE.getMaxSize((int) fitted[0].getValue()));
+        Assert.assertEquals(513, Sender.fitted(new Option[0], 65535L * 512, ERollover.NONE)[0].getValue());
+    }
+
+    @Test
+    public void testRollover() throws IOException, TFTPException {
+        final byte[] content = new byte[600_000]; // 75001 blocks of 8 bytes
+        new Random(1).nextBytes(content);
+        final Path root = this.folder.getRoot().toPath();
+        Files.write(root.resolve("file.bin"), content);
+        try (TFTPServer server = new TFTPServer(root).writable(true)
+                .start(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+                DatagramChannel channel = DatagramChannel.open()) {
+            final int port = server.getAddress().getPort();
+            final ByteArrayOutputStream output = new ByteArrayOutputStream();
+            final TransferResult result = new TFTP(channel).get(InetAddress.getLoopbackAddress(), port, output,
+                    "file.bin", "octet", Option.blksize(8), Option.windowsize(16), Option.rollover(0));
+            Assert.assertEquals(75_001, result.getBlocks());
+            Assert.assertArrayEquals(content, output.toByteArray());
+            new TFTP(channel).put(InetAddress.getLoopbackAddress(), port, new ByteArrayInputStream(content),
+                    "uploaded.bin", "octet", Option.blksize(8), Option.windowsize(16));
+            Assert.assertArrayEquals(content, Files.readAllBytes(root.resolve("uploaded.bin")));
+        }
+    }
+
+    @Test
+    public void testNoRollover() throws IOException, TFTPException {
+        final Path root = this.folder.getRoot().toPath();
+        Files.write(root.resolve("file.bin"), new byte[600_000]);
+        try (TFTPServer server = new TFTPServer(root).writable(true).rollover(ERollover.NONE)
+                .start(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+                DatagramChannel channel = DatagramChannel.open()) {
+            final int port = server.getAddress().getPort();
+            try {
+                new TFTP(channel).get(InetAddress.getLoopbackAddress(), port, new ByteArrayOutputStream(),
+                        "file.bin", "octet", Option.blksize(8));
+                Assert.fail("error expected");
+            } catch (TFTPException e) {
+                Assert.assertEquals(EError.OPTION_NEGOTIATION_FAILED, e.getError());
+            }
+            // the block size is raised to send the whole file
+            new TFTP(channel).rollover(ERollover.NONE).put(InetAddress.getLoopbackAddress(), port,
+                    root.resolve("file.bin"), "uploaded.bin", "octet", Option.blksize(8));
+            Assert.assertEquals(600_000, Files.size(root.resolve("uploaded.bin")));
+        }
+    }
+
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2019 Claire Fauch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.code.fauch.hedwig;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * TU for FileCache
+ *
+ * @author c.fauch
+ *
+ */
+public class FileCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path create(final String name, final int size, final int seed) throws IOException {
+        final byte[] content = new byte[size];
+        new Random(seed).nextBytes(content);
+        return Files.write(this.folder.getRoot().toPath().resolve(name), content);
+    }
+
+    private static BasicFileAttributes attributes(final Path file) throws IOException {
+        return Files.readAttributes(file, BasicFileAttributes.class);
+    }
+
+    private static byte[] bytes(final ByteBuffer buffer) {
+        final byte[] content = new byte[buffer.remaining()];
+        buffer.get(content);
+        return content;
+    }
+
+    @Test
+    public void testShared() throws IOException {
+        final Path file = create("a.bin", 10_000, 1);
+        final FileCache cache = new FileCache(100_000);
+        final ByteBuffer first = cache.get(file, attributes(file));
+        final ByteBuffer second = cache.get(file, attributes(file));
+        Assert.assertArrayEquals(Files.readAllBytes(file), bytes(first));
+        Assert.assertArrayEquals(Files.readAllBytes(file), bytes(second));
+        Assert.assertEquals(1, cache.getMisses());
+        Assert.assertEquals(1, cache.getHits());
+        Assert.assertEquals(10_000, cache.getUsed());
+    }
+
+    @Test
+    public void testModified() throws IOException {
+        final Path file = create("a.bin", 10_000, 1);
+        final FileCache cache = new FileCache(100_000);
+        cache.get(file, attributes(file));
+        create("a.bin", 10_000, 2);
+        Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() + 2000));
+        Assert.assertArrayEquals(Files.readAllBytes(file), bytes(cache.get(file, attributes(file))));
+        Assert.assertEquals(2, cache.getMisses());
+        Assert.assertEquals(10_000, cache.getUsed());
+    }
+
+    @Test
+    public void testEviction() throws IOException {
+        final Path a = create("a.bin", 40_000, 1);
+        final Path b = create("b.bin", 40_000, 2);
+        final Path c = create("c.bin", 40_000, 3);
+        final FileCache cache = new FileCache(100_000);
+        cache.get(a, attributes(a));
+        cache.get(b, attributes(b));
+        cache.get(a, attributes(a));
+        cache.get(c, attributes(c)); // evicts b, the least recently used
+        Assert.assertEquals(80_000, cache.getUsed());
+        cache.get(a, attributes(a));
+        Assert.assertEquals(2, cache.getHits());
+        cache.get(b, attributes(b));
+        Assert.assertEquals(4, cache.getMisses());
+    }
+
+    @Test
+    public void testTooLarge() throws IOException {
+        final Path file = create("a.bin", 10_000, 1);
+        final FileCache cache = new FileCache(1000);
+        Assert.assertNull(cache.get(file, attributes(file)));
+        Assert.assertEquals(0, cache.getUsed());
+    }
+
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2019 Claire Fauch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.code.fauch.hedwig;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * TU for MappedInput
+ *
+ * @author c.fauch
+ *
+ */
+public class MappedInputTest {
+
+    @Test
+    public void testReadAcrossRegions() throws IOException {
+        final byte[] content = new byte[10_000];
+        new Random(1).nextBytes(content);
+        final Path file = Files.createTempFile("hedwig", ".bin");
+        try {
+            Files.write(file, content);
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+                    MappedInput input = new MappedInput(channel, 4096)) {
+                final ByteBuffer all = ByteBuffer.allocate(content.length);
+                final ByteBuffer block = ByteBuffer.allocateDirect(512);
+                while (true) {
+                    block.clear();
+                    int read = 0;
+                    while (block.hasRemaining() && (read = input.read(block)) != -1) {
+                        Assert.assertTrue(read > 0);
+                    }
+                    all.put(block.flip());
+                    if (read == -1) {
+                        break;
+                    }
+                }
+                Assert.assertArrayEquals(content, all.array());
+                Assert.assertEquals(-1, input.read(block.clear()));
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testReadEmpty() throws IOException {
+        final Path file = Files.createTempFile("hedwig", ".bin");
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+                MappedInput input = new MappedInput(channel)) {
+            Assert.assertEquals(-1, input.read(ByteBuffer.allocate(512)));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testReadTruncated() throws IOException {
+        final Path file = Files.createTempFile("hedwig", ".bin");
+        try {
+            Files.write(file, new byte[10_000]);
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                    MappedInput input = new MappedInput(channel)) {
+                Assert.assertEquals(512, input.read(ByteBuffer.allocate(512)));
+                channel.truncate(0);
+                try {
+                    input.read(ByteBuffer.allocate(512));
+                    Assert.fail("failure expected");
+                } catch (IOException e) {
+                    // the file is truncated while mapped
+                }
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+}
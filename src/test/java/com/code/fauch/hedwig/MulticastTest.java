@@ -0,0 +1,139 @@
+/*
+ * Copyright 2019 Claire Fauch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.code.fauch.hedwig;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.nio.channels.DatagramChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * TU for the multicast option
+ *
+ * @author c.fauch
+ *
+ */
+public class MulticastTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private NetworkInterface nif;
+
+    private byte[] content;
+
+    @Before
+    public void setUp() throws IOException {
+        this.nif = NetworkInterface.getByInetAddress(InetAddress.getLoopbackAddress());
+        this.content = new byte[300_000];
+        new Random(1).nextBytes(this.content);
+        Files.write(this.folder.getRoot().toPath().resolve("file.bin"), this.content);
+    }
+
+    @Test
+    public void testMulticastGet() throws Exception {
+        final InetSocketAddress group = new InetSocketAddress(InetAddress.getByName("239.255.42.1"), freePort());
+        final ExecutorService executor = Executors.newFixedThreadPool(3);
+        try (TFTPServer server = new TFTPServer(this.folder.getRoot().toPath()).multicast(group, this.nif)
+                .start(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0))) {
+            final int port = server.getAddress().getPort();
+            final List<Future<TransferResult>> results = new ArrayList<>();
+            final List<String> groups = new CopyOnWriteArrayList<>();
+            final TransferListener listener = new TransferListener() {
+                @Override
+                public void negotiated(final String fileName, final Option[] options) {
+                    for (Option option : options) {
+                        if (option.getText() != null) {
+                            groups.add(option.getText().substring(0, option.getText().lastIndexOf(',')));
+                        }
+                    }
+                }
+            };
+            for (int i = 0; i < 3; i++) {
+                final Path file = this.folder.getRoot().toPath().resolve("copy" + i + ".bin");
+                results.add(executor.submit(() -> {
+                    try (DatagramChannel channel = DatagramChannel.open()) {
+                        return new TFTP(channel).multicast(this.nif).listener(listener).get(InetAddress.getLoopbackAddress(), port,
+                                file, "file.bin", "octet", Option.blksize(1024), Option.windowsize(4));
+                    }
+                }));
+            }
+            for (int i = 0; i < 3; i++) {
+                Assert.assertEquals(this.content.length, results.get(i).get().getBytes());
+                Assert.assertArrayEquals(this.content,
+                        Files.readAllBytes(this.folder.getRoot().toPath().resolve("copy" + i + ".bin")));
+            }
+            Assert.assertEquals(List.of("239.255.42.1," + group.getPort()), List.copyOf(new HashSet<>(groups)));
+            Assert.assertEquals(3, groups.size());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testUnicastFallback() throws IOException, TFTPException {
+        final Path file = this.folder.getRoot().toPath().resolve("copy.bin");
+        try (TFTPServer server = new TFTPServer(this.folder.getRoot().toPath())
+                .start(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+                DatagramChannel channel = DatagramChannel.open()) {
+            final TransferResult result = new TFTP(channel).multicast(this.nif).get(InetAddress.getLoopbackAddress(),
+                    server.getAddress().getPort(), file, "file.bin", "octet", Option.blksize(1428),
+                    Option.windowsize(8));
+            Assert.assertEquals(211, result.getBlocks());
+        }
+        Assert.assertArrayEquals(this.content, Files.readAllBytes(file));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testMulticastOverSocket() throws IOException {
+        try (DatagramSocket socket = new DatagramSocket()) {
+            new TFTP(socket).multicast(this.nif);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidGroup() {
+        new TFTPServer(this.folder.getRoot().toPath()).multicast(new InetSocketAddress("127.0.0.1", 1758), null);
+    }
+
+    /**
+     * @return a free UDP port
+     * @throws IOException
+     */
+    private static int freePort() throws IOException {
+        try (DatagramChannel channel = DatagramChannel.open().bind(null)) {
+            return ((InetSocketAddress) channel.getLocalAddress()).getPort();
+        }
+    }
+
+}
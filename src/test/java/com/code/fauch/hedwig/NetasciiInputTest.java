@@ -0,0 +1,103 @@
+/*
+ * Copyright 2019 Claire Fauch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.code.fauch.hedwig;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * TU for NetasciiInput
+ *
+ * @author c.fauch
+ *
+ */
+public class NetasciiInputTest {
+
+    @Test
+    public void testEncode() throws IOException {
+        Assert.assertEquals("line\r\nbare\r\0cr\r\n\r\n", encode("line\nbare\rcr\n\n", 512));
+    }
+
+    @Test
+    public void testEncodeSplitPair() throws IOException {
+        final ReadableByteChannel input = new NetasciiInput(channel("ab\ncd"));
+        final ByteBuffer block = ByteBuffer.allocate(3);
+        Assert.assertEquals(3, input.read(block));
+        Assert.assertEquals("ab\r", new String(block.array(), StandardCharsets.US_ASCII));
+        Assert.assertEquals(3, input.read(block.clear()));
+        Assert.assertEquals("\ncd", new String(block.array(), StandardCharsets.US_ASCII));
+        Assert.assertEquals(-1, input.read(block.clear()));
+    }
+
+    @Test
+    public void testEncodeEmpty() throws IOException {
+        Assert.assertEquals(-1, new NetasciiInput(channel("")).read(ByteBuffer.allocate(8)));
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        final byte[] content = new byte[100_000];
+        final Random random = new Random(1);
+        for (int i = 0; i < content.length; i++) {
+            final int r = random.nextInt(10);
+            content[i] = r == 0 ? (byte) '\n' : r == 1 ? (byte) '\r' : (byte) ('a' + r);
+        }
+        final ReadableByteChannel input = new NetasciiInput(Channels.newChannel(new ByteArrayInputStream(content)));
+        final ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+        final NetasciiOutput output = new NetasciiOutput(Channels.newChannel(decoded));
+        final ByteBuffer block = ByteBuffer.allocateDirect(7);
+        while (input.read(block.clear()) != -1) {
+            output.write(block.flip());
+        }
+        output.flush();
+        Assert.assertArrayEquals(content, decoded.toByteArray());
+    }
+
+    /**
+     * Encodes a string through blocks of the given size.
+     *
+     * @param content the string to encode
+     * @param size the size of a block
+     * @return the encoded string
+     * @throws IOException
+     */
+    private static String encode(final String content, final int size) throws IOException {
+        final ReadableByteChannel input = new NetasciiInput(channel(content));
+        final ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        final ByteBuffer block = ByteBuffer.allocate(size);
+        while (input.read(block.clear()) != -1) {
+            encoded.write(block.array(), 0, block.position());
+        }
+        return encoded.toString(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * @param content the content to read
+     * @return a channel reading the content
+     */
+    private static ReadableByteChannel channel(final String content) {
+        return Channels.newChannel(new ByteArrayInputStream(content.getBytes(StandardCharsets.US_ASCII)));
+    }
+
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2019 Claire Fauch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.code.fauch.hedwig;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * TU for NetasciiOutput
+ *
+ * @author c.fauch
+ *
+ */
+public class NetasciiOutputTest {
+
+    private ByteArrayOutputStream decoded;
+
+    private NetasciiOutput output;
+
+    @Before
+    public void setUp() {
+        this.decoded = new ByteArrayOutputStream();
+        this.output = new NetasciiOutput(Channels.newChannel(this.decoded));
+    }
+
+    @Test
+    public void testDecode() throws IOException {
+        Assert.assertEquals(16, this.output.write(ascii("line\r\nbare\r\0cr\r\n")));
+        Assert.assertEquals("line\nbare\rcr\n", this.decoded.toString(StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void testDecodeSplitPair() throws IOException {
+        this.output.write(ascii("ab\r"));
+        Assert.assertEquals("ab", this.decoded.toString(StandardCharsets.US_ASCII));
+        this.output.write(ascii("\ncd\r"));
+        this.output.write(ascii("\0"));
+        Assert.assertEquals("ab\ncd\r", this.decoded.toString(StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void testDecodeBareCr() throws IOException {
+        this.output.write(ascii("a\rb\r\r\n"));
+        this.output.write(ascii("c\r"));
+        this.output.flush();
+        Assert.assertEquals("a\rb\r\nc\r", this.decoded.toString(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * @param content a string
+     * @return a buffer holding the string
+     */
+    private static ByteBuffer ascii(final String content) {
+        return ByteBuffer.wrap(content.getBytes(StandardCharsets.US_ASCII));
+    }
+
+}
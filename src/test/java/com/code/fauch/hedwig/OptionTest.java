@@ -65,6 +65,18 @@ public class OptionTest {
         Assert.assertEquals("673312\0", new String(val, "US-ASCII"));
     }
 
+    @Test
+    public void testEncodeWindowsize() throws UnsupportedEncodingException {
+        final byte[] enc = Option.windowsize(16).encode();
+        final ByteBuffer buff = ByteBuffer.wrap(enc);
+        final byte[] lbl = new byte[11];
+        buff.get(lbl, 0, lbl.length);
+        Assert.assertEquals("windowsize\0", new String(lbl, "US-ASCII"));
+        final byte[] val = new byte[3];
+        buff.get(val, 0, val.length);
+        Assert.assertEquals("16\0", new String(val, "US-ASCII"));
+    }
+
     @Test
     public void testDecode() throws UnsupportedEncodingException {
         final Option opt = Option.blksize(1024);
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2019 Claire Fauch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.code.fauch.hedwig;
+
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * TU for PacketView
+ *
+ * @author c.fauch
+ *
+ */
+public class PacketViewTest {
+
+    @Test
+    public void testWrapData() {
+        final ByteBuffer buff = PacketView.data(ByteBuffer.allocate(16), 7).put("test".getBytes()).flip();
+        final PacketView view = new PacketView();
+        Assert.assertTrue(view.wrap(buff));
+        Assert.assertEquals(EOperation.DATA, view.getOperation());
+        Assert.assertEquals(7, view.getBlock());
+        Assert.assertEquals(4, view.getOffset());
+        Assert.assertEquals(4, view.getLength());
+        Assert.assertEquals('t', buff.get(view.getOffset()));
+        Assert.assertEquals(0, buff.position());
+    }
+
+    @Test
+    public void testWrapAck() {
+        final PacketView view = new PacketView();
+        Assert.assertTrue(view.wrap(PacketView.ack(ByteBuffer.allocate(4), 65535)));
+        Assert.assertEquals(EOperation.ACK, view.getOperation());
+        Assert.assertEquals(65535, view.getBlock());
+        Assert.assertEquals(0, view.getLength());
+    }
+
+    @Test
+    public void testWrapError() {
+        final PacketView view = new PacketView();
+        Assert.assertTrue(view.wrap(PacketView.error(ByteBuffer.allocate(32), EError.FILE_NOT_FOUND, "missing")));
+        Assert.assertEquals(EOperation.ERROR, view.getOperation());
+        Assert.assertEquals(EError.FILE_NOT_FOUND, view.getError());
+        Assert.assertEquals("missing", view.getMessage());
+    }
+
+    @Test
+    public void testWrapOAck() {
+        final ByteBuffer buff = PacketView.oack(ByteBuffer.allocate(64), Option.blksize(1428), Option.windowsize(8));
+        final PacketView view = new PacketView();
+        Assert.assertTrue(view.wrap(buff));
+        Assert.assertEquals(EOperation.OACK, view.getOperation());
+        Assert.assertEquals(1428, view.getOption(EOption.BLKSIZE));
+        Assert.assertEquals(8, view.getOption(EOption.WINDOWSIZE));
+        Assert.assertEquals(PacketView.UNDEFINED, view.getOption(EOption.TSIZE));
+    }
+
+    @Test
+    public void testWrapOAckMulticast() {
+        final ByteBuffer buff = PacketView.oack(ByteBuffer.allocate(64), Option.blksize(1428),
+                Option.multicast(new InetSocketAddress("239.255.0.1", 1758), true));
+        final PacketView view = new PacketView();
+        Assert.assertTrue(view.wrap(buff));
+        Assert.assertEquals(1428, view.getOption(EOption.BLKSIZE));
+        Assert.assertEquals("239.255.0.1,1758,1", view.getText(EOption.MULTICAST));
+        Assert.assertNull(view.getText(EOption.BLKSIZE));
+        Assert.assertEquals(2, view.getOptions().length);
+    }
+
+    @Test
+    public void testWrapOAckIgnoreCase() throws UnsupportedEncodingException {
+        final ByteBuffer buff = ByteBuffer.allocate(64).putShort(EOperation.OACK.getCode())
+                .put(("BlkSize\0" + "1024\0unknown\0value\0").getBytes("US-ASCII")).flip();
+        final PacketView view = new PacketView();
+        Assert.assertTrue(view.wrap(buff));
+        Assert.assertEquals(1024, view.getOption(EOption.BLKSIZE));
+    }
+
+    @Test
+    public void testWrapInvalidOptionValue() throws UnsupportedEncodingException {
+        final ByteBuffer buff = ByteBuffer.allocate(64).putShort(EOperation.OACK.getCode())
+                .put("blksize\0abc\0".getBytes("US-ASCII")).flip();
+        Assert.assertFalse(new PacketView().wrap(buff));
+    }
+
+    @Test
+    public void testWrapRequest() throws UnknownHostException, UnsupportedEncodingException {
+        final Request req = Request.read("file.txt", "octet", InetAddress.getByName("localhost"), 69,
+                Option.blksize(1024), Option.tsize(0));
+        final PacketView view = new PacketView();
+        Assert.assertTrue(view.wrap(ByteBuffer.wrap(req.encode())));
+        Assert.assertEquals(EOperation.READ, view.getOperation());
+        Assert.assertEquals("file.txt", view.getFileName());
+        Assert.assertEquals("octet", view.getMode());
+        Assert.assertEquals(1024, view.getOption(EOption.BLKSIZE));
+        Assert.assertEquals(0, view.getOption(EOption.TSIZE));
+    }
+
+    @Test
+    public void testWrapReuse() {
+        final PacketView view = new PacketView();
+        Assert.assertTrue(view.wrap(PacketView.oack(ByteBuffer.allocate(64), Option.blksize(1428))));
+        Assert.assertTrue(view.wrap(PacketView.ack(ByteBuffer.allocate(4), 1)));
+        Assert.assertEquals(EOperation.ACK, view.getOperation());
+        Assert.assertEquals(PacketView.UNDEFINED, view.getOption(EOption.BLKSIZE));
+    }
+
+    @Test
+    public void testWrapInvalid() {
+        final PacketView view = new PacketView();
+        Assert.assertFalse(view.wrap(ByteBuffer.allocate(1)));
+        Assert.assertFalse(view.wrap(ByteBuffer.allocate(4).putShort((short) 42).flip()));
+        Assert.assertFalse(view.wrap(ByteBuffer.allocate(3).putShort(EOperation.DATA.getCode()).flip()));
+        Assert.assertNull(view.getOperation());
+    }
+
+    @Test
+    public void testLookup() {
+        Assert.assertEquals(EOperation.OACK, EOperation.from((short) 6));
+        Assert.assertNull(EOperation.lookup((short) 0));
+        Assert.assertNull(EOperation.lookup((short) -1));
+        Assert.assertEquals(EError.OPTION_NEGOTIATION_FAILED, EError.from((short) 8));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testLookupUnknownError() {
+        EError.from((short) 9);
+    }
+
+    @Test
+    public void testPutDecimal() {
+        final ByteBuffer buff = ByteBuffer.allocate(32);
+        PacketView.putDecimal(buff, 0).put((byte) ' ');
+        PacketView.putDecimal(buff, 65464).put((byte) ' ');
+        PacketView.putDecimal(buff, Long.MAX_VALUE);
+        Assert.assertEquals("0 65464 " + Long.MAX_VALUE, new String(buff.array(), 0, buff.position()));
+    }
+
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2019 Claire Fauch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.code.fauch.hedwig;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * TU for ReadAheadInput
+ *
+ * @author c.fauch
+ *
+ */
+public class ReadAheadInputTest {
+
+    @Test
+    public void testRead() throws IOException {
+        final byte[] content = new byte[100_000];
+        new Random(1).nextBytes(content);
+        final ByteArrayOutputStream read = new ByteArrayOutputStream();
+        try (ReadAheadInput input = new ReadAheadInput(Channels.newChannel(new ByteArrayInputStream(content)), 4, 
+                1000)) {
+            final ByteBuffer block = ByteBuffer.allocate(1428);
+            while (input.read(block.clear()) != -1) {
+                read.write(block.array(), 0, block.position());
+            }
+        }
+        Assert.assertArrayEquals(content, read.toByteArray());
+    }
+
+    @Test
+    public void testReadEmpty() throws IOException {
+        try (ReadAheadInput input = new ReadAheadInput(Channels.newChannel(new ByteArrayInputStream(new byte[0])), 
+                2, 512)) {
+            Assert.assertEquals(-1, input.read(ByteBuffer.allocate(512)));
+            Assert.assertEquals(-1, input.read(ByteBuffer.allocate(512)));
+        }
+    }
+
+    @Test
+    public void testReadFailure() throws IOException {
+        final ReadableByteChannel failing = new ReadableByteChannel() {
+            
+            private int count;
+            
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+            
+            @Override
+            public void close() {
+                // nothing to close
+            }
+            
+            @Override
+            public int read(final ByteBuffer dst) throws IOException {
+                if (this.count++ > 0) {
+                    throw new IOException("broken");
+                }
+                dst.put(new byte[512]);
+                return 512;
+            }
+        };
+        try (ReadAheadInput input = new ReadAheadInput(failing, 2, 512)) {
+            Assert.assertEquals(512, input.read(ByteBuffer.allocate(512)));
+            try {
+                input.read(ByteBuffer.allocate(512));
+                Assert.fail("failure expected");
+            } catch (IOException e) {
+                Assert.assertEquals("broken", e.getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void testCloseWhileReading() throws Exception {
+        final CountDownLatch reading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicBoolean closed = new AtomicBoolean();
+        final ByteArrayInputStream stream = new ByteArrayInputStream(new byte[64]) {
+            @Override
+            public synchronized int read(final byte[] b, final int off, final int len) {
+                reading.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.read(b, off, len);
+            }
+
+            @Override
+            public void close() {
+                closed.set(true);
+            }
+        };
+        final ReadAheadInput input = new ReadAheadInput(Channels.newChannel(stream), 2, 16);
+        Assert.assertTrue(reading.await(5, TimeUnit.SECONDS));
+        input.close();
+        release.countDown();
+        // the stream of the caller is still open once the channel reading ahead is closed
+        Assert.assertFalse(closed.get());
+        Assert.assertTrue(stream.read(new byte[64], 0, 64) > 0);
+    }
+
+}
@@ -135,6 +135,16 @@ public class ResponseTest {
         Assert.assertNull(dec.getTSize());
     }
 
+    @Test
+    public void testDecodeOAckWindowsize() throws UnknownHostException, UnsupportedEncodingException, TFTPException {
+        final Response resp = Response.oack(0, InetAddress.getByName("localhost"), 65535, Option.windowsize(16));
+        final byte[] buff = resp.encode();
+        final Response dec = Response.from(new DatagramPacket(buff, buff.length));
+        Assert.assertEquals(EOperation.OACK, dec.getOperation());
+        Assert.assertEquals(16, dec.getWindowsize().getValue());
+        Assert.assertNull(dec.getBlksize());
+    }
+
     @Test(expected=NullPointerException.class)
     public void testDecodeNull() throws UnknownHostException, UnsupportedEncodingException, TFTPException {
         Response.from(null);
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2019 Claire Fauch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.code.fauch.hedwig;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * TU for RetransmissionTimer
+ *
+ * @author c.fauch
+ *
+ */
+public class RetransmissionTimerTest {
+
+    @Test
+    public void testInitialTimeout() {
+        Assert.assertEquals(1000, new RetransmissionTimer(5000).getTimeout());
+        Assert.assertEquals(300, new RetransmissionTimer(300).getTimeout());
+    }
+
+    @Test
+    public void testBackoff() {
+        final RetransmissionTimer timer = new RetransmissionTimer(5000);
+        timer.sent();
+        timer.expired();
+        Assert.assertEquals(2000, timer.getTimeout());
+        timer.expired();
+        Assert.assertEquals(4000, timer.getTimeout());
+        timer.expired();
+        Assert.assertEquals(5000, timer.getTimeout());
+    }
+
+    @Test
+    public void testBound() {
+        final RetransmissionTimer timer = new RetransmissionTimer(5000);
+        timer.bound(200);
+        Assert.assertEquals(200, timer.getTimeout());
+        timer.expired();
+        Assert.assertEquals(200, timer.getTimeout());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidBound() {
+        new RetransmissionTimer(0);
+    }
+
+    @Test
+    public void testSample() {
+        final RetransmissionTimer timer = new RetransmissionTimer(5000);
+        timer.sent();
+        timer.received();
+        Assert.assertTrue(timer.getTimeout() < 1000);
+        Assert.assertTrue(timer.remaining() > 0);
+    }
+
+    @Test
+    public void testNoSampleAfterRetransmission() {
+        final RetransmissionTimer timer = new RetransmissionTimer(5000);
+        timer.sent();
+        timer.expired();
+        timer.sent();
+        timer.received();
+        Assert.assertEquals(2000, timer.getTimeout());
+    }
+
+}
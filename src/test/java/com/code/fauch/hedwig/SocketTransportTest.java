@@ -0,0 +1,66 @@
+/*
+ * Copyright 2019 Claire Fauch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.code.fauch.hedwig;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * TU for SocketTransport
+ *
+ * @author c.fauch
+ *
+ */
+public class SocketTransportTest {
+
+    @Test
+    public void testSendReceive() throws IOException {
+        try (DatagramSocket sender = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+                DatagramSocket receiver = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+            try (Transport snd = new SocketTransport(sender); Transport rcv = new SocketTransport(receiver)) {
+                final ByteBuffer out = snd.allocate(6);
+                out.putShort(EOperation.DATA.getCode()).putShort((short) 3).put((byte) 1).put((byte) 2).flip();
+                snd.send(out, (InetSocketAddress) receiver.getLocalSocketAddress());
+                Assert.assertFalse(out.hasRemaining());
+                final ByteBuffer in = rcv.allocate(516);
+                Assert.assertTrue(rcv.receive(in, 1000));
+                Assert.assertEquals(6, in.limit());
+                Assert.assertEquals(EOperation.DATA.getCode(), in.getShort(0));
+                Assert.assertEquals(3, in.getShort(2));
+                Assert.assertEquals(2, in.get(5));
+                Assert.assertEquals(sender.getLocalPort(), rcv.getPort());
+            }
+        }
+    }
+
+    @Test
+    public void testReceiveTimeout() throws IOException {
+        try (DatagramSocket socket = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+            socket.setSoTimeout(1234);
+            try (Transport transport = new SocketTransport(socket)) {
+                Assert.assertEquals(1234, transport.getTimeout());
+                Assert.assertFalse(transport.receive(transport.allocate(516), 50));
+            }
+            Assert.assertEquals(1234, socket.getSoTimeout());
+        }
+    }
+
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright 2019 Claire Fauch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.code.fauch.hedwig;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * TU for TFTPClient
+ *
+ * @author c.fauch
+ *
+ */
+public class TFTPClientTest {
+
+    @Test
+    public void testTimeout() throws IOException, InterruptedException, TimeoutException {
+        try (DatagramSocket server = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+                TFTPClient client = new TFTPClient(1, 4).retries(0)) {
+            final CompletableFuture<TransferResult> future = client.getAsync(InetAddress.getLoopbackAddress(),
+                    server.getLocalPort(), new ByteArrayOutputStream(), "file.txt", "octet");
+            try {
+                future.get(10, TimeUnit.SECONDS);
+                Assert.fail("timeout expected");
+            } catch (ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof SocketTimeoutException);
+            }
+        }
+    }
+
+    @Test
+    public void testError() throws Exception {
+        try (DatagramSocket server = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+                TFTPClient client = new TFTPClient(1, 4)) {
+            server.setSoTimeout(5000);
+            final CompletableFuture<TransferResult> future = client.getAsync(InetAddress.getLoopbackAddress(),
+                    server.getLocalPort(), new ByteArrayOutputStream(), "missing.txt", "octet");
+            final DatagramPacket request = new DatagramPacket(new byte[516], 516);
+            server.receive(request);
+            final ByteBuffer error = PacketView.error(ByteBuffer.allocate(32), EError.FILE_NOT_FOUND, "missing");
+            server.send(new DatagramPacket(error.array(), error.limit(), request.getSocketAddress()));
+            try {
+                future.get(5, TimeUnit.SECONDS);
+                Assert.fail("error expected");
+            } catch (ExecutionException e) {
+                Assert.assertEquals(EError.FILE_NOT_FOUND, ((TFTPException) e.getCause()).getError());
+            }
+        }
+    }
+
+    @Test
+    public void testCancelReleasesSlot() throws Exception {
+        try (DatagramSocket server = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+                TFTPClient client = new TFTPClient(1, 1)) {
+            server.setSoTimeout(5000);
+            final CompletableFuture<TransferResult> first = client.getAsync(InetAddress.getLoopbackAddress(),
+                    server.getLocalPort(), new ByteArrayOutputStream(), "first.txt", "octet");
+            final CompletableFuture<TransferResult> second = client.getAsync(InetAddress.getLoopbackAddress(),
+                    server.getLocalPort(), new ByteArrayOutputStream(), "second.txt", "octet");
+            final PacketView view = new PacketView();
+            final DatagramPacket packet = new DatagramPacket(new byte[516], 516);
+            server.receive(packet);
+            Assert.assertTrue(view.wrap(ByteBuffer.wrap(packet.getData(), 0, packet.getLength())));
+            Assert.assertEquals("first.txt", view.getFileName());
+            // answer the first request so that the cancelled transfer knows the remote host
+            final ByteBuffer data = PacketView.data(ByteBuffer.allocate(516), 1).put(new byte[512]).flip();
+            server.send(new DatagramPacket(data.array(), data.limit(), packet.getSocketAddress()));
+            server.receive(packet);
+            Assert.assertTrue(view.wrap(ByteBuffer.wrap(packet.getData(), 0, packet.getLength())));
+            Assert.assertEquals(EOperation.ACK, view.getOperation());
+            Assert.assertFalse(second.isDone());
+            Assert.assertTrue(first.cancel(false));
+            server.receive(packet);
+            Assert.assertTrue(view.wrap(ByteBuffer.wrap(packet.getData(), 0, packet.getLength())));
+            Assert.assertEquals(EOperation.ERROR, view.getOperation());
+            server.receive(packet);
+            Assert.assertTrue(view.wrap(ByteBuffer.wrap(packet.getData(), 0, packet.getLength())));
+            Assert.assertEquals(EOperation.READ, view.getOperation());
+            Assert.assertEquals("second.txt", view.getFileName());
+        }
+    }
+
+    @Test
+    public void testClose() throws IOException, InterruptedException, TimeoutException {
+        final CompletableFuture<TransferResult> future;
+        try (DatagramSocket server = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+            final TFTPClient client = new TFTPClient(1, 1);
+            future = client.getAsync(InetAddress.getLoopbackAddress(), server.getLocalPort(),
+                    new ByteArrayOutputStream(), "file.txt", "octet");
+            client.close();
+        }
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            Assert.fail("failure expected");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+
+    @Test
+    public void testDuplicateData() throws Exception {
+        try (DatagramSocket server = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+                TFTPClient client = new TFTPClient(1, 1)) {
+            server.setSoTimeout(5000);
+            final ByteArrayOutputStream output = new ByteArrayOutputStream();
+            final CompletableFuture<TransferResult> future = client.getAsync(InetAddress.getLoopbackAddress(),
+                    server.getLocalPort(), output, "file.bin", "octet");
+            final DatagramPacket packet = new DatagramPacket(new byte[516], 516);
+            server.receive(packet);
+            final SocketAddress remote = packet.getSocketAddress();
+            send(server, PacketView.data(ByteBuffer.allocate(516), 1).put(new byte[512]).flip(), remote);
+            expect(server, EOperation.ACK, 1);
+            // ahead of sequence: the last block is acknowledged again
+            send(server, PacketView.data(ByteBuffer.allocate(516), 3).put(new byte[512]).flip(), remote);
+            expect(server, EOperation.ACK, 1);
+            send(server, PacketView.data(ByteBuffer.allocate(516), 2).put(new byte[512]).flip(), remote);
+            expect(server, EOperation.ACK, 2);
+            // stale block dropped, last block acknowledged again
+            send(server, PacketView.data(ByteBuffer.allocate(516), 1).put(new byte[512]).flip(), remote);
+            send(server, PacketView.data(ByteBuffer.allocate(516), 2).put(new byte[512]).flip(), remote);
+            expect(server, EOperation.ACK, 2);
+            send(server, PacketView.data(ByteBuffer.allocate(516), 3).put(new byte[10]).flip(), remote);
+            expect(server, EOperation.ACK, 3);
+            final TransferResult result = future.get(5, TimeUnit.SECONDS);
+            Assert.assertEquals(3, result.getBlocks());
+            Assert.assertEquals(2, result.getDuplicates());
+            Assert.assertEquals(1, result.getOutOfOrder());
+            Assert.assertEquals(1034, output.size());
+        }
+    }
+
+    @Test
+    public void testDuplicateAck() throws Exception {
+        try (DatagramSocket server = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+                TFTPClient client = new TFTPClient(1, 1)) {
+            server.setSoTimeout(5000);
+            final CompletableFuture<TransferResult> future = client.putAsync(InetAddress.getLoopbackAddress(),
+                    server.getLocalPort(), new ByteArrayInputStream(new byte[1100]), "file.bin", "octet",
+                    Option.windowsize(2));
+            final DatagramPacket packet = new DatagramPacket(new byte[516], 516);
+            server.receive(packet);
+            final SocketAddress remote = packet.getSocketAddress();
+            send(server, PacketView.oack(ByteBuffer.allocate(32), Option.windowsize(2)), remote);
+            expect(server, EOperation.DATA, 1);
+            expect(server, EOperation.DATA, 2);
+            // the first duplicated ACK of the window rolls it back, the next one is dropped
+            send(server, PacketView.ack(ByteBuffer.allocate(4), 2), remote);
+            send(server, PacketView.ack(ByteBuffer.allocate(4), 2), remote);
+            send(server, PacketView.ack(ByteBuffer.allocate(4), 2), remote);
+            expect(server, EOperation.DATA, 3);
+            send(server, PacketView.ack(ByteBuffer.allocate(4), 3), remote);
+            final TransferResult result = future.get(5, TimeUnit.SECONDS);
+            Assert.assertEquals(3, result.getBlocks());
+            Assert.assertEquals(1, result.getDuplicates());
+        }
+    }
+
+    @Test
+    public void testRollbackAck() throws Exception {
+        try (DatagramSocket server = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+                TFTPClient client = new TFTPClient(1, 1)) {
+            server.setSoTimeout(5000);
+            final CompletableFuture<TransferResult> future = client.putAsync(InetAddress.getLoopbackAddress(),
+                    server.getLocalPort(), new ByteArrayInputStream(new byte[1100]), "file.bin", "octet",
+                    Option.windowsize(2));
+            final DatagramPacket packet = new DatagramPacket(new byte[516], 516);
+            server.receive(packet);
+            final SocketAddress remote = packet.getSocketAddress();
+            send(server, PacketView.oack(ByteBuffer.allocate(32), Option.windowsize(2)), remote);
+            expect(server, EOperation.DATA, 1);
+            expect(server, EOperation.DATA, 2);
+            // the block 1 is lost: the receiver rolls the window back, the duplicated roll back is dropped
+            send(server, PacketView.ack(ByteBuffer.allocate(4), 0), remote);
+            send(server, PacketView.ack(ByteBuffer.allocate(4), 0), remote);
+            expect(server, EOperation.DATA, 1);
+            expect(server, EOperation.DATA, 2);
+            send(server, PacketView.ack(ByteBuffer.allocate(4), 2), remote);
+            expect(server, EOperation.DATA, 3);
+            send(server, PacketView.ack(ByteBuffer.allocate(4), 3), remote);
+            final TransferResult result = future.get(5, TimeUnit.SECONDS);
+            Assert.assertEquals(3, result.getBlocks());
+            Assert.assertEquals(1, result.getDuplicates());
+        }
+    }
+
+    /**
+     * Sends a packet.
+     */
+    private static void send(final DatagramSocket server, final ByteBuffer packet, final SocketAddress remote)
+            throws IOException {
+        server.send(new DatagramPacket(packet.array(), packet.limit(), remote));
+    }
+
+    /**
+     * Receives packets until the expected one: the retransmitted packets are skipped.
+     */
+    private static void expect(final DatagramSocket server, final EOperation operation, final int block)
+            throws IOException {
+        final PacketView view = new PacketView();
+        final DatagramPacket packet = new DatagramPacket(new byte[516], 516);
+        do {
+            server.receive(packet);
+            Assert.assertTrue(view.wrap(ByteBuffer.wrap(packet.getData(), 0, packet.getLength())));
+        } while (view.getOperation() != operation || view.getBlock() != block);
+    }
+
+}
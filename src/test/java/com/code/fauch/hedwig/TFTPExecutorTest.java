@@ -0,0 +1,198 @@
+/*
+ * Copyright 2019 Claire Fauch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.code.fauch.hedwig;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * TU for TFTPExecutor
+ *
+ * @author c.fauch
+ *
+ */
+public class TFTPExecutorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private TFTPServer server;
+
+    private byte[] content;
+
+    private int port;
+
+    @Before
+    public void setUp() throws IOException {
+        this.content = new byte[100_000];
+        new Random(1).nextBytes(this.content);
+        Files.write(this.folder.getRoot().toPath().resolve("file.bin"), this.content);
+        this.server = new TFTPServer(this.folder.getRoot().toPath()).writable(true)
+                .start(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        this.port = this.server.getAddress().getPort();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        this.server.close();
+    }
+
+    @Test
+    public void testTimeout() throws IOException {
+        try (DatagramSocket server = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+                TFTPExecutor executor = TFTPExecutor.platformThreads(2).retries(0)) {
+            final List<TransferJob> jobs = new ArrayList<>();
+            jobs.add(TransferJob.get(InetAddress.getLoopbackAddress(), server.getLocalPort(),
+                    new ByteArrayOutputStream(), "file.txt", "octet"));
+            try {
+                executor.runAll(jobs);
+                Assert.fail("timeout expected");
+            } catch (CompletionException e) {
+                Assert.assertTrue(e.getCause() instanceof SocketTimeoutException);
+            }
+        }
+    }
+
+    @Test
+    public void testConcurrencyLimit() throws IOException {
+        try (DatagramSocket server = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+                TFTPExecutor executor = TFTPExecutor.platformThreads(2).retries(0)) {
+            final List<TransferJob> jobs = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                jobs.add(TransferJob.get(InetAddress.getLoopbackAddress(), server.getLocalPort(),
+                        new ByteArrayOutputStream(), "file" + i, "octet"));
+            }
+            final List<CompletableFuture<TransferResult>> futures = executor.submitAll(jobs);
+            final DatagramPacket packet = new DatagramPacket(new byte[516], 516);
+            server.setSoTimeout(2000);
+            server.receive(packet);
+            server.receive(packet);
+            server.setSoTimeout(300);
+            try {
+                server.receive(packet);
+                Assert.fail("only 2 transfers expected");
+            } catch (SocketTimeoutException e) {
+                // the third transfer waits for a permit
+            }
+            Assert.assertEquals(4, futures.size());
+            futures.forEach(f -> f.cancel(false));
+        }
+    }
+
+    @Test
+    public void testVirtualThreads() throws Exception {
+        // platform threads on a runtime without virtual threads
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (TFTPExecutor executor = TFTPExecutor.virtualThreads(1)) {
+            executor.submit(TransferJob.get(InetAddress.getLoopbackAddress(), this.port, output, "file.bin", "octet"))
+                    .get(5, TimeUnit.SECONDS);
+        }
+        Assert.assertArrayEquals(this.content, output.toByteArray());
+    }
+
+    @Test
+    public void testPublish() throws Exception {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final List<Integer> sizes = new ArrayList<>();
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+        try (TFTPExecutor executor = TFTPExecutor.platformThreads(1)) {
+            executor.publish(InetAddress.getLoopbackAddress(), this.port, "file.bin", "octet", Option.blksize(1024),
+                    Option.windowsize(4)).subscribe(new Flow.Subscriber<ByteBuffer>() {
+
+                        private Flow.Subscription subscription;
+
+                        @Override
+                        public void onSubscribe(final Flow.Subscription subscription) {
+                            this.subscription = subscription;
+                            subscription.request(1);
+                        }
+
+                        @Override
+                        public void onNext(final ByteBuffer item) {
+                            sizes.add(item.remaining());
+                            output.write(item.array(), item.position(), item.remaining());
+                            this.subscription.request(1);
+                        }
+
+                        @Override
+                        public void onError(final Throwable throwable) {
+                            done.completeExceptionally(throwable);
+                        }
+
+                        @Override
+                        public void onComplete() {
+                            done.complete(null);
+                        }
+                    });
+            done.get(10, TimeUnit.SECONDS);
+        }
+        Assert.assertArrayEquals(this.content, output.toByteArray());
+        // one buffer per block
+        Assert.assertEquals(this.content.length / 1024 + 1, sizes.size());
+        Assert.assertEquals(Integer.valueOf(1024), sizes.get(0));
+    }
+
+    @Test
+    public void testPutPublisher() throws Exception {
+        final Flow.Publisher<ByteBuffer> source = subscriber -> subscriber.onSubscribe(new Flow.Subscription() {
+
+            private int offset;
+
+            @Override
+            public void request(final long n) {
+                for (long i = 0; i < n && this.offset < TFTPExecutorTest.this.content.length; i++) {
+                    final int length = Math.min(1000, TFTPExecutorTest.this.content.length - this.offset);
+                    subscriber.onNext(ByteBuffer.wrap(TFTPExecutorTest.this.content, this.offset, length));
+                    this.offset += length;
+                    if (this.offset == TFTPExecutorTest.this.content.length) {
+                        subscriber.onComplete();
+                    }
+                }
+            }
+
+            @Override
+            public void cancel() {
+                this.offset = TFTPExecutorTest.this.content.length;
+            }
+        });
+        try (TFTPExecutor executor = TFTPExecutor.platformThreads(1)) {
+            executor.submit(TransferJob.put(InetAddress.getLoopbackAddress(), this.port, source, "uploaded.bin",
+                    "octet", Option.blksize(1428))).get(10, TimeUnit.SECONDS);
+        }
+        Assert.assertArrayEquals(this.content, Files.readAllBytes(this.folder.getRoot().toPath().resolve("uploaded.bin")));
+    }
+
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2019 Claire Fauch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.code.fauch.hedwig;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * TU for TFTPPool
+ *
+ * @author c.fauch
+ *
+ */
+public class TFTPPoolTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private TFTPServer server;
+
+    private byte[] content;
+
+    private int port;
+
+    @Before
+    public void setUp() throws IOException {
+        this.content = new byte[100_000];
+        new Random(1).nextBytes(this.content);
+        Files.write(this.folder.getRoot().toPath().resolve("file.bin"), this.content);
+        this.server = new TFTPServer(this.folder.getRoot().toPath()).writable(true)
+                .start(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        this.port = this.server.getAddress().getPort();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        this.server.close();
+    }
+
+    @Test
+    public void testPool() throws Exception {
+        try (TFTPPool pool = new TFTPPool(2, 1 << 20, 1 << 20)) {
+            for (int i = 0; i < 6; i++) {
+                final ByteArrayOutputStream output = new ByteArrayOutputStream();
+                final int blksize = i % 2 == 0 ? 512 : 1428;
+                final TransferResult result = pool.run(TransferJob.get(InetAddress.getLoopbackAddress(), this.port,
+                        output, "file.bin", "octet", Option.blksize(blksize), Option.windowsize(4)));
+                Assert.assertEquals(this.content.length, result.getBytes());
+                Assert.assertArrayEquals(this.content, output.toByteArray());
+                pool.run(TransferJob.put(InetAddress.getLoopbackAddress(), this.port,
+                        new ByteArrayInputStream(this.content), "uploaded" + i + ".bin", "octet",
+                        Option.blksize(blksize)));
+                Assert.assertArrayEquals(this.content,
+                        Files.readAllBytes(this.folder.getRoot().toPath().resolve("uploaded" + i + ".bin")));
+            }
+        }
+    }
+
+    @Test
+    public void testStrayError() throws Exception {
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (TFTPPool pool = new TFTPPool(1, 0, 0);
+                DatagramSocket previous = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+            previous.setSoTimeout(5000);
+            final TFTP tftp = pool.lease();
+            final Future<TransferResult> first = executor.submit(() -> tftp.get(InetAddress.getLoopbackAddress(),
+                    previous.getLocalPort(), new ByteArrayOutputStream(), "first.bin", "octet"));
+            final DatagramPacket packet = new DatagramPacket(new byte[516], 516);
+            previous.receive(packet);
+            final ByteBuffer data = PacketView.data(ByteBuffer.allocate(516), 1).put(new byte[10]).flip();
+            previous.send(new DatagramPacket(data.array(), data.limit(), packet.getSocketAddress()));
+            Assert.assertEquals(10, first.get(5, TimeUnit.SECONDS).getBytes());
+            // the previous server answers a late packet once the transfer is over
+            final ByteBuffer error = PacketView.error(ByteBuffer.allocate(32), EError.UNKNOWN_TRANSFER_ID, "late");
+            previous.send(new DatagramPacket(error.array(), error.limit(), packet.getSocketAddress()));
+            final ByteArrayOutputStream output = new ByteArrayOutputStream();
+            tftp.get(InetAddress.getLoopbackAddress(), this.port, output, "file.bin", "octet");
+            Assert.assertArrayEquals(this.content, output.toByteArray());
+            pool.release(tftp);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testPoolRelease() throws Exception {
+        try (TFTPPool pool = new TFTPPool(1, 0, 0); DatagramSocket socket = new DatagramSocket()) {
+            final TFTP tftp = pool.lease();
+            pool.release(tftp);
+            try {
+                pool.release(tftp);
+                Assert.fail("client already released");
+            } catch (IllegalArgumentException e) {
+                // the client is idle
+            }
+            try {
+                pool.release(new TFTP(socket));
+                Assert.fail("foreign client");
+            } catch (IllegalArgumentException e) {
+                // not a client of the pool
+            }
+            Assert.assertSame(tftp, pool.lease());
+        }
+    }
+
+}
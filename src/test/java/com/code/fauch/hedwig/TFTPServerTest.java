@@ -0,0 +1,330 @@
+/*
+ * Copyright 2019 Claire Fauch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.code.fauch.hedwig;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * TU for TFTPServer
+ *
+ * @author c.fauch
+ *
+ */
+public class TFTPServerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private TFTPServer server;
+
+    private byte[] content;
+
+    private int port;
+
+    @Before
+    public void setUp() throws IOException {
+        this.content = new byte[100_000];
+        new Random(1).nextBytes(this.content);
+        Files.write(this.folder.getRoot().toPath().resolve("file.bin"), this.content);
+        this.server = new TFTPServer(this.folder.getRoot().toPath()).writable(true)
+                .start(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        this.port = this.server.getAddress().getPort();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        this.server.close();
+    }
+
+    @Test
+    public void testGet() throws IOException, TFTPException {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (DatagramSocket socket = new DatagramSocket()) {
+            final TransferResult result = new TFTP(socket).get(InetAddress.getLoopbackAddress(), this.port, output,
+                    "file.bin", "octet");
+            Assert.assertEquals(this.content.length, result.getBytes());
+            Assert.assertEquals(196, result.getBlocks());
+        }
+        Assert.assertArrayEquals(this.content, output.toByteArray());
+    }
+
+    @Test
+    public void testGetWithOptions() throws IOException, TFTPException {
+        final Path file = this.folder.getRoot().toPath().resolve("copy.bin");
+        try (DatagramChannel channel = DatagramChannel.open()) {
+            final TransferResult result = new TFTP(channel).get(InetAddress.getLoopbackAddress(), this.port, file,
+                    "/file.bin", "octet", Option.blksize(1428), Option.windowsize(8), Option.tsize(0),
+                    Option.timeout(2));
+            Assert.assertEquals(71, result.getBlocks());
+        }
+        Assert.assertArrayEquals(this.content, Files.readAllBytes(file));
+    }
+
+    @Test
+    public void testGetCached() throws IOException, TFTPException {
+        try (TFTPServer cached = new TFTPServer(this.folder.getRoot().toPath()).cacheSize(1024 * 1024)
+                .start(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+                DatagramSocket socket = new DatagramSocket()) {
+            for (int i = 0; i < 2; i++) {
+                final ByteArrayOutputStream output = new ByteArrayOutputStream();
+                new TFTP(socket).get(InetAddress.getLoopbackAddress(), cached.getAddress().getPort(), output,
+                        "file.bin", "octet", Option.blksize(1024));
+                Assert.assertArrayEquals(this.content, output.toByteArray());
+            }
+        }
+    }
+
+    @Test
+    public void testGetTruncated() throws IOException, TFTPException {
+        final Path file = this.folder.getRoot().toPath().resolve("file.bin");
+        Files.write(this.folder.getRoot().toPath().resolve("other.bin"), this.content);
+        try (TFTPServer cached = new TFTPServer(this.folder.getRoot().toPath()).threads(1).cacheSize(1024 * 1024)
+                .start(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0))) {
+            try (DatagramSocket client = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+                client.setSoTimeout(2000);
+                client.send(Request.read("file.bin", "octet", InetAddress.getLoopbackAddress(),
+                        cached.getAddress().getPort()).build());
+                final DatagramPacket packet = new DatagramPacket(new byte[516], 516);
+                client.receive(packet);
+                // the file is replaced in place while its mapping is read: only this transfer fails
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                    channel.truncate(0);
+                }
+                client.send(new DatagramPacket(new byte[] {0, 4, 0, 1}, 4, packet.getSocketAddress()));
+            }
+            try (DatagramSocket socket = new DatagramSocket()) {
+                final ByteArrayOutputStream output = new ByteArrayOutputStream();
+                new TFTP(socket).retries(1).get(InetAddress.getLoopbackAddress(), cached.getAddress().getPort(),
+                        output, "other.bin", "octet");
+                Assert.assertArrayEquals(this.content, output.toByteArray());
+            }
+        }
+    }
+
+    @Test
+    public void testNetascii() throws IOException, TFTPException {
+        final byte[] text = "first line\nsecond\rline\n".repeat(1000).getBytes(StandardCharsets.US_ASCII);
+        Files.write(this.folder.getRoot().toPath().resolve("file.txt"), text);
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (DatagramSocket socket = new DatagramSocket()) {
+            final TransferResult result = new TFTP(socket).get(InetAddress.getLoopbackAddress(), this.port, output,
+                    "file.txt", "netascii", Option.blksize(1000));
+            Assert.assertEquals(text.length + 3000, result.getBytes());
+            new TFTP(socket).put(InetAddress.getLoopbackAddress(), this.port,
+                    new ByteArrayInputStream(output.toByteArray()), "uploaded.txt", "NETASCII", Option.blksize(999));
+        }
+        Assert.assertArrayEquals(text, output.toByteArray());
+        Assert.assertArrayEquals(text, Files.readAllBytes(this.folder.getRoot().toPath().resolve("uploaded.txt")));
+    }
+
+    @Test
+    public void testPut() throws IOException, TFTPException {
+        try (DatagramSocket socket = new DatagramSocket()) {
+            new TFTP(socket).put(InetAddress.getLoopbackAddress(), this.port, new ByteArrayInputStream(this.content),
+                    "uploaded.bin", "octet", Option.blksize(1024), Option.windowsize(4));
+        }
+        Assert.assertArrayEquals(this.content, Files.readAllBytes(this.folder.getRoot().toPath().resolve("uploaded.bin")));
+    }
+
+    @Test
+    public void testPutExisting() throws IOException {
+        try (DatagramSocket socket = new DatagramSocket()) {
+            new TFTP(socket).put(InetAddress.getLoopbackAddress(), this.port, new ByteArrayInputStream(this.content),
+                    "file.bin", "octet");
+            Assert.fail("error expected");
+        } catch (TFTPException e) {
+            Assert.assertEquals(EError.FILE_ALREADY_EXISTS, e.getError());
+        }
+    }
+
+    @Test
+    public void testGetNotFound() throws IOException {
+        try (DatagramSocket socket = new DatagramSocket()) {
+            new TFTP(socket).get(InetAddress.getLoopbackAddress(), this.port, new ByteArrayOutputStream(),
+                    "missing.bin", "octet");
+            Assert.fail("error expected");
+        } catch (TFTPException e) {
+            Assert.assertEquals(EError.FILE_NOT_FOUND, e.getError());
+        }
+    }
+
+    @Test
+    public void testGetUnreadable() throws IOException, TFTPException {
+        final Path secret = this.folder.getRoot().toPath().resolve("secret.bin");
+        Files.write(secret, this.content);
+        Assert.assertTrue(secret.toFile().setReadable(false, false));
+        try (TFTPServer cached = new TFTPServer(this.folder.getRoot().toPath()).cacheSize(1024 * 1024)
+                .start(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+                DatagramSocket socket = new DatagramSocket()) {
+            final int port = cached.getAddress().getPort();
+            try {
+                new TFTP(socket).get(InetAddress.getLoopbackAddress(), port, new ByteArrayOutputStream(),
+                        "secret.bin", "octet");
+                Assert.assertTrue("readable by a privileged user only", Files.isReadable(secret));
+            } catch (TFTPException e) {
+                Assert.assertEquals(EError.ACCESS_VIOLATION, e.getError());
+            }
+            // the server still answers the next requests
+            final ByteArrayOutputStream output = new ByteArrayOutputStream();
+            new TFTP(socket).get(InetAddress.getLoopbackAddress(), port, output, "file.bin", "octet");
+            Assert.assertArrayEquals(this.content, output.toByteArray());
+        }
+    }
+
+    @Test
+    public void testGetOutsideRoot() throws IOException {
+        try (DatagramSocket socket = new DatagramSocket()) {
+            new TFTP(socket).get(InetAddress.getLoopbackAddress(), this.port, new ByteArrayOutputStream(),
+                    "../file.bin", "octet");
+            Assert.fail("error expected");
+        } catch (TFTPException e) {
+            Assert.assertEquals(EError.ACCESS_VIOLATION, e.getError());
+        }
+    }
+
+    @Test
+    public void testConcurrentGets() throws Exception {
+        try (TFTPClient client = new TFTPClient(2, 64)) {
+            final List<ByteArrayOutputStream> outputs = new ArrayList<>();
+            final List<CompletableFuture<TransferResult>> futures = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                final ByteArrayOutputStream output = new ByteArrayOutputStream();
+                outputs.add(output);
+                futures.add(client.getAsync(InetAddress.getLoopbackAddress(), this.port, output, "file.bin",
+                        "octet", Option.blksize(1428), Option.windowsize(4)));
+            }
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get(60, TimeUnit.SECONDS);
+            for (ByteArrayOutputStream output : outputs) {
+                Assert.assertArrayEquals(this.content, output.toByteArray());
+            }
+        }
+        // the server sessions end once the last ACK is received
+        for (int i = 0; i < 100 && this.server.getSessions() > 0; i++) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(0, this.server.getSessions());
+    }
+
+    @Test
+    public void testSharedChannels() throws Exception {
+        try (TFTPServer shared = new TFTPServer(this.folder.getRoot().toPath()).threads(2).sharedChannels(true)
+                .start(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+                TFTPClient client = new TFTPClient(2, 64)) {
+            final List<ByteArrayOutputStream> outputs = new ArrayList<>();
+            final List<CompletableFuture<TransferResult>> futures = new ArrayList<>();
+            for (int i = 0; i < 50; i++) {
+                final ByteArrayOutputStream output = new ByteArrayOutputStream();
+                outputs.add(output);
+                futures.add(client.getAsync(InetAddress.getLoopbackAddress(), shared.getAddress().getPort(), output,
+                        "file.bin", "octet", Option.blksize(1428), Option.windowsize(4)));
+            }
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get(60, TimeUnit.SECONDS);
+            for (ByteArrayOutputStream output : outputs) {
+                Assert.assertArrayEquals(this.content, output.toByteArray());
+            }
+        }
+    }
+
+    @Test
+    public void testUnknownTransferId() throws IOException {
+        try (TFTPServer shared = new TFTPServer(this.folder.getRoot().toPath()).threads(1).sharedChannels(true)
+                .start(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0))) {
+            checkUnknownTransferId(this.port);
+            checkUnknownTransferId(shared.getAddress().getPort());
+        }
+    }
+
+    @Test
+    public void testRetransmitWithinRto() throws IOException {
+        try (DatagramSocket client = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+            client.setSoTimeout(2000);
+            client.send(Request.read("file.bin", "octet", InetAddress.getLoopbackAddress(), this.port).build());
+            final DatagramPacket packet = new DatagramPacket(new byte[516], 516);
+            // fast round trips: the retransmission timeout of the server goes down to a few milliseconds
+            for (int block = 1; block < 50; block++) {
+                client.receive(packet);
+                Assert.assertEquals(block, ByteBuffer.wrap(packet.getData()).getShort(2));
+                client.send(new DatagramPacket(new byte[] {0, 4, 0, (byte) block}, 4, packet.getSocketAddress()));
+            }
+            // the ACK of the block 50 is lost: the block is sent again within the timeout, not at the next second
+            client.receive(packet);
+            Assert.assertEquals(50, ByteBuffer.wrap(packet.getData()).getShort(2));
+            final long sent = System.nanoTime();
+            client.receive(packet);
+            Assert.assertEquals(50, ByteBuffer.wrap(packet.getData()).getShort(2));
+            Assert.assertTrue(System.nanoTime() - sent < TimeUnit.MILLISECONDS.toNanos(500));
+            final byte[] abort = {0, 5, 0, 0, 0};
+            client.send(new DatagramPacket(abort, abort.length, packet.getSocketAddress()));
+        }
+    }
+
+    /**
+     * Sends an ACK to a running session from another transfer identifier: it is rejected and the session goes on.
+     *
+     * @param port the port of the server
+     * @throws IOException
+     */
+    private static void checkUnknownTransferId(final int port) throws IOException {
+        try (DatagramSocket client = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+                DatagramSocket stranger = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+            client.setSoTimeout(2000);
+            stranger.setSoTimeout(2000);
+            client.send(Request.read("file.bin", "octet", InetAddress.getLoopbackAddress(), port).build());
+            final DatagramPacket packet = new DatagramPacket(new byte[516], 516);
+            client.receive(packet);
+            final InetSocketAddress server = (InetSocketAddress) packet.getSocketAddress();
+            Assert.assertEquals(EOperation.DATA.getCode(), ByteBuffer.wrap(packet.getData()).getShort(0));
+            final byte[] ack = {0, 4, 0, 1};
+            stranger.send(new DatagramPacket(ack, ack.length, server));
+            stranger.receive(packet);
+            final ByteBuffer error = ByteBuffer.wrap(packet.getData(), 0, packet.getLength());
+            Assert.assertEquals(EOperation.ERROR.getCode(), error.getShort());
+            Assert.assertEquals(EError.UNKNOWN_TRANSFER_ID.getCode(), error.getShort());
+            client.send(new DatagramPacket(ack, ack.length, server));
+            client.receive(packet);
+            final ByteBuffer data = ByteBuffer.wrap(packet.getData(), 0, packet.getLength());
+            Assert.assertEquals(EOperation.DATA.getCode(), data.getShort());
+            Assert.assertEquals(2, data.getShort());
+            final byte[] abort = {0, 5, 0, 0, 0};
+            client.send(new DatagramPacket(abort, abort.length, server));
+        }
+    }
+
+}
@@ -0,0 +1,328 @@
+/*
+ * Copyright 2019 Claire Fauch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.code.fauch.hedwig;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * TU for TFTP
+ *
+ * @author c.fauch
+ *
+ */
+public class TFTPTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private TFTPServer server;
+
+    private byte[] content;
+
+    private int port;
+
+    @Before
+    public void setUp() throws IOException {
+        this.content = new byte[100_000];
+        new Random(1).nextBytes(this.content);
+        Files.write(this.folder.getRoot().toPath().resolve("file.bin"), this.content);
+        this.server = new TFTPServer(this.folder.getRoot().toPath()).writable(true)
+                .start(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        this.port = this.server.getAddress().getPort();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        this.server.close();
+    }
+
+    @Test
+    public void testGetPreallocates() throws IOException, TFTPException {
+        final Path file = this.folder.getRoot().toPath().resolve("copy.bin");
+        final List<Long> sizes = new ArrayList<>();
+        try (DatagramSocket socket = new DatagramSocket()) {
+            new TFTP(socket).listener(new TransferListener() {
+                @Override
+                public void progress(final TransferProgress progress) {
+                    try {
+                        sizes.add(Files.size(file));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            }).get(InetAddress.getLoopbackAddress(), this.port, file, "file.bin", "octet", Option.blksize(1428));
+        }
+        Assert.assertEquals(Long.valueOf(this.content.length), sizes.get(0));
+        Assert.assertArrayEquals(this.content, Files.readAllBytes(file));
+    }
+
+    @Test
+    public void testDigest() throws IOException, TFTPException, NoSuchAlgorithmException {
+        final byte[] expected = MessageDigest.getInstance("SHA-256").digest(this.content);
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (DatagramSocket socket = new DatagramSocket()) {
+            final TFTP tftp = new TFTP(socket).digest("SHA-256");
+            Assert.assertArrayEquals(expected, tftp.get(InetAddress.getLoopbackAddress(), this.port, output,
+                    "file.bin", "octet", Option.blksize(1428), Option.windowsize(4)).getDigest());
+            Assert.assertArrayEquals(expected, tftp.put(InetAddress.getLoopbackAddress(), this.port,
+                    this.folder.getRoot().toPath().resolve("file.bin"), "uploaded.bin", "octet").getDigest());
+            Assert.assertNull(tftp.digest(null).get(InetAddress.getLoopbackAddress(), this.port, output,
+                    "file.bin", "octet").getDigest());
+        }
+    }
+
+    @Test
+    public void testGetWriteBehind() throws IOException, TFTPException {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (DatagramSocket socket = new DatagramSocket()) {
+            new TFTP(socket).writeBehind(8).get(InetAddress.getLoopbackAddress(), this.port, output, "file.bin", 
+                    "octet", Option.blksize(1024), Option.windowsize(4));
+        }
+        Assert.assertArrayEquals(this.content, output.toByteArray());
+    }
+
+    @Test
+    public void testPutReadAhead() throws IOException, TFTPException {
+        try (DatagramSocket socket = new DatagramSocket()) {
+            new TFTP(socket).readAhead(8).put(InetAddress.getLoopbackAddress(), this.port, 
+                    new ByteArrayInputStream(this.content), "uploaded.bin", "octet", Option.blksize(1024), 
+                    Option.windowsize(4));
+        }
+        Assert.assertArrayEquals(this.content, Files.readAllBytes(this.folder.getRoot().toPath().resolve("uploaded.bin")));
+    }
+
+    @Test
+    public void testRate() throws IOException, TFTPException {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (DatagramSocket socket = new DatagramSocket()) {
+            final TFTP tftp = new TFTP(socket).rate(400_000);
+            // about 250 ms at 400 kB/s
+            final TransferResult put = tftp.put(InetAddress.getLoopbackAddress(), this.port,
+                    new ByteArrayInputStream(this.content), "uploaded.bin", "octet", Option.blksize(1024),
+                    Option.windowsize(8));
+            Assert.assertTrue(put.getDuration().toMillis() >= 200);
+            final TransferResult get = tftp.get(InetAddress.getLoopbackAddress(), this.port, output, "file.bin",
+                    "octet", Option.blksize(1024), Option.windowsize(8));
+            Assert.assertTrue(get.getDuration().toMillis() >= 200);
+        }
+        Assert.assertArrayEquals(this.content, output.toByteArray());
+        Assert.assertArrayEquals(this.content, Files.readAllBytes(this.folder.getRoot().toPath().resolve("uploaded.bin")));
+    }
+
+    @Test
+    public void testGlobalRate() throws Exception {
+        TFTP.globalRate(800_000);
+        try (TFTPExecutor executor = TFTPExecutor.platformThreads(2)) {
+            final long start = System.nanoTime();
+            // two transfers sharing 800 kB/s: about 250 ms
+            executor.runAll(List.of(
+                    TransferJob.get(InetAddress.getLoopbackAddress(), this.port, new ByteArrayOutputStream(),
+                            "file.bin", "octet", Option.blksize(1024), Option.windowsize(8)),
+                    TransferJob.get(InetAddress.getLoopbackAddress(), this.port, new ByteArrayOutputStream(),
+                            "file.bin", "octet", Option.blksize(1024), Option.windowsize(8))));
+            Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(200));
+        } finally {
+            TFTP.globalRate(0);
+        }
+    }
+
+    @Test
+    public void testGlobalRateRunning() throws IOException, TFTPException {
+        // no rate limit when the put starts, then about 500 ms at 200 kB/s once the first block is read
+        final ByteArrayInputStream input = new ByteArrayInputStream(this.content) {
+            @Override
+            public synchronized int read(final byte[] b, final int off, final int len) {
+                if (this.pos > 0) {
+                    TFTP.globalRate(200_000);
+                }
+                return super.read(b, off, len);
+            }
+        };
+        try (DatagramSocket socket = new DatagramSocket()) {
+            final TransferResult put = new TFTP(socket).put(InetAddress.getLoopbackAddress(), this.port, input,
+                    "uploaded.bin", "octet", Option.blksize(1024), Option.windowsize(8));
+            Assert.assertTrue(put.getDuration().toMillis() >= 300);
+        } finally {
+            TFTP.globalRate(0);
+        }
+        Assert.assertArrayEquals(this.content, Files.readAllBytes(this.folder.getRoot().toPath().resolve("uploaded.bin")));
+    }
+
+
+    @Test
+    public void testPutLosses() throws Exception {
+        final byte[] expected = Arrays.copyOf(this.content, 5000);
+        try (DatagramSocket peer = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+                DatagramSocket socket = new DatagramSocket()) {
+            peer.setSoTimeout(5000);
+            // the block 5 is lost: the window is rolled back; the ACK of the block 8 is lost: the window is sent again
+            final CompletableFuture<byte[]> received = CompletableFuture.supplyAsync(() -> receive(peer, 4, 5, 8));
+            final TransferResult result = new TFTP(socket).put(InetAddress.getLoopbackAddress(), peer.getLocalPort(),
+                    new ByteArrayInputStream(expected), "file.bin", "octet", Option.windowsize(4));
+            Assert.assertArrayEquals(expected, received.get(5, TimeUnit.SECONDS));
+            Assert.assertEquals(10, result.getBlocks());
+            Assert.assertEquals(1, result.getRetransmissions());
+        }
+    }
+
+    @Test
+    public void testGetLosses() throws Exception {
+        final byte[] expected = Arrays.copyOf(this.content, 5000);
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (DatagramSocket peer = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+                DatagramSocket socket = new DatagramSocket()) {
+            peer.setSoTimeout(5000);
+            // the block 5 is lost: the window is rolled back; the ACK of the block 8 is lost: the ACK is sent again
+            final CompletableFuture<Void> sent = CompletableFuture.runAsync(() -> send(peer, expected, 4, 5, 8));
+            final TransferResult result = new TFTP(socket).get(InetAddress.getLoopbackAddress(), peer.getLocalPort(),
+                    output, "file.bin", "octet", Option.windowsize(4));
+            sent.get(5, TimeUnit.SECONDS);
+            Assert.assertArrayEquals(expected, output.toByteArray());
+            Assert.assertEquals(10, result.getBlocks());
+            Assert.assertEquals(3, result.getOutOfOrder());
+            Assert.assertEquals(1, result.getRetransmissions());
+        }
+    }
+
+    /**
+     * Answers a WRITE request as a remote host losing a DATA block and an ACK once, and returns the received
+     * content.
+     */
+    private static byte[] receive(final DatagramSocket peer, final int windowsize, final int lostBlock,
+            final int lostAck) {
+        try {
+            final ByteArrayOutputStream output = new ByteArrayOutputStream();
+            final PacketView view = new PacketView();
+            final DatagramPacket packet = new DatagramPacket(new byte[516], 516);
+            peer.receive(packet);
+            final SocketAddress remote = packet.getSocketAddress();
+            send(peer, PacketView.oack(ByteBuffer.allocate(32), Option.windowsize(windowsize)), remote);
+            boolean blockLost = false;
+            boolean ackLost = false;
+            boolean rolledBack = false;
+            int next = 1;
+            int received = 0;
+            while (true) {
+                peer.receive(packet);
+                Assert.assertTrue(view.wrap(ByteBuffer.wrap(packet.getData(), 0, packet.getLength())));
+                final int block = view.getBlock();
+                if (block == lostBlock && !blockLost) {
+                    blockLost = true;
+                } else if (block == next) {
+                    output.write(packet.getData(), view.getOffset(), view.getLength());
+                    next++;
+                    received++;
+                    rolledBack = false;
+                    final boolean last = view.getLength() < Session.DATA_SIZE;
+                    if (received == windowsize || last) {
+                        received = 0;
+                        if (block == lostAck && !ackLost) {
+                            ackLost = true;
+                        } else {
+                            send(peer, PacketView.ack(ByteBuffer.allocate(4), block), remote);
+                        }
+                    }
+                    if (last) {
+                        return output.toByteArray();
+                    }
+                } else if (block == next - 1 || (block > next && !rolledBack)) {
+                    // the last block sent again, or the first block ahead of sequence to roll the window back
+                    received = 0;
+                    rolledBack = block > next;
+                    send(peer, PacketView.ack(ByteBuffer.allocate(4), next - 1), remote);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Answers a READ request as a remote host losing a DATA block and an ACK once.
+     */
+    private static void send(final DatagramSocket peer, final byte[] content, final int windowsize,
+            final int lostBlock, final int lostAck) {
+        try {
+            final PacketView view = new PacketView();
+            final DatagramPacket packet = new DatagramPacket(new byte[516], 516);
+            peer.receive(packet);
+            final SocketAddress remote = packet.getSocketAddress();
+            send(peer, PacketView.oack(ByteBuffer.allocate(32), Option.windowsize(windowsize)), remote);
+            final int blocks = content.length / Session.DATA_SIZE + 1;
+            boolean blockLost = false;
+            boolean ackLost = false;
+            int acked = -1;
+            while (acked < blocks) {
+                peer.receive(packet);
+                Assert.assertTrue(view.wrap(ByteBuffer.wrap(packet.getData(), 0, packet.getLength())));
+                final int block = view.getBlock();
+                if (block == lostAck && !ackLost) {
+                    ackLost = true;
+                    continue;
+                }
+                if (block < acked) { // a late ACK
+                    continue;
+                }
+                acked = block;
+                for (int i = acked + 1; i <= Math.min(acked + windowsize, blocks); i++) {
+                    if (i == lostBlock && !blockLost) {
+                        blockLost = true;
+                        continue;
+                    }
+                    final int from = (i - 1) * Session.DATA_SIZE;
+                    final int length = Math.min(Session.DATA_SIZE, content.length - from);
+                    send(peer, PacketView.data(ByteBuffer.allocate(516), i).put(content, from, length).flip(), remote);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Sends a packet.
+     */
+    private static void send(final DatagramSocket peer, final ByteBuffer packet, final SocketAddress remote)
+            throws IOException {
+        peer.send(new DatagramPacket(packet.array(), packet.limit(), remote));
+    }
+
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2019 Claire Fauch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.code.fauch.hedwig;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * TU for TokenBucket
+ *
+ * @author c.fauch
+ *
+ */
+public class TokenBucketTest {
+
+    @Test
+    public void testUnlimited() {
+        final TokenBucket bucket = new TokenBucket(0);
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertEquals(0, bucket.take(65_468));
+        }
+    }
+
+    @Test
+    public void testBurst() {
+        // 10 ms of traffic at 1 MB/s
+        final TokenBucket bucket = new TokenBucket(1_000_000);
+        Assert.assertEquals(0, bucket.take(10_000));
+        final long wait = bucket.take(10_000);
+        Assert.assertTrue(wait > TimeUnit.MILLISECONDS.toNanos(5));
+        Assert.assertTrue(wait <= TimeUnit.MILLISECONDS.toNanos(10));
+    }
+
+    @Test
+    public void testTakenInAdvance() {
+        final TokenBucket bucket = new TokenBucket(1_000_000);
+        bucket.take(10_000);
+        final long first = bucket.take(100_000);
+        final long second = bucket.take(100_000);
+        // each packet waits for the ones taken before it
+        Assert.assertTrue(second - first > TimeUnit.MILLISECONDS.toNanos(90));
+    }
+
+    @Test
+    public void testSetRate() {
+        final TokenBucket bucket = new TokenBucket(1_000_000);
+        bucket.setRate(0);
+        Assert.assertEquals(0, bucket.getRate());
+        Assert.assertEquals(0, bucket.take(1_000_000));
+        bucket.setRate(1_000);
+        Assert.assertEquals(1_000, bucket.getRate());
+        Assert.assertTrue(bucket.take(2_000) > TimeUnit.SECONDS.toNanos(1));
+    }
+
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2019 Claire Fauch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.code.fauch.hedwig;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * TU for TransferDigest
+ *
+ * @author c.fauch
+ *
+ */
+public class TransferDigestTest {
+
+    @Test
+    public void testMessageDigest() throws NoSuchAlgorithmException {
+        final byte[] content = "123456789".getBytes(StandardCharsets.US_ASCII);
+        final TransferDigest digest = TransferDigest.of("SHA-256");
+        final ByteBuffer block = ByteBuffer.allocateDirect(16).put(content).flip();
+        digest.update(block.limit(4));
+        Assert.assertEquals(0, block.position());
+        digest.update(block.limit(9).position(4));
+        Assert.assertArrayEquals(MessageDigest.getInstance("SHA-256").digest(content), digest.digest());
+    }
+
+    @Test
+    public void testCrc32c() {
+        final TransferDigest digest = TransferDigest.of("crc32c");
+        digest.update(ByteBuffer.wrap("123456789".getBytes(StandardCharsets.US_ASCII)));
+        Assert.assertArrayEquals(new byte[] {(byte) 0xE3, 0x06, (byte) 0x92, (byte) 0x83}, digest.digest());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownAlgorithm() {
+        TransferDigest.of("unknown");
+    }
+
+}
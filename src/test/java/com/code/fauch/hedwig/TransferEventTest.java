@@ -0,0 +1,99 @@
+/*
+ * Copyright 2019 Claire Fauch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.code.fauch.hedwig;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * TU for the flight recorder events
+ *
+ * @author c.fauch
+ *
+ */
+public class TransferEventTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testEvents() throws IOException, TFTPException {
+        Files.write(this.folder.getRoot().toPath().resolve("file.bin"), new byte[3000]);
+        final Path dump = this.folder.getRoot().toPath().resolve("hedwig.jfr");
+        try (Recording recording = new Recording();
+                TFTPServer server = new TFTPServer(this.folder.getRoot().toPath())
+                        .start(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+                DatagramSocket socket = new DatagramSocket()) {
+            recording.enable("com.code.fauch.hedwig.Transfer");
+            recording.enable("com.code.fauch.hedwig.Error");
+            recording.enable("com.code.fauch.hedwig.RoundTrip").withThreshold(Duration.ZERO);
+            recording.start();
+            final int port = server.getAddress().getPort();
+            new TFTP(socket).get(InetAddress.getLoopbackAddress(), port, new ByteArrayOutputStream(), "file.bin",
+                    "octet", Option.blksize(1024), Option.tsize(0));
+            try {
+                new TFTP(socket).get(InetAddress.getLoopbackAddress(), port, new ByteArrayOutputStream(),
+                        "missing.bin", "octet");
+                Assert.fail("error expected");
+            } catch (TFTPException e) {
+                Assert.assertEquals(EError.FILE_NOT_FOUND, e.getError());
+            }
+            recording.stop();
+            recording.dump(dump);
+        }
+        final List<RecordedEvent> events = RecordingFile.readAllEvents(dump);
+        final List<RecordedEvent> transfers = events.stream()
+                .filter(e -> e.getEventType().getName().equals("com.code.fauch.hedwig.Transfer")
+                        && !e.getBoolean("server"))
+                .collect(Collectors.toList());
+        Assert.assertEquals(2, transfers.size());
+        final RecordedEvent complete = transfers.stream().filter(e -> e.getString("failure") == null)
+                .findFirst().get();
+        Assert.assertEquals("file.bin", complete.getString("fileName"));
+        Assert.assertEquals("READ", complete.getString("operation"));
+        Assert.assertEquals(1024, complete.getInt("blksize"));
+        Assert.assertEquals(3000, complete.getLong("tsize"));
+        Assert.assertEquals(3000, complete.getLong("bytes"));
+        Assert.assertEquals(3, complete.getLong("blocks"));
+        final List<RecordedEvent> errors = events.stream()
+                .filter(e -> e.getEventType().getName().equals("com.code.fauch.hedwig.Error"))
+                .collect(Collectors.toList());
+        Assert.assertEquals(2, errors.size()); // sent by the server and received by the client
+        for (RecordedEvent error : errors) {
+            Assert.assertEquals("FILE_NOT_FOUND", error.getString("error"));
+            Assert.assertEquals("missing.bin", error.getString("fileName"));
+        }
+        Assert.assertTrue(events.stream()
+                .anyMatch(e -> e.getEventType().getName().equals("com.code.fauch.hedwig.RoundTrip")));
+    }
+
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2019 Claire Fauch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.code.fauch.hedwig;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * TU for TransferListener
+ *
+ * @author c.fauch
+ *
+ */
+public class TransferListenerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private TFTPServer server;
+
+    private byte[] content;
+
+    private int port;
+
+    private final List<String> events = new ArrayList<>();
+
+    private final TransferListener listener = new TransferListener() {
+
+        @Override
+        public void requested(final String fileName, final String operation, final InetSocketAddress remote,
+                final Option[] options) {
+            events.add("requested " + operation + " " + fileName);
+        }
+
+        @Override
+        public void negotiated(final String fileName, final Option[] options) {
+            for (Option option : options) {
+                events.add("negotiated " + option.getLabel() + "=" + option.getValue());
+            }
+        }
+
+        @Override
+        public void sent(final String fileName, final int block, final long bytes) {
+            events.add("sent " + block + " " + bytes);
+        }
+
+        @Override
+        public void acknowledged(final String fileName, final int block) {
+            events.add("acknowledged " + block);
+        }
+
+        @Override
+        public void received(final String fileName, final int block, final long bytes) {
+            events.add("received " + block + " " + bytes);
+        }
+
+        @Override
+        public void progress(final TransferProgress progress) {
+            events.add("progress " + progress.getBytes() + "/" + progress.getTotal());
+        }
+
+        @Override
+        public void completed(final TransferResult result) {
+            events.add("completed " + result.getBytes());
+        }
+
+        @Override
+        public void failed(final String fileName, final Throwable cause) {
+            events.add("failed " + cause.getClass().getSimpleName());
+        }
+
+    };
+
+    @Before
+    public void setUp() throws IOException {
+        this.content = new byte[2500];
+        new Random(1).nextBytes(this.content);
+        Files.write(this.folder.getRoot().toPath().resolve("file.bin"), this.content);
+        this.server = new TFTPServer(this.folder.getRoot().toPath()).writable(true)
+                .start(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        this.port = this.server.getAddress().getPort();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        this.server.close();
+    }
+
+    @Test
+    public void testGet() throws IOException, TFTPException {
+        try (DatagramSocket socket = new DatagramSocket()) {
+            new TFTP(socket).listener(this.listener).get(InetAddress.getLoopbackAddress(), this.port,
+                    new ByteArrayOutputStream(), "file.bin", "octet", Option.blksize(1024));
+        }
+        Assert.assertEquals(List.of("requested READ file.bin", "negotiated blksize=1024", "negotiated tsize=2500",
+                "received 1 1024", "progress 1024/2500", "received 2 2048", "progress 2048/2500", "received 3 2500",
+                "progress 2500/2500", "completed 2500"), this.events);
+    }
+
+    @Test
+    public void testPut() throws IOException, TFTPException {
+        try (DatagramSocket socket = new DatagramSocket()) {
+            new TFTP(socket).listener(this.listener).put(InetAddress.getLoopbackAddress(), this.port,
+                    new ByteArrayInputStream(this.content), "uploaded.bin", "octet");
+        }
+        Assert.assertEquals("requested WRITE uploaded.bin", this.events.get(0));
+        Assert.assertEquals("sent 1 512", this.events.get(1));
+        Assert.assertEquals("acknowledged 1", this.events.get(2));
+        Assert.assertTrue(this.events.contains("sent 5 2500"));
+        Assert.assertEquals("completed 2500", this.events.get(this.events.size() - 1));
+    }
+
+    @Test
+    public void testFailed() throws IOException {
+        try (DatagramSocket socket = new DatagramSocket()) {
+            new TFTP(socket).listener(this.listener).get(InetAddress.getLoopbackAddress(), this.port,
+                    new ByteArrayOutputStream(), "missing.bin", "octet");
+            Assert.fail("error expected");
+        } catch (TFTPException e) {
+            Assert.assertEquals(List.of("requested READ missing.bin", "failed TFTPException"), this.events);
+        }
+    }
+
+}
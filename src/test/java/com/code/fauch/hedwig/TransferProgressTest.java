@@ -0,0 +1,51 @@
+/*
+ * Copyright 2019 Claire Fauch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.code.fauch.hedwig;
+
+import java.time.Duration;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * TU for TransferProgress
+ *
+ * @author c.fauch
+ *
+ */
+public class TransferProgressTest {
+
+    @Test
+    public void testEta() {
+        final TransferProgress progress = new TransferProgress("file.bin", 1000, 4000, Duration.ofSeconds(2));
+        Assert.assertEquals(0.25, progress.getFraction(), 0);
+        Assert.assertEquals(Duration.ofSeconds(6), progress.getEta());
+    }
+
+    @Test
+    public void testUnknownTotal() {
+        final TransferProgress progress = new TransferProgress("file.bin", 1000, -1, Duration.ofSeconds(2));
+        Assert.assertEquals(-1, progress.getFraction(), 0);
+        Assert.assertNull(progress.getEta());
+    }
+
+    @Test
+    public void testNothingReceived() {
+        final TransferProgress progress = new TransferProgress("file.bin", 0, 4000, Duration.ZERO);
+        Assert.assertEquals(0, progress.getFraction(), 0);
+        Assert.assertNull(progress.getEta());
+    }
+
+}
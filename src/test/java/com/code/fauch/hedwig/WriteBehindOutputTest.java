@@ -0,0 +1,132 @@
+/*
+ * Copyright 2019 Claire Fauch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.code.fauch.hedwig;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * TU for WriteBehindOutput
+ *
+ * @author c.fauch
+ *
+ */
+public class WriteBehindOutputTest {
+
+    @Test
+    public void testWrite() throws IOException {
+        final byte[] content = new byte[100_000];
+        new Random(1).nextBytes(content);
+        final ByteArrayOutputStream written = new ByteArrayOutputStream();
+        try (WriteBehindOutput output = new WriteBehindOutput(Channels.newChannel(written), 4, 1000)) {
+            for (int i = 0; i < content.length; i += 1428) {
+                final ByteBuffer block = ByteBuffer.wrap(content, i, Math.min(1428, content.length - i));
+                Assert.assertEquals(block.remaining(), output.write(block));
+                Assert.assertFalse(block.hasRemaining());
+            }
+            output.flush();
+            Assert.assertArrayEquals(content, written.toByteArray());
+        }
+    }
+
+    @Test
+    public void testFlushNetascii() throws IOException {
+        final ByteArrayOutputStream written = new ByteArrayOutputStream();
+        try (WriteBehindOutput behind = new WriteBehindOutput(Channels.newChannel(written), 2, 512)) {
+            final NetasciiOutput output = new NetasciiOutput(behind);
+            output.write(ByteBuffer.wrap("line\r\nend\r".getBytes(StandardCharsets.US_ASCII)));
+            output.flush();
+            Assert.assertEquals("line\nend\r", new String(written.toByteArray(), StandardCharsets.US_ASCII));
+        }
+    }
+
+    @Test
+    public void testWriteFailure() throws IOException {
+        final WritableByteChannel failing = new WritableByteChannel() {
+            
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+            
+            @Override
+            public void close() {
+                // nothing to close
+            }
+            
+            @Override
+            public int write(final ByteBuffer src) throws IOException {
+                throw new IOException("broken");
+            }
+        };
+        try (WriteBehindOutput output = new WriteBehindOutput(failing, 2, 512)) {
+            final byte[] block = new byte[512];
+            Arrays.fill(block, (byte) 1);
+            output.write(ByteBuffer.wrap(block));
+            try {
+                output.flush();
+                Assert.fail("failure expected");
+            } catch (IOException e) {
+                Assert.assertEquals("broken", e.getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void testCloseWhileWriting() throws Exception {
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicBoolean closed = new AtomicBoolean();
+        final ByteArrayOutputStream stream = new ByteArrayOutputStream() {
+            @Override
+            public synchronized void write(final byte[] b, final int off, final int len) {
+                writing.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.write(b, off, len);
+            }
+
+            @Override
+            public void close() {
+                closed.set(true);
+            }
+        };
+        final WriteBehindOutput output = new WriteBehindOutput(Channels.newChannel(stream), 2, 16);
+        output.write(ByteBuffer.wrap(new byte[16]));
+        Assert.assertTrue(writing.await(5, TimeUnit.SECONDS));
+        output.close();
+        release.countDown();
+        // the stream of the caller is still open once the channel writing behind is closed
+        Assert.assertFalse(closed.get());
+        stream.write(new byte[16], 0, 16);
+        Assert.assertEquals(32, stream.size());
+    }
+
+}